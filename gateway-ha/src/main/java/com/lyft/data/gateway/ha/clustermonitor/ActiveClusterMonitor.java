@@ -1,174 +1,550 @@
 package com.lyft.data.gateway.ha.clustermonitor;
 
-import static com.lyft.data.gateway.ha.handler.QueryIdCachingProxyHandler.UI_API_STATS_PATH;
+import static com.lyft.data.gateway.ha.handler.QueryIdCachingProxyHandler.V1_INFO_PATH;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lyft.data.gateway.ha.config.MonitorConfiguration;
 import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
-import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
-import com.lyft.data.gateway.ha.router.GatewayBackendManager;
-import com.lyft.data.gateway.ha.router.RoutingGroupsManager;
+import com.lyft.data.gateway.ha.router.BackendRegistry;
 import com.lyft.data.gateway.ha.router.RoutingManager;
 
 import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 import org.apache.http.HttpStatus;
 
 /**
- * This class creates a thread that runs every 5 seconds
- * and queries all backends and updates the routing
- * table based on that information.
+ * This class polls all backends for stats and updates the routing table based on that
+ * information. Each backend is polled on its own adaptive schedule, see
+ * {@link BackendPollState}: loaded or changing clusters as often as every
+ * {@link MonitorConfiguration#getMinPollIntervalMillis()}, idle ones down to every
+ * {@link MonitorConfiguration#getMaxPollIntervalMillis()}. Stats requests are sent
+ * asynchronously and each one has its own deadline, after which it is cancelled and the
+ * backend's last known stats are published marked stale. Observers are notified with the stats
+ * of all monitored backends whenever new stats have arrived.
+ *
+ * <p>Backends, or a sidecar next to them, can also push their stats, see
+ * {@link #ingestClusterStats(ClusterStats)}. Pushed stats are published right away and polling
+ * of that backend pauses until the push is older than
+ * {@link MonitorConfiguration#getPushTtlMillis()}.
+ *
+ * <p>When {@link MonitorConfiguration#getSnapshotPath()} is set, the latest stats and the query
+ * id cache are saved periodically and on stop, see {@link RoutingStateSnapshotter}. On start
+ * the snapshot is restored before the first poll: its stats are published marked stale, so
+ * routing works right away, and are replaced as the backends are polled.
  */
 @Slf4j
+@Singleton
 public class ActiveClusterMonitor implements Managed {
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-  private static final int BACKEND_CONNECT_TIMEOUT_SECONDS = 15;
-  private static final int MONITOR_TASK_DELAY_SECS = 5;
+  public static final String METRIC_PREFIX = "clusterMonitor";
+  private static final int MAX_CONCURRENT_REQUESTS = 256;
 
-  @Inject private List<PrestoClusterStatsObserver> clusterStatsObservers;
-  @Inject private GatewayBackendManager gatewayBackendManager;
-  @Inject private RoutingGroupsManager routingGroupsManager;
-  @Inject private RoutingManager routingManager;
+  private final ClusterStatsDispatcher clusterStatsDispatcher;
+  private final RoutingManager routingManager;
+  private final MonitorConfiguration monitorConfiguration;
+  private final MetricRegistry metricRegistry;
 
-  private volatile boolean monitorActive = true;
+  private final Map<String, ClusterStats> lastKnownStats = new ConcurrentHashMap<>();
+  // Latest stats of each monitored backend, as published to observers
+  private final Map<String, ClusterStats> currentStats = new ConcurrentHashMap<>();
+  // Stats endpoint of each backend address, detected from its version
+  private final Map<String, StatsEndpoint> statsEndpoints = new ConcurrentHashMap<>();
+  private final Map<String, BackendPollState> pollStates = new ConcurrentHashMap<>();
+  private final AtomicBoolean statsChanged = new AtomicBoolean();
+  private final OkHttpClient httpClient;
+  private final ScheduledExecutorService deadlineExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private final ScheduledExecutorService monitorExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  // Registry refreshes and snapshots have their own threads, so a slow database or disk does
+  // not delay a poll
+  private final ScheduledExecutorService registryExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private final ScheduledExecutorService snapshotExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  // Null when the routing state is not saved
+  private final RoutingStateSnapshotter snapshotter;
+  private final Timer snapshotTimer;
 
-  private OkHttpClient httpClient;
-  private ExecutorService executorService = Executors.newFixedThreadPool(10);
-  private ExecutorService singleTaskExecutor = Executors.newSingleThreadExecutor();
+  /**
+   * Creates the monitor.
+   * @param clusterStatsObservers Observers notified of new stats
+   * @param routingManager Routing manager providing the backends to monitor
+   * @param monitorConfiguration Poll and deadline settings
+   * @param metricRegistry Registry for the per backend poll metrics
+   */
+  @Inject
+  public ActiveClusterMonitor(List<PrestoClusterStatsObserver> clusterStatsObservers,
+      RoutingManager routingManager, MonitorConfiguration monitorConfiguration,
+      MetricRegistry metricRegistry) {
+    this.clusterStatsDispatcher =
+        new ClusterStatsDispatcher(clusterStatsObservers, metricRegistry);
+    this.routingManager = routingManager;
+    this.monitorConfiguration = monitorConfiguration;
+    this.metricRegistry = metricRegistry;
+
+    // Build http client, requests are bounded by their deadline instead of a thread pool
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+    long timeout = monitorConfiguration.getBackendTimeoutMillis();
+    this.httpClient = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+        .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+        .readTimeout(timeout, TimeUnit.MILLISECONDS)
+        .build();
+
+    String snapshotPath = monitorConfiguration.getSnapshotPath();
+    this.snapshotter = snapshotPath == null || snapshotPath.isEmpty() ? null
+        : new RoutingStateSnapshotter(Paths.get(snapshotPath),
+            monitorConfiguration.getSnapshotMaxAgeMillis());
+    this.snapshotTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "snapshot"));
+  }
 
   /**
    * Run an app that queries all active presto clusters for stats.
    */
   public void start() {
-    // Build http client
-    OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
-    clientBuilder.writeTimeout(BACKEND_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-    clientBuilder.readTimeout(BACKEND_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-    httpClient = clientBuilder.build();
+    // Load the backend registry before the gateway starts routing
+    routingManager.refreshBackendRegistry();
+    if (snapshotter != null) {
+      restoreSnapshot();
+      snapshotExecutor.scheduleWithFixedDelay(this::writeSnapshot,
+          monitorConfiguration.getSnapshotIntervalMillis(),
+          monitorConfiguration.getSnapshotIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
 
-    singleTaskExecutor.submit(
+    // Pick up changes made by other gateway instances sharing the database
+    registryExecutor.scheduleWithFixedDelay(routingManager::refreshBackendRegistry,
+        monitorConfiguration.getTaskDelayMillis(), monitorConfiguration.getTaskDelayMillis(),
+        TimeUnit.MILLISECONDS);
+
+    monitorExecutor.scheduleWithFixedDelay(
         () -> {
-          while (monitorActive) {
-            try {
-              List<ProxyBackendConfiguration> clusters = gatewayBackendManager.getAllBackends();
-
-              List<RoutingGroupConfiguration> routingGroups = routingGroupsManager
-                  .getAllRoutingGroups(clusters);
-
-              // Update saved information about routing groups and clusters
-              routingManager.updateRoutingGroups(routingGroups);
-              routingManager.updateBackendProxyMap(clusters);
-
-              // Service all active cluster in unpaused routing groups
-              List<ProxyBackendConfiguration> clustersToService = clusters.stream()
-                  .filter(ProxyBackendConfiguration::isActive)
-                  .filter(cluster -> {
-                    return routingGroupsManager
-                           .isRoutingGroupActive(routingGroups, cluster.getRoutingGroup());
-                  }).collect(Collectors.toList());
-
-              List<Future<ClusterStats>> futures = new ArrayList<>();
-              for (ProxyBackendConfiguration backend : clustersToService) {
-                Future<ClusterStats> call =
-                    executorService.submit(() -> getPrestoClusterStats(backend));
-                futures.add(call);
-              }
+          try {
+            List<ProxyBackendConfiguration> clustersToService = getServicedBackends();
+            pollBackends(clustersToService, System.currentTimeMillis());
+            // Forgotten backends are dropped from the published stats
+            publishStats(clustersToService);
+          } catch (Exception e) {
+            log.error("Error performing backend monitor tasks", e);
+          }
+        }, 0, monitorConfiguration.getMinPollIntervalMillis(), TimeUnit.MILLISECONDS);
+  }
 
-              List<ClusterStats> stats = new ArrayList<>();
-              for (Future<ClusterStats> clusterStatsFuture : futures) {
-                ClusterStats clusterStats = clusterStatsFuture.get();
-                stats.add(clusterStats);
-              }
+  /**
+   * Starts a stats request for every backend that is due, and forgets backends that are no
+   * longer monitored.
+   *
+   * @param backends Backends to monitor
+   * @param nowMillis Current time
+   */
+  void pollBackends(List<ProxyBackendConfiguration> backends, long nowMillis) {
+    Set<String> names = backends.stream()
+        .map(ProxyBackendConfiguration::getName)
+        .collect(Collectors.toSet());
+    for (String name : pollStates.keySet()) {
+      if (!names.contains(name)) {
+        pollStates.remove(name);
+        currentStats.remove(name);
+        metricRegistry.removeMatching((metricName, metric) ->
+            metricName.equals(pollRateMetric(name)) || metricName.equals(intervalMetric(name))
+                || metricName.equals(pushRateMetric(name)));
+      }
+    }
 
-              if (clusterStatsObservers != null) {
-                for (PrestoClusterStatsObserver observer : clusterStatsObservers) {
-                  observer.observe(stats);
-                }
-              }
-            } catch (Exception e) {
-              log.error("Error performing backend monitor tasks", e);
-            }
+    for (ProxyBackendConfiguration backend : backends) {
+      BackendPollState state = getPollState(backend.getName());
+      if (!state.isDue(nowMillis)) {
+        continue;
+      }
+      state.pollStarted();
+      metricRegistry.meter(pollRateMetric(backend.getName())).mark();
+      long pollStartMillis = System.currentTimeMillis();
+      fetchPrestoClusterStats(backend, clusterStats -> {
+        state.pollCompleted(clusterStats, System.currentTimeMillis());
+        // Drop late results of backends that stopped being monitored or pushed newer stats
+        if (pollStates.get(backend.getName()) == state && !state.isPushedSince(pollStartMillis)) {
+          currentStats.put(backend.getName(), clusterStats);
+          statsChanged.set(true);
+          // Published as it arrives rather than on the next tick
+          publishStats(backends);
+        }
+      });
+    }
+  }
 
-            try {
-              Thread.sleep(MONITOR_TASK_DELAY_SECS * 1000);
-            } catch (Exception e) {
-              log.error("Error with monitor task", e);
-            }
-          }
-        });
+  /**
+   * Accepts stats pushed by a backend and notifies the observers right away.
+   *
+   * @param pushedStats Stats of a backend, identified by its cluster id
+   * @return False if the backend is unknown, inactive or in a paused routing group
+   */
+  public boolean ingestClusterStats(ClusterStats pushedStats) {
+    List<ProxyBackendConfiguration> backends = getServicedBackends();
+    ProxyBackendConfiguration backend = backends.stream()
+        .filter(b -> b.getName().equals(pushedStats.getClusterId()))
+        .findFirst()
+        .orElse(null);
+    if (backend == null) {
+      return false;
+    }
+
+    // Routing attributes come from the registry, only the counts from the pusher
+    ClusterStats clusterStats = newClusterStats(backend);
+    clusterStats.setHealthy(pushedStats.isHealthy());
+    clusterStats.setNumWorkerNodes(pushedStats.getNumWorkerNodes());
+    clusterStats.setQueuedQueryCount(pushedStats.getQueuedQueryCount());
+    clusterStats.setRunningQueryCount(pushedStats.getRunningQueryCount());
+    clusterStats.setBlockedQueryCount(pushedStats.getBlockedQueryCount());
+    clusterStats.setReservedMemoryBytes(pushedStats.getReservedMemoryBytes());
+
+    getPollState(backend.getName()).pushReceived(clusterStats.getLastUpdated());
+    metricRegistry.meter(pushRateMetric(backend.getName())).mark();
+    lastKnownStats.put(backend.getName(), clusterStats);
+    currentStats.put(backend.getName(), clusterStats);
+    statsChanged.set(true);
+    publishStats(backends);
+    return true;
   }
 
   /**
-   * Sends an HTTP request to a backend to get information about
-   * the current status of the backend and returns it.
-   * 
-   * @param backend Backend to get information about
-   * @return A {@link ClusterStats} variable with information about the backend
+   * Publishes the stats of the snapshot, marked stale, for the backends that are still
+   * monitored with the same address and routing group.
    */
-  private ClusterStats getPrestoClusterStats(ProxyBackendConfiguration backend) {
-    ClusterStats clusterStats = new ClusterStats();
-    clusterStats.setClusterId(backend.getName());
-    clusterStats.setHealthy(false);
+  void restoreSnapshot() {
+    List<ProxyBackendConfiguration> backends = getServicedBackends();
+    Map<String, ProxyBackendConfiguration> backendsByName = backends.stream()
+        .collect(Collectors.toMap(ProxyBackendConfiguration::getName, Function.identity()));
+    for (ClusterStats saved : snapshotter.restore(routingManager, System.currentTimeMillis())) {
+      ProxyBackendConfiguration backend = backendsByName.get(saved.getClusterId());
+      if (backend == null || !backend.getProxyTo().equals(saved.getProxyTo())
+          || !backend.getRoutingGroup().equals(saved.getRoutingGroup())) {
+        continue;
+      }
+      // Routing attributes come from the registry, only the counts from the snapshot
+      ClusterStats clusterStats = newClusterStats(backend);
+      clusterStats.setHealthy(saved.isHealthy());
+      clusterStats.setStale(true);
+      clusterStats.setLastUpdated(saved.getLastUpdated());
+      clusterStats.setNumWorkerNodes(saved.getNumWorkerNodes());
+      clusterStats.setQueuedQueryCount(saved.getQueuedQueryCount());
+      clusterStats.setRunningQueryCount(saved.getRunningQueryCount());
+      clusterStats.setBlockedQueryCount(saved.getBlockedQueryCount());
+      clusterStats.setReservedMemoryBytes(saved.getReservedMemoryBytes());
+      lastKnownStats.put(backend.getName(), clusterStats);
+      currentStats.putIfAbsent(backend.getName(), clusterStats);
+      statsChanged.set(true);
+    }
+    publishStats(backends);
+  }
+
+  /**
+   * Saves the current stats and the query id cache, see {@link RoutingStateSnapshotter}.
+   */
+  void writeSnapshot() {
+    try (Timer.Context ignored = snapshotTimer.time()) {
+      snapshotter.write(currentStats.values(), routingManager, System.currentTimeMillis());
+    } catch (Exception e) {
+      log.error("Error saving routing state snapshot", e);
+    }
+  }
+
+  /**
+   * Active backends in unpaused routing groups.
+   */
+  private List<ProxyBackendConfiguration> getServicedBackends() {
+    BackendRegistry registry = routingManager.getBackendRegistry();
+    return registry.getAllBackends()
+        .stream()
+        .filter(ProxyBackendConfiguration::isActive)
+        .filter(cluster -> registry.isRoutingGroupActive(cluster.getRoutingGroup()))
+        .collect(Collectors.toList());
+  }
 
-    // The V1_NODE_PATH is used in 331 while V1_CLUSTER_PATH is used in 318
-    // TODO: Remove V1_CLUSTER_PATH once we're upgraded all clusters.
+  private BackendPollState getPollState(String backendName) {
+    return pollStates.computeIfAbsent(backendName, name -> {
+      BackendPollState state = new BackendPollState(
+          monitorConfiguration.getMinPollIntervalMillis(),
+          monitorConfiguration.getTaskDelayMillis(),
+          monitorConfiguration.getMaxPollIntervalMillis(),
+          monitorConfiguration.getPushTtlMillis());
+      metricRegistry.register(intervalMetric(name), (Gauge<Long>) state::getIntervalMillis);
+      return state;
+    });
+  }
 
-    String dynpath = ""; // Path Based on Presto and Trino cluster
+  /**
+   * Notifies the observers if new stats arrived since the last notification. Serialized, so
+   * the last notification always carries the latest stats of polls and pushes.
+   *
+   * @param backends Monitored backends
+   */
+  synchronized void publishStats(List<ProxyBackendConfiguration> backends) {
+    if (!statsChanged.getAndSet(false)) {
+      return;
+    }
+    clusterStatsDispatcher.dispatch(getCurrentStats(backends));
+  }
 
-    if (backend.getProxyTo().contains("trino") || backend.getProxyTo().contains("dashboard")) {
-      dynpath = UI_API_STATS_PATH;
+  /**
+   * Returns the latest stats of the given backends that have been polled at least once.
+   */
+  List<ClusterStats> getCurrentStats(List<ProxyBackendConfiguration> backends) {
+    List<ClusterStats> stats = new ArrayList<>(backends.size());
+    for (ProxyBackendConfiguration backend : backends) {
+      ClusterStats clusterStats = currentStats.get(backend.getName());
+      if (clusterStats != null) {
+        stats.add(clusterStats);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Name of the meter counting polls of a backend, its rates are the effective poll rate.
+   */
+  static String pollRateMetric(String backendName) {
+    return MetricRegistry.name(METRIC_PREFIX, backendName, "polls");
+  }
+
+  /**
+   * Name of the meter counting stats pushed by a backend.
+   */
+  static String pushRateMetric(String backendName) {
+    return MetricRegistry.name(METRIC_PREFIX, backendName, "pushes");
+  }
+
+  static String intervalMetric(String backendName) {
+    return MetricRegistry.name(METRIC_PREFIX, backendName, "pollIntervalMillis");
+  }
+
+  /**
+   * Sends an asynchronous HTTP request to a backend to get information about the current status
+   * of the backend. The request is cancelled when it misses its deadline. The first time a
+   * backend is polled its version is looked up to pick the stats endpoint.
+   *
+   * @param backend Backend to get information about
+   * @param callback Receives a {@link ClusterStats} with information about the backend
+   */
+  private void fetchPrestoClusterStats(ProxyBackendConfiguration backend,
+      Consumer<ClusterStats> callback) {
+    StatsEndpoint endpoint = statsEndpoints.get(backend.getProxyTo());
+    if (endpoint != null) {
+      fetchPrestoClusterStats(backend, endpoint, callback);
     } else {
-      dynpath = "/v1/cluster";
+      detectStatsEndpoint(backend,
+          detected -> fetchPrestoClusterStats(backend, detected, callback));
     }
+  }
+
+  private void fetchPrestoClusterStats(ProxyBackendConfiguration backend,
+      StatsEndpoint endpoint, Consumer<ClusterStats> callback) {
+    String target = backend.getProxyTo() + endpoint.getPath();
+    enqueueWithDeadline(backend, target, callback, new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        callback.accept(handleFailure(backend, target, call, e));
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        try (ResponseBody body = response.body()) {
+          if (response.code() == HttpStatus.SC_OK) {
+            callback.accept(parseClusterStats(backend, body.byteStream()));
+          } else {
+            log.error("Received non 200 response, response code: "
+                + "{} when fetching cluster stats from [{}]", response.code(), target);
+            if (response.code() == HttpStatus.SC_NOT_FOUND) {
+              // The backend may have been upgraded, detect its version again
+              statsEndpoints.remove(backend.getProxyTo());
+            }
+            callback.accept(getUnhealthyClusterStats(backend));
+          }
+        } catch (Exception e) {
+          callback.accept(handleFailure(backend, target, call, e));
+        }
+      }
+    });
+  }
+
+  /**
+   * Looks up the version of a backend and caches the stats endpoint it serves. When the version
+   * can't be fetched the endpoint is guessed from the backend address, without caching it.
+   */
+  private void detectStatsEndpoint(ProxyBackendConfiguration backend,
+      Consumer<StatsEndpoint> callback) {
+    String target = backend.getProxyTo() + V1_INFO_PATH;
+    StatsEndpoint fallback = StatsEndpoint.forProxyTo(backend.getProxyTo());
+    enqueueWithDeadline(backend, target, clusterStats -> callback.accept(fallback),
+        new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            log.warn("Could not fetch version from [{}], using {}", target, fallback);
+            callback.accept(fallback);
+          }
 
-    String target = backend.getProxyTo() + dynpath;
-    
+          @Override
+          public void onResponse(Call call, Response response) {
+            StatsEndpoint endpoint = fallback;
+            try (ResponseBody body = response.body()) {
+              if (response.code() == HttpStatus.SC_OK) {
+                String version = ClusterStatsDecoder.decodeVersion(body.byteStream());
+                endpoint = StatsEndpoint.forVersion(version);
+                statsEndpoints.put(backend.getProxyTo(), endpoint);
+                log.info("Backend [{}] runs version {}, using {}", backend.getName(), version,
+                    endpoint);
+              } else {
+                log.warn("Received response code {} from [{}], using {}", response.code(),
+                    target, fallback);
+              }
+            } catch (Exception e) {
+              log.warn("Could not read version from [{}], using {}", target, fallback, e);
+            }
+            callback.accept(endpoint);
+          }
+        });
+  }
+
+  /**
+   * Sends a GET request that is cancelled once it misses the backend deadline.
+   *
+   * @param backend Backend the request is sent to
+   * @param target Request URL
+   * @param onInvalidRequest Receives unhealthy stats if the request can't be built
+   * @param callback Response callback, always called, also after the deadline
+   */
+  private void enqueueWithDeadline(ProxyBackendConfiguration backend, String target,
+      Consumer<ClusterStats> onInvalidRequest, Callback callback) {
+    Call call;
     try {
       // Build http request
       Request request = new Request.Builder()
           .get()
           .url(target)
           .build();
-      
-      // Send http request
-      Response response = httpClient.newCall(request).execute();
-
-      // Parse response
-      if (response.code() == HttpStatus.SC_OK) {
-        clusterStats.setHealthy(true);
-
-        HashMap<String, Object> result = 
-            OBJECT_MAPPER.readValue(response.body().string(), HashMap.class);
-
-        clusterStats.setNumWorkerNodes((int) result.get("activeWorkers"));
-        clusterStats.setQueuedQueryCount((int) result.get("queuedQueries"));
-        clusterStats.setRunningQueryCount((int) result.get("runningQueries"));
-        clusterStats.setBlockedQueryCount((int) result.get("blockedQueries"));
-        clusterStats.setProxyTo(backend.getProxyTo());
-        clusterStats.setRoutingGroup(backend.getRoutingGroup());
-        log.info("Host: {}, Cluster_stat: {}", System.getenv("HOSTNAME"), clusterStats);
-      } else {
-        log.error("Received non 200 response, response code: " 
-            + "{} when fetching cluster stats from [{}]", response.code(), target);
-      }
+      call = httpClient.newCall(request);
     } catch (Exception e) {
-      clusterStats.setHealthy(false);
       log.error("Error fetching cluster stats from [{}]", target, e);
+      onInvalidRequest.accept(getUnhealthyClusterStats(backend));
+      return;
+    }
+
+    ScheduledFuture<?> deadline = deadlineExecutor.schedule(call::cancel,
+        monitorConfiguration.getBackendTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+    // Send http request
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        deadline.cancel(false);
+        callback.onFailure(call, e);
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) throws IOException {
+        try {
+          callback.onResponse(call, response);
+        } finally {
+          deadline.cancel(false);
+        }
+      }
+    });
+  }
+
+  private ClusterStats handleFailure(ProxyBackendConfiguration backend, String target,
+      Call call, Exception e) {
+    if (call.isCanceled()) {
+      log.warn("Backend [{}] missed its {} ms deadline for cluster stats", backend.getName(),
+          monitorConfiguration.getBackendTimeoutMillis());
+      return getStaleClusterStats(backend);
+    }
+    log.error("Error fetching cluster stats from [{}]", target, e);
+    return getUnhealthyClusterStats(backend);
+  }
+
+  private ClusterStats parseClusterStats(ProxyBackendConfiguration backend, InputStream body)
+      throws IOException {
+    ClusterStats clusterStats = newClusterStats(backend);
+    ClusterStatsDecoder.decodeStats(body, clusterStats);
+    clusterStats.setHealthy(true);
+    log.debug("Host: {}, Cluster_stat: {}", System.getenv("HOSTNAME"), clusterStats);
+    lastKnownStats.put(backend.getName(), clusterStats);
+    return clusterStats;
+  }
+
+  private ClusterStats getUnhealthyClusterStats(ProxyBackendConfiguration backend) {
+    ClusterStats clusterStats = newClusterStats(backend);
+    clusterStats.setHealthy(false);
+    lastKnownStats.put(backend.getName(), clusterStats);
+    return clusterStats;
+  }
+
+  /**
+   * Returns the last known stats of a backend that missed its deadline, marked stale. Backends
+   * without recent enough healthy stats are reported unhealthy.
+   */
+  private ClusterStats getStaleClusterStats(ProxyBackendConfiguration backend) {
+    ClusterStats lastKnown = lastKnownStats.get(backend.getName());
+    long age = lastKnown == null ? Long.MAX_VALUE
+        : System.currentTimeMillis() - lastKnown.getLastUpdated();
+    if (lastKnown == null || !lastKnown.isHealthy()
+        || age > monitorConfiguration.getMaxStaleMillis()) {
+      ClusterStats clusterStats = getUnhealthyClusterStats(backend);
+      clusterStats.setStale(true);
+      return clusterStats;
     }
 
+    ClusterStats clusterStats = newClusterStats(backend);
+    clusterStats.setHealthy(true);
+    clusterStats.setStale(true);
+    clusterStats.setLastUpdated(lastKnown.getLastUpdated());
+    clusterStats.setNumWorkerNodes(lastKnown.getNumWorkerNodes());
+    clusterStats.setQueuedQueryCount(lastKnown.getQueuedQueryCount());
+    clusterStats.setRunningQueryCount(lastKnown.getRunningQueryCount());
+    clusterStats.setBlockedQueryCount(lastKnown.getBlockedQueryCount());
+    clusterStats.setReservedMemoryBytes(lastKnown.getReservedMemoryBytes());
+    return clusterStats;
+  }
+
+  private static ClusterStats newClusterStats(ProxyBackendConfiguration backend) {
+    ClusterStats clusterStats = new ClusterStats();
+    clusterStats.setClusterId(backend.getName());
+    clusterStats.setProxyTo(backend.getProxyTo());
+    clusterStats.setRoutingGroup(backend.getRoutingGroup());
+    if (backend.getCapacityWeight() != null) {
+      clusterStats.setCapacityWeight(backend.getCapacityWeight());
+    }
+    clusterStats.setLastUpdated(System.currentTimeMillis());
     return clusterStats;
   }
 
@@ -176,8 +552,22 @@ public class ActiveClusterMonitor implements Managed {
    * Shut down the app.
    */
   public void stop() {
-    this.monitorActive = false;
-    this.executorService.shutdown();
-    this.singleTaskExecutor.shutdown();
+    this.monitorExecutor.shutdown();
+    this.registryExecutor.shutdown();
+    this.snapshotExecutor.shutdown();
+    if (snapshotter != null) {
+      try {
+        // Let a snapshot being written finish before the final one
+        snapshotExecutor.awaitTermination(monitorConfiguration.getBackendTimeoutMillis(),
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      writeSnapshot();
+    }
+    this.clusterStatsDispatcher.stop();
+    this.deadlineExecutor.shutdown();
+    this.httpClient.dispatcher().cancelAll();
+    this.httpClient.dispatcher().executorService().shutdown();
   }
 }
@@ -0,0 +1,87 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+/**
+ * Polling schedule of a single backend. The interval drops to the minimum as soon as a backend
+ * has queued queries or its queue is moving, doubles back towards the default interval while
+ * queries only run, and keeps doubling up to the maximum while the backend is idle. Backends
+ * that push their stats are not polled again until their last push is older than the push TTL.
+ *
+ * <p>Thread safe, it is read by the monitor's scheduler and updated from fetch callbacks.
+ */
+class BackendPollState {
+  private final long minIntervalMillis;
+  private final long defaultIntervalMillis;
+  private final long maxIntervalMillis;
+  private final long pushTtlMillis;
+
+  private long intervalMillis;
+  private long nextPollMillis;
+  private boolean inFlight;
+  private int lastQueuedQueryCount = -1;
+  private long lastPushMillis;
+
+  BackendPollState(long minIntervalMillis, long defaultIntervalMillis, long maxIntervalMillis,
+      long pushTtlMillis) {
+    this.minIntervalMillis = minIntervalMillis;
+    this.defaultIntervalMillis =
+        Math.max(minIntervalMillis, Math.min(defaultIntervalMillis, maxIntervalMillis));
+    this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+    this.intervalMillis = this.defaultIntervalMillis;
+    this.pushTtlMillis = pushTtlMillis;
+  }
+
+  synchronized boolean isDue(long nowMillis) {
+    return !inFlight && nowMillis >= nextPollMillis;
+  }
+
+  synchronized void pollStarted() {
+    inFlight = true;
+  }
+
+  /**
+   * Adapts the interval to the latest stats and schedules the next poll.
+   * @param stats Stats returned by the poll
+   * @param nowMillis Current time
+   */
+  synchronized void pollCompleted(ClusterStats stats, long nowMillis) {
+    inFlight = false;
+    if (!stats.isHealthy() || stats.isStale()) {
+      intervalMillis = defaultIntervalMillis;
+    } else if (stats.getQueuedQueryCount() > 0
+        || (lastQueuedQueryCount >= 0 && stats.getQueuedQueryCount() != lastQueuedQueryCount)) {
+      intervalMillis = minIntervalMillis;
+    } else if (stats.getRunningQueryCount() > 0) {
+      intervalMillis = Math.min(intervalMillis * 2, defaultIntervalMillis);
+    } else {
+      intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+    }
+    if (stats.isHealthy() && !stats.isStale()) {
+      lastQueuedQueryCount = stats.getQueuedQueryCount();
+    }
+    nextPollMillis = Math.max(nowMillis + intervalMillis, pushExpiryMillis());
+  }
+
+  /**
+   * Records stats pushed by the backend, which postpone polling until the push TTL expires.
+   * @param nowMillis Current time
+   */
+  synchronized void pushReceived(long nowMillis) {
+    lastPushMillis = nowMillis;
+    nextPollMillis = Math.max(nextPollMillis, pushExpiryMillis());
+  }
+
+  /**
+   * Checks if stats were pushed at or after the given time, e.g. while a poll was in flight.
+   */
+  synchronized boolean isPushedSince(long millis) {
+    return lastPushMillis > 0 && lastPushMillis >= millis;
+  }
+
+  private long pushExpiryMillis() {
+    return lastPushMillis > 0 ? lastPushMillis + pushTtlMillis : 0;
+  }
+
+  synchronized long getIntervalMillis() {
+    return intervalMillis;
+  }
+}
@@ -0,0 +1,32 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+/**
+ * Default load score, the queries of a backend per unit of capacity. Capacity is the number of
+ * active workers times the capacity weight of the backend, so a backend with twice the workers
+ * or twice as large workers takes twice the queries for the same score.
+ *
+ * <p>Running and blocked queries count once. Queued queries count twice, they wait on resources
+ * the running queries hold, which makes a queue a stronger sign of saturation.
+ */
+public class CapacityNormalizedLoadScore implements LoadScoreFunction {
+  static final double QUEUED_QUERY_COST = 2.0;
+
+  @Override
+  public double score(ClusterStats stats) {
+    double queries = stats.getRunningQueryCount() + stats.getBlockedQueryCount()
+        + QUEUED_QUERY_COST * stats.getQueuedQueryCount();
+    return queries / capacity(stats);
+  }
+
+  @Override
+  public double scorePerQuery(ClusterStats stats) {
+    // A query routed to a backend that already queues will most likely queue as well
+    double cost = stats.getQueuedQueryCount() > 0 ? QUEUED_QUERY_COST : 1.0;
+    return cost / capacity(stats);
+  }
+
+  private static double capacity(ClusterStats stats) {
+    double capacityWeight = stats.getCapacityWeight() > 0 ? stats.getCapacityWeight() : 1.0;
+    return Math.max(1, stats.getNumWorkerNodes()) * capacityWeight;
+  }
+}
@@ -10,8 +10,16 @@ public class ClusterStats {
   private int queuedQueryCount;
   private int blockedQueryCount;
   private int numWorkerNodes;
+  // Memory reserved by running queries across the cluster, in bytes
+  private long reservedMemoryBytes;
   private boolean healthy;
   private String clusterId;
   private String proxyTo;
   private String routingGroup;
+  // Relative capacity of a worker of the backend, see ProxyBackendConfiguration
+  private double capacityWeight = 1.0;
+  // Stats are the last known ones of a backend that missed its deadline
+  private boolean stale;
+  // When the stats were fetched, in milliseconds since the epoch
+  private long lastUpdated;
 }
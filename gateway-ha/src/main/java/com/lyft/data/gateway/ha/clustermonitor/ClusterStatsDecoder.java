@@ -0,0 +1,101 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming decoder for the stats and info responses of a backend. Only the fields the gateway
+ * uses are read, everything else is skipped without being materialized, and numbers are read
+ * regardless of whether they are encoded as ints, longs or doubles.
+ */
+final class ClusterStatsDecoder {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private ClusterStatsDecoder() {
+  }
+
+  /**
+   * Reads the {@code /v1/cluster} or {@code /ui/api/stats} response into the given stats.
+   *
+   * @param in Response body
+   * @param clusterStats Stats to fill in
+   * @throws IOException If the body is not a JSON object or misses any query or worker count
+   */
+  static void decodeStats(InputStream in, ClusterStats clusterStats) throws IOException {
+    int found = 0;
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      expectObject(parser);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        switch (field) {
+          case "activeWorkers":
+            clusterStats.setNumWorkerNodes(parser.getValueAsInt());
+            found++;
+            break;
+          case "queuedQueries":
+            clusterStats.setQueuedQueryCount(parser.getValueAsInt());
+            found++;
+            break;
+          case "runningQueries":
+            clusterStats.setRunningQueryCount(parser.getValueAsInt());
+            found++;
+            break;
+          case "blockedQueries":
+            clusterStats.setBlockedQueryCount(parser.getValueAsInt());
+            found++;
+            break;
+          case "reservedMemory":
+            clusterStats.setReservedMemoryBytes(parser.getValueAsLong());
+            break;
+          default:
+            parser.skipChildren();
+            break;
+        }
+      }
+    }
+    if (found < 4) {
+      throw new IOException("Cluster stats are missing query or worker counts");
+    }
+  }
+
+  /**
+   * Reads the node version from a {@code /v1/info} response.
+   *
+   * @param in Response body
+   * @return Version, null if the response has none
+   * @throws IOException If the body is not a JSON object
+   */
+  static String decodeVersion(InputStream in) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      expectObject(parser);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (!"nodeVersion".equals(field) || token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          continue;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String versionField = parser.getCurrentName();
+          parser.nextToken();
+          if ("version".equals(versionField)) {
+            return parser.getValueAsString();
+          }
+          parser.skipChildren();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void expectObject(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Expected a JSON object");
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Delivers cluster stats to the observers. Fast path observers, like the routing table update,
+ * are called on the publishing thread. The others, like notifiers that may block on I/O, run on
+ * a bounded executor, one at a time per observer. When an observer falls behind only the latest
+ * snapshot is kept for it, intermediate ones are dropped.
+ *
+ * <p>Metrics per observer, under {@code clusterMonitor.observers.<observer>}: {@code lag} from
+ * publishing a snapshot until the observer starts on it, {@code duration} of the observer call
+ * and {@code coalesced}, the rate of dropped snapshots.
+ */
+@Slf4j
+public class ClusterStatsDispatcher {
+  public static final String METRIC_PREFIX = "clusterMonitor.observers";
+
+  private final List<ObserverChannel> fastPath = new ArrayList<>();
+  private final List<ObserverChannel> slowPath = new ArrayList<>();
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Creates a dispatcher for the given observers.
+   * @param observers Observers of cluster stats, may be null
+   * @param metricRegistry Registry for the observer metrics
+   */
+  public ClusterStatsDispatcher(List<PrestoClusterStatsObserver> observers,
+      MetricRegistry metricRegistry) {
+    if (observers != null) {
+      for (PrestoClusterStatsObserver observer : observers) {
+        ObserverChannel channel = new ObserverChannel(observer, metricRegistry);
+        (observer.isFastPath() ? fastPath : slowPath).add(channel);
+      }
+    }
+    // Each slow observer has at most one pending task, so the queue never overflows
+    int slowObservers = Math.max(1, slowPath.size());
+    this.executor = new ThreadPoolExecutor(slowObservers, slowObservers, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(slowObservers),
+        new ThreadFactoryBuilder().setNameFormat("cluster-stats-observer-%d")
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Passes a snapshot of cluster stats to all observers.
+   * @param stats Stats of all monitored backends
+   */
+  public void dispatch(List<ClusterStats> stats) {
+    Snapshot snapshot = new Snapshot(stats, System.nanoTime());
+    for (ObserverChannel channel : fastPath) {
+      channel.observe(snapshot);
+    }
+    for (ObserverChannel channel : slowPath) {
+      channel.offer(snapshot);
+    }
+  }
+
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  private static final class Snapshot {
+    private final List<ClusterStats> stats;
+    private final long publishedNanos;
+
+    private Snapshot(List<ClusterStats> stats, long publishedNanos) {
+      this.stats = stats;
+      this.publishedNanos = publishedNanos;
+    }
+  }
+
+  private final class ObserverChannel {
+    private final PrestoClusterStatsObserver observer;
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Timer lag;
+    private final Timer duration;
+    private final Meter coalesced;
+
+    private ObserverChannel(PrestoClusterStatsObserver observer, MetricRegistry metricRegistry) {
+      this.observer = observer;
+      String name = observer.getClass().getSimpleName();
+      this.lag = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, name, "lag"));
+      this.duration = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, name, "duration"));
+      this.coalesced = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, name, "coalesced"));
+    }
+
+    private void offer(Snapshot snapshot) {
+      if (pending.getAndSet(snapshot) != null) {
+        coalesced.mark();
+      }
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null) {
+          scheduled.set(false);
+          // A snapshot offered just before the flag was cleared has no task to run it
+          if (pending.get() == null || !scheduled.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        observe(snapshot);
+      }
+    }
+
+    private void observe(Snapshot snapshot) {
+      lag.update(System.nanoTime() - snapshot.publishedNanos, TimeUnit.NANOSECONDS);
+      try (Timer.Context ignored = duration.time()) {
+        observer.observe(snapshot.stats);
+      } catch (Exception e) {
+        log.error("Error notifying {} of cluster stats", observer.getClass().getSimpleName(), e);
+      }
+    }
+  }
+}
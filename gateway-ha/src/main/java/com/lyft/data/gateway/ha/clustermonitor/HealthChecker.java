@@ -2,10 +2,16 @@ package com.lyft.data.gateway.ha.clustermonitor;
 
 import com.lyft.data.gateway.ha.notifier.Notifier;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HealthChecker implements PrestoClusterStatsObserver {
   private static final int MAX_THRESHOLD_QUEUED_QUERY_COUNT = 100;
+  // Stats are published as often as backends are polled, don't repeat a notification more often
+  // than this
+  static final long NOTIFICATION_COOLDOWN_MILLIS = 5000;
   private Notifier notifier;
+  private final Map<String, Long> lastNotified = new ConcurrentHashMap<>();
 
   public HealthChecker(Notifier notifier) {
     this.notifier = notifier;
@@ -28,18 +34,28 @@ public class HealthChecker implements PrestoClusterStatsObserver {
   }
 
   private void notifyUnhealthyCluster(ClusterStats clusterStats) {
-    notifier.sendNotification(String.format("%s - Cluster unhealthy",
+    sendNotification(String.format("%s - Cluster unhealthy",
         clusterStats.getClusterId()),
         clusterStats.toString());
   }
 
   private void notifyForTooManyQueuedQueries(ClusterStats clusterStats) {
-    notifier.sendNotification(String.format("%s - Too many queued queries",
+    sendNotification(String.format("%s - Too many queued queries",
         clusterStats.getClusterId()), clusterStats.toString());
   }
 
   private void notifyForNoWorkers(ClusterStats clusterStats) {
-    notifier.sendNotification(String.format("%s - Number of workers",
+    sendNotification(String.format("%s - Number of workers",
         clusterStats.getClusterId()), clusterStats.toString());
   }
+
+  private void sendNotification(String subject, String content) {
+    long now = System.currentTimeMillis();
+    Long last = lastNotified.get(subject);
+    if (last != null && now - last < NOTIFICATION_COOLDOWN_MILLIS) {
+      return;
+    }
+    lastNotified.put(subject, now);
+    notifier.sendNotification(subject, content);
+  }
 }
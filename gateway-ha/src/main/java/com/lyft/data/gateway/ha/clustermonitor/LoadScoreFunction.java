@@ -0,0 +1,25 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+/**
+ * Turns the stats of a backend into a load score used to weight routing. Scores of backends of
+ * different sizes must be comparable, lower means less loaded.
+ *
+ * <p>Implementations are configured by class name and need a public no argument constructor.
+ */
+public interface LoadScoreFunction {
+
+  /**
+   * Load of a backend.
+   * @param stats Latest stats of a healthy backend with active workers
+   * @return Non negative load score
+   */
+  double score(ClusterStats stats);
+
+  /**
+   * How much a single query routed to the backend adds to its score. Used to estimate the load
+   * between two stats updates, and to weight idle backends by their capacity.
+   * @param stats Latest stats of a healthy backend with active workers
+   * @return Positive score increment
+   */
+  double scorePerQuery(ClusterStats stats);
+}
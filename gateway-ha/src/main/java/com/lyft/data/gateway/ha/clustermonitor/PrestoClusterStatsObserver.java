@@ -5,4 +5,13 @@ import java.util.List;
 public interface PrestoClusterStatsObserver {
 
   void observe(List<ClusterStats> stats);
+
+  /**
+   * Fast path observers are called on the thread publishing the stats and must not block.
+   * Others run on their own executor and may skip intermediate snapshots, see
+   * {@link ClusterStatsDispatcher}.
+   */
+  default boolean isFastPath() {
+    return false;
+  }
 }
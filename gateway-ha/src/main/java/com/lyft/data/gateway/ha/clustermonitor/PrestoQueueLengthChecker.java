@@ -1,5 +1,6 @@
 package com.lyft.data.gateway.ha.clustermonitor;
 
+import com.lyft.data.gateway.ha.router.ClusterLoad;
 import com.lyft.data.gateway.ha.router.PrestoQueueLengthRoutingTable;
 import java.util.HashMap;
 import java.util.List;
@@ -8,14 +9,27 @@ import java.util.Map;
 /**
  * Updates the QueueLength Based Routing Manager
  * {@link PrestoQueueLengthRoutingTable} with
- * updated queue lengths of active clusters.
+ * updated queue lengths of active clusters, and their load scores when a
+ * {@link LoadScoreFunction} is configured.
  */
 public class PrestoQueueLengthChecker implements PrestoClusterStatsObserver {
 
   PrestoQueueLengthRoutingTable routingManager;
+  LoadScoreFunction loadScoreFunction;
 
   public PrestoQueueLengthChecker(PrestoQueueLengthRoutingTable routingManager) {
+    this(routingManager, null);
+  }
+
+  /**
+   * Creates a checker that also passes load scores to the routing manager.
+   * @param routingManager Routing manager to update
+   * @param loadScoreFunction Scores the load of each cluster, null to route on queue length only
+   */
+  public PrestoQueueLengthChecker(PrestoQueueLengthRoutingTable routingManager,
+      LoadScoreFunction loadScoreFunction) {
     this.routingManager = routingManager;
+    this.loadScoreFunction = loadScoreFunction;
   }
 
   /**
@@ -28,6 +42,7 @@ public class PrestoQueueLengthChecker implements PrestoClusterStatsObserver {
   public void observe(List<ClusterStats> stats) {
     Map<String, Map<String, Integer>> clusterQueueMap = 
         new HashMap<String, Map<String, Integer>>();
+    Map<String, Map<String, ClusterLoad>> clusterLoadMap = new HashMap<>();
 
     for (ClusterStats stat : stats) {
       // Only add healthy clusters to be routed to that have active workers
@@ -36,9 +51,20 @@ public class PrestoQueueLengthChecker implements PrestoClusterStatsObserver {
 
         clusterQueueMap.get(stat.getRoutingGroup())
                        .put(stat.getClusterId(), stat.getQueuedQueryCount());
+
+        if (loadScoreFunction != null) {
+          clusterLoadMap.computeIfAbsent(stat.getRoutingGroup(), group -> new HashMap<>())
+              .put(stat.getClusterId(), new ClusterLoad(loadScoreFunction.score(stat),
+                  loadScoreFunction.scorePerQuery(stat)));
+        }
       }
     }
 
-    routingManager.updateRoutingTable(clusterQueueMap);
+    routingManager.updateRoutingTable(clusterQueueMap, clusterLoadMap);
+  }
+
+  @Override
+  public boolean isFastPath() {
+    return true;
   }
 }
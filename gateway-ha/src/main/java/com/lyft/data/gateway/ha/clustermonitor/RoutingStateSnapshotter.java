@@ -0,0 +1,140 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.lyft.data.gateway.ha.router.RoutingManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Saves the routing state to a local binary file and restores it, so a restarted gateway routes
+ * on the last known cluster stats and query ids instead of starting empty. The file holds the
+ * latest stats of each backend, from which the routing table is rebuilt, and the query id cache
+ * of the routing manager.
+ *
+ * <p>Snapshots are written to a temporary file that replaces the previous snapshot, so a crash
+ * while writing never leaves a truncated snapshot behind.
+ */
+@Slf4j
+class RoutingStateSnapshotter {
+  // "PGRS"
+  private static final int MAGIC = 0x50475253;
+  private static final int VERSION = 1;
+
+  private final Path path;
+  private final long maxAgeMillis;
+
+  /**
+   * Creates a snapshotter.
+   * @param path File the snapshot is written to
+   * @param maxAgeMillis Age of a snapshot after which its cluster stats are no longer restored
+   */
+  RoutingStateSnapshotter(Path path, long maxAgeMillis) {
+    this.path = path;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * Writes a snapshot of the given stats and the query id cache of the routing manager.
+   * @param stats Latest stats of the backends
+   * @param routingManager Routing manager whose query id cache is saved
+   * @param nowMillis Current time
+   */
+  void write(Collection<ClusterStats> stats, RoutingManager routingManager, long nowMillis)
+      throws IOException {
+    Path directory = path.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(nowMillis);
+        out.writeInt(stats.size());
+        for (ClusterStats clusterStats : stats) {
+          writeClusterStats(out, clusterStats);
+        }
+        routingManager.writeQueryIdCache(out);
+      }
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Reads the snapshot, if there is one, and loads its query ids into the routing manager.
+   * @param routingManager Routing manager whose query id cache is filled
+   * @param nowMillis Current time
+   * @return Stats of the snapshot, empty if there is none or it is too old
+   */
+  List<ClusterStats> restore(RoutingManager routingManager, long nowMillis) {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring routing state snapshot [{}] of an unknown format", path);
+        return Collections.emptyList();
+      }
+      long age = nowMillis - in.readLong();
+      int count = in.readInt();
+      List<ClusterStats> stats = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        stats.add(readClusterStats(in));
+      }
+      routingManager.readQueryIdCache(in);
+      log.info("Restored routing state snapshot [{}] from {} ms ago", path, age);
+      if (age > maxAgeMillis) {
+        log.info("Not restoring cluster stats older than {} ms", maxAgeMillis);
+        return Collections.emptyList();
+      }
+      return stats;
+    } catch (NoSuchFileException e) {
+      log.info("No routing state snapshot [{}] to restore", path);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error restoring routing state snapshot [{}]", path, e);
+    }
+    return Collections.emptyList();
+  }
+
+  private static void writeClusterStats(DataOutputStream out, ClusterStats clusterStats)
+      throws IOException {
+    out.writeUTF(clusterStats.getClusterId());
+    out.writeUTF(clusterStats.getProxyTo());
+    out.writeUTF(clusterStats.getRoutingGroup());
+    out.writeBoolean(clusterStats.isHealthy());
+    out.writeInt(clusterStats.getRunningQueryCount());
+    out.writeInt(clusterStats.getQueuedQueryCount());
+    out.writeInt(clusterStats.getBlockedQueryCount());
+    out.writeInt(clusterStats.getNumWorkerNodes());
+    out.writeLong(clusterStats.getReservedMemoryBytes());
+    out.writeLong(clusterStats.getLastUpdated());
+  }
+
+  private static ClusterStats readClusterStats(DataInputStream in) throws IOException {
+    ClusterStats clusterStats = new ClusterStats();
+    clusterStats.setClusterId(in.readUTF());
+    clusterStats.setProxyTo(in.readUTF());
+    clusterStats.setRoutingGroup(in.readUTF());
+    clusterStats.setHealthy(in.readBoolean());
+    clusterStats.setRunningQueryCount(in.readInt());
+    clusterStats.setQueuedQueryCount(in.readInt());
+    clusterStats.setBlockedQueryCount(in.readInt());
+    clusterStats.setNumWorkerNodes(in.readInt());
+    clusterStats.setReservedMemoryBytes(in.readLong());
+    clusterStats.setLastUpdated(in.readLong());
+    return clusterStats;
+  }
+}
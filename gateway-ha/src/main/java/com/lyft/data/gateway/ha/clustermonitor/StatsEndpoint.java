@@ -0,0 +1,58 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import static com.lyft.data.gateway.ha.handler.QueryIdCachingProxyHandler.UI_API_STATS_PATH;
+
+/**
+ * Endpoint serving the cluster stats of a backend, which depends on the Presto or Trino version
+ * it runs.
+ */
+enum StatsEndpoint {
+  // Presto and older PrestoSQL releases
+  CLUSTER("/v1/cluster"),
+  // PrestoSQL 331 and later, and Trino
+  UI_STATS(UI_API_STATS_PATH);
+
+  private static final int FIRST_UI_STATS_VERSION = 331;
+
+  private final String path;
+
+  StatsEndpoint(String path) {
+    this.path = path;
+  }
+
+  String getPath() {
+    return path;
+  }
+
+  /**
+   * Picks the endpoint from the version reported by {@code /v1/info}. Presto versions look like
+   * {@code 0.245.1}, PrestoSQL and Trino versions like {@code 351} or {@code 351-e.1}.
+   *
+   * @param version Node version of the coordinator
+   * @return Stats endpoint of that version
+   */
+  static StatsEndpoint forVersion(String version) {
+    if (version == null) {
+      return CLUSTER;
+    }
+    int end = 0;
+    while (end < version.length() && Character.isDigit(version.charAt(end))) {
+      end++;
+    }
+    if (end == 0 || end > 9) {
+      return CLUSTER;
+    }
+    return Integer.parseInt(version.substring(0, end)) >= FIRST_UI_STATS_VERSION
+        ? UI_STATS : CLUSTER;
+  }
+
+  /**
+   * Guesses the endpoint from a backend address, used while the version can't be detected.
+   *
+   * @param proxyTo Backend address
+   * @return Likely stats endpoint
+   */
+  static StatsEndpoint forProxyTo(String proxyTo) {
+    return proxyTo.contains("trino") || proxyTo.contains("dashboard") ? UI_STATS : CLUSTER;
+  }
+}
@@ -0,0 +1,21 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the JDBC connection pool. All durations are in milliseconds.
+ */
+@Data
+public class ConnectionPoolConfiguration {
+  private int maxPoolSize = 10;
+  private int minIdle = 2;
+  // How long a caller waits for a connection before failing
+  private long connectionTimeout = 10000;
+  private long validationTimeout = 5000;
+  // Query used to validate connections, JDBC4 isValid() is used when not set
+  private String validationQuery;
+  // Connections held longer than this are logged as possible leaks, 0 disables detection
+  private long leakDetectionThreshold = 60000;
+  private long idleTimeout = 600000;
+  private long maxLifetime = 1800000;
+}
@@ -1,15 +1,25 @@
 package com.lyft.data.gateway.ha.config;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 public class DataStoreConfiguration {
   private String jdbcUrl;
   private String user;
   private String password;
   private String driver;
+  // Connections are pooled when set, otherwise a new connection is opened for every use
+  private ConnectionPoolConfiguration connectionPool;
+
+  /**
+   * Configuration of an unpooled data store.
+   */
+  public DataStoreConfiguration(String jdbcUrl, String user, String password, String driver) {
+    this.jdbcUrl = jdbcUrl;
+    this.user = user;
+    this.password = password;
+    this.driver = driver;
+  }
 }
@@ -10,4 +10,12 @@ public class HaGatewayConfiguration extends AppConfiguration {
   private RequestRouterConfiguration requestRouter;
   private NotifierConfiguration notifier;
   private DataStoreConfiguration dataStore;
+  private MonitorConfiguration monitor = new MonitorConfiguration();
+  private RoutingConfiguration routing = new RoutingConfiguration();
+  // Query history is written synchronously when not set
+  private QueryHistoryWriterConfiguration queryHistoryWriter;
+  // Result pages are not prefetched when not set
+  private PagePrefetchConfiguration pagePrefetch;
+  // Result pages are not spooled to disk when not set
+  private ResultSpoolConfiguration resultSpool;
 }
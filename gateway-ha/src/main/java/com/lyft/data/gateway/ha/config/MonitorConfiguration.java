@@ -0,0 +1,28 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the cluster stats monitor. All durations are in milliseconds.
+ */
+@Data
+public class MonitorConfiguration {
+  // Poll interval of backends that are running but not queueing queries, also the interval at
+  // which the backend registry is reloaded
+  private long taskDelayMillis = 5000;
+  // Poll interval of backends with queued or changing queries
+  private long minPollIntervalMillis = 250;
+  // Poll interval idle backends back off to
+  private long maxPollIntervalMillis = 10000;
+  // Deadline of a single backend's stats request, after which it is cancelled
+  private long backendTimeoutMillis = 5000;
+  // How long the last known stats of a backend that misses its deadline are still used
+  private long maxStaleMillis = 30000;
+  // Backends that pushed their stats are not polled until the push is older than this
+  private long pushTtlMillis = 15000;
+  // Local file the routing state is saved to, and restored from on start. Not saved if not set
+  private String snapshotPath;
+  private long snapshotIntervalMillis = 30000;
+  // Cluster stats of an older snapshot are not restored, its query ids still are
+  private long snapshotMaxAgeMillis = 300000;
+}
@@ -0,0 +1,23 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the prefetching of the next result page of queries.
+ */
+@Data
+public class PagePrefetchConfiguration {
+  // Pages of a single query held at once, the one the client has and the one prefetched. Pages
+  // larger than this are not prefetched, the client fetches them
+  private long maxBytesPerQuery = 16 * 1024 * 1024;
+  // Prefetched pages of all queries together
+  private long maxTotalBytes = 256 * 1024 * 1024;
+  // Queries with a page prefetched at the same time
+  private int maxQueries = 1000;
+  // How long a client asking for a page still being prefetched waits before it is proxied
+  private long waitMillis = 5000;
+  // Prefetched pages not asked for within this time are dropped
+  private long ttlMillis = 60000;
+  // Timeout of the requests for the next pages, which the backends may hold for a while
+  private long requestTimeoutMillis = 60000;
+}
@@ -11,4 +11,6 @@ import lombok.RequiredArgsConstructor;
 public class ProxyBackendConfiguration extends ProxyServerConfiguration {
   private boolean active = true;
   private String routingGroup = "adhoc";
+  // Relative capacity of a worker of this backend, null is the same as 1.0
+  private Double capacityWeight;
 }
@@ -0,0 +1,27 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the write behind pipeline that persists query history in batches.
+ */
+@Data
+public class QueryHistoryWriterConfiguration {
+  /**
+   * What to do with a query detail submitted while the queue is full.
+   */
+  public enum OverflowPolicy {
+    // Discard the submitted query detail
+    DROP_NEWEST,
+    // Discard the oldest queued query detail to make room
+    DROP_OLDEST,
+    // Write the query detail synchronously on the submitting thread
+    CALLER_RUNS
+  }
+
+  private int queueCapacity = 10000;
+  private int batchSize = 100;
+  // How long the writer waits for a batch to fill up before flushing it
+  private long lingerMillis = 200;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+}
@@ -16,4 +16,8 @@ public class RequestRouterConfiguration {
   private String keystorePass;
 
   private int historySize = 2000;
+
+  // Point the URIs of query responses at the gateway with the backend encoded in them, so
+  // follow-up requests are routed without looking up the query id
+  private boolean statelessRouting;
 }
@@ -0,0 +1,34 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the spooling of result pages to local disk.
+ */
+@Data
+public class ResultSpoolConfiguration {
+  // Directory of the segment files, emptied on startup
+  private String directory = "/tmp/presto-gateway-spool";
+  // Size of the segment files pages are appended to, larger pages get a segment of their own
+  private int segmentBytes = 4 * 1024 * 1024;
+  // Disk space of a single query, once used up the client reads the rest from the backend
+  private long maxBytesPerQuery = 1024L * 1024 * 1024;
+  // Disk space of all queries together
+  private long maxTotalBytes = 10L * 1024 * 1024 * 1024;
+  // Largest page spooled, larger pages are left to the client
+  private long maxPageBytes = 16 * 1024 * 1024;
+  // Heap of all proxied pages kept to start spooling from
+  private long maxMemoryBytes = 256 * 1024 * 1024;
+  // Queries spooled at the same time, not counting those spooled to their last page
+  private int maxQueries = 1000;
+  // How long a client asking for a page still being spooled waits before it is proxied
+  private long waitMillis = 5000;
+  // Spools of queries whose client has not asked for a page within this time are deleted
+  private long ttlMillis = 600000;
+  // Spools whose last page the client has asked for are deleted this long after, which leaves
+  // time for the client to retry it
+  private long finishedTtlMillis = 10000;
+  // Timeout of the requests for the pages, which the backends may hold for a while
+  private long requestTimeoutMillis = 60000;
+  private long cleanupIntervalMillis = 1000;
+}
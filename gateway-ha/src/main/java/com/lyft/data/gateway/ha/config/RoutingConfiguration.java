@@ -0,0 +1,32 @@
+package com.lyft.data.gateway.ha.config;
+
+import lombok.Data;
+
+/**
+ * Settings of the strategy picking a backend for new queries.
+ */
+@Data
+public class RoutingConfiguration {
+  public enum Strategy {
+    // Weighted by the queue lengths reported by the cluster monitor
+    QUEUE_LENGTH,
+    // Less loaded of two random backends, by queries in flight through this gateway
+    POWER_OF_TWO_CHOICES,
+    // QUEUE_LENGTH, with the weights of backends slow to respond scaled down
+    LATENCY_AWARE
+  }
+
+  private Strategy strategy = Strategy.QUEUE_LENGTH;
+  // In flight queries that have not had a page fetched for this long are no longer counted
+  private long inFlightQueryTtlMillis = 600000;
+  // LoadScoreFunction weighting the QUEUE_LENGTH strategy, empty to weight by queue length only
+  private String loadScoreFunction =
+      "com.lyft.data.gateway.ha.clustermonitor.CapacityNormalizedLoadScore";
+  // LATENCY_AWARE: time after which the weight of a latency sample has decayed to 1/e
+  private long latencyDecayMillis = 30000;
+  // LATENCY_AWARE: latency over the fastest backend of a routing group that is not penalized
+  private long latencyToleranceMillis = 100;
+  // Queries created this long before startup have their backends loaded from the query
+  // history into the query id cache before the gateway starts, 0 to skip
+  private long queryIdCacheWarmupMillis = 4 * 60 * 60 * 1000;
+}
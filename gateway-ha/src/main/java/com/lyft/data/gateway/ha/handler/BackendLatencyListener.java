@@ -0,0 +1,68 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.lyft.data.gateway.ha.router.RoutingManager;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+
+/**
+ * Times a request proxied to a backend and reports it to the routing manager once the backend
+ * starts to respond. The connect latency is the time from queueing the request to it being sent
+ * on a connection, which covers opening a new connection. The time to first byte runs from the
+ * request being fully sent to the start of the response, and is only measured when the backend
+ * is expected to answer right away, as result page fetches may be held by the backend until
+ * data is available.
+ */
+class BackendLatencyListener implements Request.QueuedListener, Request.BeginListener,
+    Request.SuccessListener, Response.BeginListener {
+  private final RoutingManager routingManager;
+  private final String backend;
+  private final boolean timeToFirstByteMeasured;
+
+  private volatile long queuedNanos = -1;
+  private volatile long beginNanos = -1;
+  private volatile long sentNanos = -1;
+
+  BackendLatencyListener(RoutingManager routingManager, String backend,
+      boolean timeToFirstByteMeasured) {
+    this.routingManager = routingManager;
+    this.backend = backend;
+    this.timeToFirstByteMeasured = timeToFirstByteMeasured;
+  }
+
+  /**
+   * Registers the listener on a proxy request.
+   */
+  void listenTo(Request proxyRequest) {
+    proxyRequest
+        .onRequestQueued(this)
+        .onRequestBegin(this)
+        .onRequestSuccess(this)
+        .onResponseBegin(this);
+  }
+
+  @Override
+  public void onQueued(Request request) {
+    queuedNanos = System.nanoTime();
+  }
+
+  @Override
+  public void onBegin(Request request) {
+    beginNanos = System.nanoTime();
+  }
+
+  @Override
+  public void onBegin(Response response) {
+    long now = System.nanoTime();
+    if (queuedNanos < 0 || beginNanos < 0) {
+      return;
+    }
+    // The response may start before the request content is fully sent
+    long timeToFirstByte = timeToFirstByteMeasured && sentNanos >= 0 ? now - sentNanos : -1;
+    routingManager.backendResponded(backend, beginNanos - queuedNanos, timeToFirstByte);
+  }
+
+  @Override
+  public void onSuccess(Request request) {
+    sentNanos = System.nanoTime();
+  }
+}
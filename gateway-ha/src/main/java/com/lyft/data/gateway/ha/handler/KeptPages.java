@@ -0,0 +1,87 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the result pages kept in memory while they are proxied, to start reading ahead from
+ * once they have reached the client. Each page is bounded, and all pages together are bounded
+ * by a budget that may be shared with other pages held in memory.
+ */
+class KeptPages {
+  private final long maxPageBytes;
+  private final long maxTotalBytes;
+  private final AtomicLong totalBytes;
+
+  /**
+   * Creates the bounds.
+   * @param maxPageBytes Largest page that is kept
+   * @param maxTotalBytes Budget of all pages held in memory
+   * @param totalBytes Bytes held against the budget
+   */
+  KeptPages(long maxPageBytes, long maxTotalBytes, AtomicLong totalBytes) {
+    this.maxPageBytes = maxPageBytes;
+    this.maxTotalBytes = maxTotalBytes;
+    this.totalBytes = totalBytes;
+  }
+
+  /**
+   * Starts keeping a page, which must be released once done with.
+   */
+  Page keep() {
+    return new Page();
+  }
+
+  /**
+   * The content of a page kept so far.
+   */
+  final class Page {
+    private ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private long reservedBytes;
+
+    /**
+     * Appends content to the page. Once the page is over its bounds, it is dropped.
+     * @return False if the page is no longer kept
+     */
+    synchronized boolean append(byte[] buffer, int offset, int length) {
+      if (content == null) {
+        return false;
+      }
+      if (content.size() + (long) length > maxPageBytes || !reserve(length)) {
+        drop();
+        return false;
+      }
+      content.write(buffer, offset, length);
+      return true;
+    }
+
+    /**
+     * Returns the content of the page, null if it is not kept.
+     */
+    synchronized byte[] getContent() {
+      return content == null ? null : content.toByteArray();
+    }
+
+    /**
+     * Drops the page and returns its bytes to the budget.
+     */
+    synchronized void release() {
+      drop();
+    }
+
+    private boolean reserve(long bytes) {
+      if (totalBytes.addAndGet(bytes) > maxTotalBytes) {
+        totalBytes.addAndGet(-bytes);
+        return false;
+      }
+      reservedBytes += bytes;
+      return true;
+    }
+
+    private void drop() {
+      content = null;
+      totalBytes.addAndGet(-reservedBytes);
+      reservedBytes = 0;
+    }
+  }
+}
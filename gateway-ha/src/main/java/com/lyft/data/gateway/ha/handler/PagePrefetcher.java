@@ -0,0 +1,365 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lyft.data.gateway.ha.config.PagePrefetchConfiguration;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Fetches the next result page of a query from its backend once the client has received the
+ * current one, and hands it out when the client asks for it, saving the client a round trip
+ * to the backend per page. At most one page per query is prefetched, and the pages held in
+ * memory are bounded per query and in total. A page that can't be prefetched within the bounds
+ * is simply fetched by the client.
+ *
+ * <p>Asking Presto or Trino for the next page acknowledges the current one, which the backend
+ * then no longer serves. The current page is therefore kept along with the prefetch, so a client
+ * retrying it after a failed read is still answered. A client that gives up waiting for a
+ * prefetch is proxied to the backend, which serves the same page again.
+ */
+@Slf4j
+public class PagePrefetcher {
+  public static final String METRIC_PREFIX = "proxy.prefetch";
+  // Hop by hop headers, and headers the prefetching request sets itself
+  private static final Set<String> SKIPPED_REQUEST_HEADERS = ImmutableSet.of("host",
+      "content-length", "connection", "keep-alive", "transfer-encoding", "te", "upgrade",
+      "proxy-connection", "accept-encoding",
+      QueryIdCachingProxyHandler.PROXY_TARGET_HEADER.toLowerCase());
+  private static final Set<String> SKIPPED_RESPONSE_HEADERS = ImmutableSet.of("content-length",
+      "connection", "keep-alive", "transfer-encoding", "content-encoding");
+  // Completes the waits for pages still being fetched
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("page-read-ahead-timer").build());
+
+  private final PagePrefetchConfiguration configuration;
+  private final OkHttpClient httpClient;
+  // Prefetch of the next page by query id
+  private final Cache<String, Prefetch> prefetches;
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final KeptPages keptPages;
+  private final Meter startedMeter;
+  private final Meter hitMeter;
+  private final Meter retryMeter;
+  private final Meter missMeter;
+  private final Meter discardedMeter;
+  private final Meter overBudgetMeter;
+  private final Histogram savedMillis;
+
+  /**
+   * Creates a prefetcher.
+   * @param configuration Bounds of the prefetched pages
+   * @param metricRegistry Registry for the prefetch metrics
+   */
+  public PagePrefetcher(PagePrefetchConfiguration configuration, MetricRegistry metricRegistry) {
+    this.configuration = configuration;
+    this.httpClient = new OkHttpClient.Builder()
+        .readTimeout(configuration.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .build();
+    this.httpClient.dispatcher().setMaxRequests(configuration.getMaxQueries());
+    this.httpClient.dispatcher().setMaxRequestsPerHost(configuration.getMaxQueries());
+    this.keptPages = new KeptPages(configuration.getMaxBytesPerQuery(),
+        configuration.getMaxTotalBytes(), totalBytes);
+    // Replaced, expired and discarded prefetches alike are cancelled and release their pages
+    this.prefetches = CacheBuilder.newBuilder()
+        .maximumSize(configuration.getMaxQueries())
+        .expireAfterWrite(configuration.getTtlMillis(), TimeUnit.MILLISECONDS)
+        .<String, Prefetch>removalListener(removal -> removal.getValue().discard())
+        .build();
+
+    startedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "started"));
+    hitMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "hits"));
+    retryMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "retries"));
+    missMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "misses"));
+    discardedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "discarded"));
+    overBudgetMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "overBudget"));
+    // Backend round trip the client did not wait for, per page served from memory
+    savedMillis = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "savedMillis"));
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "bytes"),
+        (Gauge<Long>) totalBytes::get);
+  }
+
+  /**
+   * Largest page that can be prefetched or kept for retries.
+   */
+  long getMaxPageBytes() {
+    return configuration.getMaxBytesPerQuery();
+  }
+
+  /**
+   * Bounds of the proxied pages kept in memory to start prefetching from, which count against
+   * the same budget as the prefetched pages.
+   */
+  KeptPages getKeptPages() {
+    return keptPages;
+  }
+
+  /**
+   * Starts fetching the next page of a query, in place of any page of the query prefetched
+   * before. Does nothing if the page is being prefetched already, e.g. when the client retried
+   * the current page.
+   * @param queryId Query id
+   * @param current Page the client has received, kept for retries
+   * @param path Path and query string of the next page
+   * @param request Request for the current page, whose headers are sent along
+   */
+  void prefetch(String queryId, Page current, String path, HttpServletRequest request) {
+    Prefetch existing = prefetches.getIfPresent(queryId);
+    if (existing != null && existing.path.equals(path)) {
+      return;
+    }
+    Call call;
+    try {
+      call = httpClient.newCall(new Request.Builder()
+          .get()
+          .url(current.backend + path)
+          .headers(requestHeaders(request))
+          .build());
+    } catch (IllegalArgumentException e) {
+      log.warn("Unable to prefetch [{}] from [{}]", path, current.backend, e);
+      return;
+    }
+
+    Prefetch prefetch = new Prefetch(current, path, call);
+    if (!prefetch.reserve(current.body.length)) {
+      // Without the current page kept, a retry of it could not be answered
+      overBudgetMeter.mark();
+      prefetches.invalidate(queryId);
+      return;
+    }
+    prefetches.put(queryId, prefetch);
+    startedMeter.mark();
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        if (!call.isCanceled()) {
+          log.debug("Error prefetching [{}] from [{}]", path, current.backend, e);
+        }
+        prefetch.future.complete(null);
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        byte[] body;
+        try (ResponseBody responseBody = response.body()) {
+          body = readBody(responseBody, getMaxPageBytes() - current.body.length);
+        } catch (IOException e) {
+          log.debug("Error reading prefetched [{}] from [{}]", path, current.backend, e);
+          prefetch.future.complete(null);
+          return;
+        }
+        if (body == null || !prefetch.reserve(body.length)) {
+          overBudgetMeter.mark();
+          prefetch.future.complete(null);
+          return;
+        }
+        prefetch.future.complete(new Page(current.backend, path, response.code(),
+            responseHeaders(response), body, System.nanoTime()));
+      }
+    });
+  }
+
+  /**
+   * Takes the page a client asks for, the prefetched one or the one kept for retries. Never
+   * blocks, a page still being fetched is waited for up to the configured time.
+   * @param queryId Query id
+   * @param path Path and query string of the page
+   * @return The page, completed with null if it was not prefetched or not fetched in time
+   */
+  CompletableFuture<Page> take(String queryId, String path) {
+    Prefetch prefetch = prefetches.getIfPresent(queryId);
+    if (prefetch != null && prefetch.current.path.equals(path)) {
+      retryMeter.mark();
+      return CompletableFuture.completedFuture(prefetch.current);
+    }
+    if (prefetch == null || !prefetch.path.equals(path)) {
+      missMeter.mark();
+      return CompletableFuture.completedFuture(null);
+    }
+    long requestedNanos = System.nanoTime();
+    return withTimeout(prefetch.future, configuration.getWaitMillis()).thenApply(page -> {
+      if (page == null) {
+        missMeter.mark();
+        return null;
+      }
+      prefetch.taken = true;
+      hitMeter.mark();
+      savedMillis.update(TimeUnit.NANOSECONDS.toMillis(
+          Math.min(requestedNanos, page.completedNanos) - prefetch.startNanos));
+      return page;
+    });
+  }
+
+  /**
+   * Drops the pages of a query, e.g. when it is cancelled.
+   */
+  void discard(String queryId) {
+    prefetches.invalidate(queryId);
+  }
+
+  /**
+   * Returns a future completed like the given one, or with null once the time is up.
+   */
+  static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long millis) {
+    if (future.isDone()) {
+      return future;
+    }
+    CompletableFuture<T> result = new CompletableFuture<>();
+    future.whenComplete((value, e) -> result.complete(e == null ? value : null));
+    TIMER.schedule(() -> result.complete(null), millis, TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  /**
+   * Returns the headers of a client request to send along with the requests for its next pages.
+   */
+  static Headers requestHeaders(HttpServletRequest request) {
+    Headers.Builder headers = new Headers.Builder();
+    for (String name : Collections.list(request.getHeaderNames())) {
+      if (!SKIPPED_REQUEST_HEADERS.contains(name.toLowerCase())) {
+        for (String value : Collections.list(request.getHeaders(name))) {
+          headers.add(name, value);
+        }
+      }
+    }
+    return headers.build();
+  }
+
+  /**
+   * Returns the headers of a page fetched ahead of the client to answer the client with.
+   */
+  static Headers responseHeaders(Response response) {
+    Headers.Builder headers = new Headers.Builder();
+    for (int i = 0; i < response.headers().size(); i++) {
+      if (!SKIPPED_RESPONSE_HEADERS.contains(response.headers().name(i).toLowerCase())) {
+        headers.add(response.headers().name(i), response.headers().value(i));
+      }
+    }
+    return headers.build();
+  }
+
+  /**
+   * Returns the headers of a page proxied to the client, to answer retries of it with.
+   */
+  static Headers responseHeaders(HttpServletResponse response) {
+    Headers.Builder headers = new Headers.Builder();
+    for (String name : response.getHeaderNames()) {
+      if (!SKIPPED_RESPONSE_HEADERS.contains(name.toLowerCase())) {
+        for (String value : response.getHeaders(name)) {
+          headers.add(name, value);
+        }
+      }
+    }
+    return headers.build();
+  }
+
+  /**
+   * Reads a response body up to a budget.
+   * @return The body, null if it is over budget
+   */
+  static byte[] readBody(ResponseBody body, long budget) throws IOException {
+    if (body.contentLength() > budget) {
+      return null;
+    }
+    BufferedSource source = body.source();
+    // True if more than the budget is available
+    if (source.request(budget + 1)) {
+      return null;
+    }
+    return source.readByteArray();
+  }
+
+  /**
+   * A result page.
+   */
+  static final class Page {
+    final String backend;
+    // Path and query string of the page, without any routing token
+    final String path;
+    final int status;
+    final Headers headers;
+    final byte[] body;
+    final long completedNanos;
+
+    Page(String backend, String path, int status, Headers headers, byte[] body,
+        long completedNanos) {
+      this.backend = backend;
+      this.path = path;
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+      this.completedNanos = completedNanos;
+    }
+  }
+
+  /**
+   * The page a client has received and the prefetch of the next one.
+   */
+  private final class Prefetch {
+    final Page current;
+    final String path;
+    final Call call;
+    final long startNanos = System.nanoTime();
+    final CompletableFuture<Page> future = new CompletableFuture<>();
+    // Bytes of the pages held, taken from the total budget
+    final AtomicLong reservedBytes = new AtomicLong();
+    volatile boolean taken;
+    volatile boolean discarded;
+
+    Prefetch(Page current, String path, Call call) {
+      this.current = current;
+      this.path = path;
+      this.call = call;
+    }
+
+    boolean reserve(long bytes) {
+      if (totalBytes.addAndGet(bytes) > configuration.getMaxTotalBytes()) {
+        totalBytes.addAndGet(-bytes);
+        return false;
+      }
+      reservedBytes.addAndGet(bytes);
+      if (discarded) {
+        release();
+      }
+      return true;
+    }
+
+    private void release() {
+      totalBytes.addAndGet(-reservedBytes.getAndSet(0));
+    }
+
+    void discard() {
+      discarded = true;
+      call.cancel();
+      // Still being fetched, or fetched and never asked for
+      if (future.complete(null) || !taken && future.getNow(null) != null) {
+        discardedMeter.mark();
+      }
+      release();
+    }
+  }
+}
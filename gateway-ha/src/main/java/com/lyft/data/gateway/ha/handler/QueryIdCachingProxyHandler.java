@@ -1,7 +1,6 @@
 package com.lyft.data.gateway.ha.handler;
 
 import com.codahale.metrics.Meter;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.google.common.io.CharStreams;
 import com.google.common.net.HttpHeaders;
@@ -10,25 +9,49 @@ import com.lyft.data.gateway.ha.router.RoutingManager;
 import com.lyft.data.proxyserver.ProxyHandler;
 import com.lyft.data.proxyserver.wrapper.MultiReadHttpServletRequest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.HttpMethod;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.util.Callback;
 
+/**
+ * Routes Presto and Trino requests: new queries to a backend picked by the routing manager,
+ * follow-up requests to the backend running the query.
+ *
+ * <p>With stateless routing, the {@code nextUri}, {@code infoUri} and {@code partialCancelUri}
+ * of query responses are rewritten to point at the gateway and carry a {@link RoutingToken} of
+ * the backend, so follow-up requests are routed by parsing their URI, by any gateway instance.
+ * Tokens are honored whether or not this gateway rewrites URIs itself, but only for addresses of
+ * known backends.
+ *
+ * <p>With a {@link PagePrefetcher}, the next result page of an executing query is fetched once
+ * the current one has been proxied to the client, and served from memory when the client asks
+ * for it. With a {@link ResultSpooler}, which takes precedence, all remaining pages are drained
+ * to local disk and served from there. Clients asking for a page still being read ahead are
+ * answered asynchronously, without holding a request thread.
+ */
 @Slf4j
 public class QueryIdCachingProxyHandler extends ProxyHandler {
   public static final String PROXY_TARGET_HEADER = "proxytarget";
   public static final String V1_STATEMENT_PATH = "/v1/statement";
+  public static final String V1_STATEMENT_EXECUTING_PATH = V1_STATEMENT_PATH + "/executing/";
   public static final String V1_QUERY_PATH = "/v1/query";
   public static final String V1_INFO_PATH = "/v1/info";
   public static final String UI_API_STATS_PATH = "/ui/api/stats";
@@ -48,28 +71,131 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
 
   private static final Pattern EXTRACT_BETWEEN_SINGLE_QUOTES = Pattern.compile("'([^\\s']+)'");
 
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String QUERY_ID_EXTRACTOR_ATTRIBUTE =
+      QueryIdCachingProxyHandler.class.getName() + ".queryIdExtractor";
+  private static final String URI_REWRITER_ATTRIBUTE =
+      QueryIdCachingProxyHandler.class.getName() + ".uriRewriter";
+  private static final String KEPT_PAGE_ATTRIBUTE =
+      QueryIdCachingProxyHandler.class.getName() + ".keptPage";
+  private static final String READ_AHEAD_MISSED_ATTRIBUTE =
+      QueryIdCachingProxyHandler.class.getName() + ".readAheadMissed";
 
   private final RoutingManager routingManager;
   private final QueryHistoryManager queryHistoryManager;
 
   private final Meter requestMeter;
+  private final boolean statelessRouting;
+  private final PagePrefetcher pagePrefetcher;
+  private final ResultSpooler resultSpooler;
 
   public QueryIdCachingProxyHandler(
       QueryHistoryManager queryHistoryManager,
       RoutingManager routingManager,
       int serverApplicationPort,
       Meter requestMeter) {
+    this(queryHistoryManager, routingManager, serverApplicationPort, requestMeter, false);
+  }
+
+  public QueryIdCachingProxyHandler(
+      QueryHistoryManager queryHistoryManager,
+      RoutingManager routingManager,
+      int serverApplicationPort,
+      Meter requestMeter,
+      boolean statelessRouting) {
+    this(queryHistoryManager, routingManager, serverApplicationPort, requestMeter,
+        statelessRouting, null);
+  }
+
+  public QueryIdCachingProxyHandler(
+      QueryHistoryManager queryHistoryManager,
+      RoutingManager routingManager,
+      int serverApplicationPort,
+      Meter requestMeter,
+      boolean statelessRouting,
+      PagePrefetcher pagePrefetcher) {
+    this(queryHistoryManager, routingManager, serverApplicationPort, requestMeter,
+        statelessRouting, pagePrefetcher, null);
+  }
+
+  /**
+   * Creates the handler.
+   * @param statelessRouting Whether to rewrite the URIs of query responses with routing tokens
+   * @param pagePrefetcher Prefetcher of the next result pages, null to not prefetch
+   * @param resultSpooler Spooler of the result pages, null to not spool
+   */
+  public QueryIdCachingProxyHandler(
+      QueryHistoryManager queryHistoryManager,
+      RoutingManager routingManager,
+      int serverApplicationPort,
+      Meter requestMeter,
+      boolean statelessRouting,
+      PagePrefetcher pagePrefetcher,
+      ResultSpooler resultSpooler) {
     super(serverApplicationPort);
     this.requestMeter = requestMeter;
     this.routingManager = routingManager;
     this.queryHistoryManager = queryHistoryManager;
+    this.statelessRouting = statelessRouting;
+    this.pagePrefetcher = pagePrefetcher;
+    this.resultSpooler = resultSpooler;
+  }
+
+  /**
+   * Only query submissions are inspected (for kill_query ids and query history), so those are the
+   * only requests whose body needs to be buffered.
+   */
+  @Override
+  public boolean isRequestBodyInspected(HttpServletRequest request) {
+    return request.getMethod().equals(HttpMethod.POST)
+        && request.getRequestURI().startsWith(V1_STATEMENT_PATH);
+  }
+
+  /**
+   * Only the response to a query submission carries the query id to cache. Result pages are
+   * only inspected when the routing manager tracks query progress, all other responses are
+   * passed through without going through {@link #postConnectionHook}.
+   */
+  @Override
+  public boolean isResponseContentInspected(HttpServletRequest request) {
+    return isRequestBodyInspected(request) || isQueryProgressInspected(request)
+        || isReadAhead(request) || isResponseContentRewritten(request);
+  }
+
+  /**
+   * With stateless routing, query submissions and result pages have their URIs rewritten.
+   */
+  @Override
+  public boolean isResponseContentRewritten(HttpServletRequest request) {
+    return statelessRouting
+        && (request.getMethod().equals(HttpMethod.POST)
+            || request.getMethod().equals(HttpMethod.GET))
+        && request.getRequestURI().startsWith(V1_STATEMENT_PATH);
+  }
+
+  private boolean isQueryProgressInspected(HttpServletRequest request) {
+    return routingManager.isQueryProgressTracked()
+        && request.getMethod().equals(HttpMethod.GET)
+        && request.getRequestURI().startsWith(V1_STATEMENT_PATH + "/");
+  }
+
+  /**
+   * Executing result pages are inspected for the next page to prefetch or spool.
+   */
+  private boolean isReadAhead(HttpServletRequest request) {
+    return (pagePrefetcher != null || resultSpooler != null)
+        && request.getMethod().equals(HttpMethod.GET)
+        && request.getRequestURI().startsWith(V1_STATEMENT_EXECUTING_PATH);
+  }
+
+  private boolean isQueryCancellation(HttpServletRequest request) {
+    return request.getMethod().equals(HttpMethod.DELETE)
+        && request.getRequestURI().startsWith(V1_STATEMENT_PATH + "/")
+        && !request.getRequestURI().contains("partialCancel");
   }
 
   @Override
   public void preConnectionHook(HttpServletRequest request, Request proxyRequest) {
-    if (request.getMethod().equals(HttpMethod.POST)
-        && request.getRequestURI().startsWith(V1_STATEMENT_PATH)) {
+    if (isRequestBodyInspected(request)) {
       requestMeter.mark();
       try {
         String requestBody = CharStreams.toString(request.getReader());
@@ -83,6 +209,17 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
         log.warn("Error fetching the request payload", e);
       }
     }
+    if (isResponseContentRewritten(request) || isReadAhead(request)) {
+      // The URIs are rewritten and pages kept in plain text, so ask for an uncompressed response
+      proxyRequest.getHeaders().remove(HttpHeader.ACCEPT_ENCODING);
+    }
+    String backend = request.getHeader(PROXY_TARGET_HEADER);
+    if (routingManager.isBackendLatencyTracked() && backend != null
+        && request.getRequestURI().startsWith(V1_STATEMENT_PATH)) {
+      // Submissions are answered right away, result pages may be held until data is available
+      new BackendLatencyListener(routingManager, backend, isRequestBodyInspected(request))
+          .listenTo(proxyRequest);
+    }
   }
 
   private boolean isPathWhiteListed(String path) {
@@ -109,10 +246,18 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
     // Only load balance presto query APIs.
     if (isPathWhiteListed(request.getRequestURI())) {
       String queryId = extractQueryIdIfPresent(request);
-
-      // Find query id and get url from cache
-      if (!Strings.isNullOrEmpty(queryId)) {
-        backendAddress = routingManager.findBackendForQueryId(queryId);
+      String tokenBackend = findTokenBackend(request);
+
+      // Find query id and get url from the routing token or the cache
+      if (!Strings.isNullOrEmpty(queryId) || tokenBackend != null) {
+        backendAddress = tokenBackend != null ? tokenBackend
+            : routingManager.findBackendForQueryId(queryId);
+        if (isQueryCancellation(request) && !Strings.isNullOrEmpty(queryId)) {
+          if (routingManager.isQueryProgressTracked()) {
+            routingManager.queryProgressed(queryId, true);
+          }
+          discardReadAhead(queryId);
+        }
       } else {
         String routingGroup = Optional.ofNullable(request.getHeader(ROUTING_GROUP_HEADER))
             .orElse(request.getHeader(ALTERNATE_ROUTING_GROUP_HEADER));
@@ -138,10 +283,11 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
         return null;
       }
     }
+    String queryString = RoutingToken.strip(request.getQueryString());
     String targetLocation =
         backendAddress
             + request.getRequestURI()
-            + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+            + (queryString != null ? "?" + queryString : "");
 
     String originalLocation =
         request.getScheme()
@@ -157,6 +303,28 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
     return targetLocation;
   }
 
+  /**
+   * Returns the backend of the routing token of a request, or of the page it was sent from.
+   * @return Address of a known backend, null if there is no valid token
+   */
+  private String findTokenBackend(HttpServletRequest request) {
+    String token = RoutingToken.find(request.getQueryString());
+    String referer = request.getHeader(HttpHeaders.REFERER);
+    if (token == null && request.getRequestURI().startsWith(PRESTO_UI_PATH) && referer != null) {
+      int query = referer.indexOf('?');
+      token = query < 0 ? null : RoutingToken.find(referer.substring(query + 1));
+    }
+    if (token == null) {
+      return null;
+    }
+    String backend = RoutingToken.decode(token);
+    if (backend == null || !routingManager.getBackendRegistry().hasBackendAt(backend)) {
+      log.debug("Ignoring routing token [{}] of an unknown backend", token);
+      return null;
+    }
+    return backend;
+  }
+
   /**
    * Extracts the queryId from the server requests if it is present.
    * @param request The request made
@@ -164,27 +332,30 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
    */
   protected String extractQueryIdIfPresent(HttpServletRequest request) {
     String path = request.getRequestURI();
-    String queryParams = request.getQueryString();
-    try {
-      String queryText = CharStreams.toString(request.getReader());
-      if (!Strings.isNullOrEmpty(queryText)
-          && queryText.toLowerCase().contains("system.runtime.kill_query")) {
-        // extract and return the queryId
-        String[] parts = queryText.split(",");
-        for (String part : parts) {
-          if (part.contains("query_id")) {
-            Matcher m = EXTRACT_BETWEEN_SINGLE_QUOTES.matcher(part);
-            if (m.find()) {
-              String queryQuoted = m.group();
-              if (!Strings.isNullOrEmpty(queryQuoted) && queryQuoted.length() > 0) {
-                return queryQuoted.substring(1, queryQuoted.length() - 1);
+    String queryParams = RoutingToken.strip(request.getQueryString());
+    // Reading the body of a request that is not buffered would consume it before it is proxied.
+    if (isRequestBodyInspected(request)) {
+      try {
+        String queryText = CharStreams.toString(request.getReader());
+        if (!Strings.isNullOrEmpty(queryText)
+            && queryText.toLowerCase().contains("system.runtime.kill_query")) {
+          // extract and return the queryId
+          String[] parts = queryText.split(",");
+          for (String part : parts) {
+            if (part.contains("query_id")) {
+              Matcher m = EXTRACT_BETWEEN_SINGLE_QUOTES.matcher(part);
+              if (m.find()) {
+                String queryQuoted = m.group();
+                if (!Strings.isNullOrEmpty(queryQuoted) && queryQuoted.length() > 0) {
+                  return queryQuoted.substring(1, queryQuoted.length() - 1);
+                }
               }
             }
           }
         }
+      } catch (Exception e) {
+        log.error("Error extracting query payload from request", e);
       }
-    } catch (Exception e) {
-      log.error("Error extracting query payload from request", e);
     }
     
     log.debug("Trying to extract query id from path [{}] or queryString [{}]", path, queryParams);
@@ -240,7 +411,7 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
     try {
       URL refUrl = new URL(referer);
       if (refUrl.getPath().startsWith(PRESTO_UI_PATH)) {
-        return refUrl.getQuery();
+        return RoutingToken.strip(refUrl.getQuery());
       }
     } catch (Exception e) {
       log.debug("Unable to extract query id from referer");
@@ -258,43 +429,44 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
       Callback callback) {
     try {
       String requestPath = request.getRequestURI();
-      if (requestPath.startsWith(V1_STATEMENT_PATH)
-          && request.getMethod().equals(HttpMethod.POST)) {
-        String output;
-        boolean isGZipEncoding = isGZipEncoding(response);
-        if (isGZipEncoding) {
-          output = plainTextFromGz(buffer);
-        } else {
-          output = new String(buffer);
-        }
-        log.debug("Response output [{}]", output);
-
-        QueryHistoryManager.QueryDetail queryDetail = getQueryDetailsFromRequest(request);
-        log.debug("Proxy destination : {}", queryDetail.getBackendUrl());
-
+      boolean submission = isRequestBodyInspected(request);
+      if (submission || isQueryProgressInspected(request) || isReadAhead(request)) {
         if (response.getStatus() == HttpStatus.OK_200) {
-          HashMap<String, String> results = OBJECT_MAPPER.readValue(output, HashMap.class);
-          queryDetail.setQueryId(results.get("id"));
-
-          if (!Strings.isNullOrEmpty(queryDetail.getQueryId())) {
-            routingManager.setBackendForQueryId(
-                queryDetail.getQueryId(), queryDetail.getBackendUrl());
-
-            // Saving history at gateway.
-            queryHistoryManager.submitQueryDetail(queryDetail);
-            
-            log.debug(
-                "QueryId [{}] mapped with proxy [{}]",
-                queryDetail.getQueryId(),
-                queryDetail.getBackendUrl());
-          } else {
-            log.debug("QueryId [{}] could not be cached", queryDetail.getQueryId());
+          // The response may arrive in several chunks, keep the decoder state per request
+          QueryIdExtractor extractor =
+              (QueryIdExtractor) request.getAttribute(QUERY_ID_EXTRACTOR_ATTRIBUTE);
+          if (extractor == null) {
+            extractor = new QueryIdExtractor(isGZipEncoding(response),
+                routingManager.isQueryProgressTracked() || isReadAhead(request));
+            request.setAttribute(QUERY_ID_EXTRACTOR_ATTRIBUTE, extractor);
           }
-        } else {
+          if (!extractor.isDone()) {
+            String queryId = extractor.feed(buffer, offset, length);
+            if (extractor.isDone()) {
+              if (submission) {
+                cacheQueryId(request, queryId);
+              }
+              pageInspected(extractor);
+            }
+          }
+          if (isReadAhead(request) && !isGZipEncoding(response)) {
+            keepPageContent(request, buffer, offset, length);
+          }
+        } else if (submission) {
           log.error(
-              "Non OK HTTP Status code with response [{}] , Status code [{}]",
-              output,
+              "Non OK HTTP Status code with response for [{}] , Status code [{}]",
+              requestPath,
               response.getStatus());
+        } else if (response.getStatus() == HttpStatus.NOT_FOUND_404
+            || response.getStatus() == HttpStatus.GONE_410) {
+          // The backend no longer knows the query
+          String queryId = extractQueryIdIfPresent(requestPath, request.getQueryString());
+          if (!Strings.isNullOrEmpty(queryId) && routingManager.isQueryProgressTracked()) {
+            routingManager.queryProgressed(queryId, true);
+          }
+          if (!Strings.isNullOrEmpty(queryId)) {
+            discardReadAhead(queryId);
+          }
         }
       } else {
         log.debug("SKIPPING For {}", requestPath);
@@ -302,9 +474,296 @@ public class QueryIdCachingProxyHandler extends ProxyHandler {
     } catch (Exception e) {
       log.error("Error in proxying falling back to super call", e);
     }
+    QueryResultsUriRewriter rewriter = getUriRewriter(request, response);
+    if (rewriter != null && !rewriter.isDone()) {
+      byte[] content = rewriter.feed(buffer, offset, length);
+      if (content == null) {
+        // Held back until the URIs have been seen
+        callback.succeeded();
+      } else {
+        super.postConnectionHook(request, response, content, 0, content.length, callback);
+      }
+      return;
+    }
     super.postConnectionHook(request, response, buffer, offset, length, callback);
   }
 
+  /**
+   * Tracks the progress of a query from one of its pages.
+   */
+  private void pageInspected(QueryIdExtractor extractor) {
+    String queryId = extractor.getQueryId();
+    if (!Strings.isNullOrEmpty(queryId) && routingManager.isQueryProgressTracked()) {
+      routingManager.queryProgressed(queryId, extractor.isLastPage());
+    }
+  }
+
+  /**
+   * Keeps the content of a result page being proxied, so a retry of the page can still be
+   * answered once the backend has been asked for the next one. Pages over the bounds of
+   * {@link KeptPages} are not kept, and not read ahead of either.
+   */
+  private void keepPageContent(HttpServletRequest request, byte[] buffer, int offset,
+      int length) {
+    KeptPages.Page kept = (KeptPages.Page) request.getAttribute(KEPT_PAGE_ATTRIBUTE);
+    if (kept == null) {
+      if (!request.isAsyncStarted()) {
+        return;
+      }
+      KeptPages.Page page = (resultSpooler != null
+          ? resultSpooler.getKeptPages() : pagePrefetcher.getKeptPages()).keep();
+      // Released however the exchange ends
+      request.getAsyncContext().addListener(new AsyncListener() {
+        @Override
+        public void onComplete(AsyncEvent event) {
+          page.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+          page.release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+          page.release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+      });
+      request.setAttribute(KEPT_PAGE_ATTRIBUTE, page);
+      kept = page;
+    }
+    kept.append(buffer, offset, length);
+  }
+
+
+  /**
+   * Starts reading ahead the next page of a query, once the client has been given the current
+   * one: asking the backend for the next page acknowledges the current one.
+   * @param current The page the client has been given
+   * @param nextPath Path and query string of the next page, null if it can't be read ahead
+   */
+  private void readAhead(HttpServletRequest request, String queryId,
+      PagePrefetcher.Page current, String nextPath) {
+    if (Strings.isNullOrEmpty(queryId) || nextPath == null) {
+      return;
+    }
+    if (resultSpooler != null) {
+      resultSpooler.spool(queryId, current, nextPath, request);
+    } else {
+      pagePrefetcher.prefetch(queryId, current, nextPath, request);
+    }
+  }
+
+  private void discardReadAhead(String queryId) {
+    if (resultSpooler != null) {
+      resultSpooler.discard(queryId);
+    }
+    if (pagePrefetcher != null) {
+      pagePrefetcher.discard(queryId);
+    }
+  }
+
+  /**
+   * Returns the path and query string of the {@code nextUri} of a page if it is an executing
+   * result page, i.e. one that can be read ahead.
+   * @param nextUri The {@code nextUri}, may be null
+   * @return The path and query string, null if it is not an executing page
+   */
+  static String getExecutingPath(String nextUri) {
+    if (nextUri == null) {
+      return null;
+    }
+    try {
+      URI uri = new URI(nextUri);
+      String path = uri.getRawPath();
+      if (path == null || !path.startsWith(V1_STATEMENT_EXECUTING_PATH)) {
+        return null;
+      }
+      return getPathAndQuery(path, RoutingToken.strip(uri.getRawQuery()));
+    } catch (URISyntaxException e) {
+      log.debug("Invalid next page [{}]", nextUri, e);
+      return null;
+    }
+  }
+
+  /**
+   * Answers a request for a result page that has been spooled or prefetched, with its URIs
+   * rewritten and its next page read ahead as if it had been proxied. A page still being read
+   * ahead is waited for asynchronously, and the request is proxied if it does not arrive in time.
+   */
+  @Override
+  public boolean handleLocally(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (!isReadAhead(request) || request.getAttribute(READ_AHEAD_MISSED_ATTRIBUTE) != null
+        || (isAuthEnabled() && request.getHeader("Authorization") != null
+            && !handleAuthRequest(request))) {
+      return false;
+    }
+    String queryId = extractQueryIdIfPresent(request.getRequestURI(), null);
+    if (Strings.isNullOrEmpty(queryId)) {
+      return false;
+    }
+    String path =
+        getPathAndQuery(request.getRequestURI(), RoutingToken.strip(request.getQueryString()));
+    CompletableFuture<PagePrefetcher.Page> page = resultSpooler != null
+        ? resultSpooler.take(queryId, path) : pagePrefetcher.take(queryId, path);
+    if (page.isDone()) {
+      PagePrefetcher.Page taken = page.getNow(null);
+      if (taken == null) {
+        return false;
+      }
+      servePage(request, response, queryId, taken);
+      return true;
+    }
+
+    AsyncContext async = request.startAsync();
+    // The wait is bounded by the read ahead
+    async.setTimeout(0);
+    page.whenComplete((taken, e) -> {
+      if (taken == null) {
+        // Proxied to the backend on the second pass
+        request.setAttribute(READ_AHEAD_MISSED_ATTRIBUTE, true);
+        async.dispatch();
+        return;
+      }
+      async.start(() -> {
+        try {
+          servePage(request, response, queryId, taken);
+        } catch (IOException ex) {
+          log.debug("Error serving page [{}]", path, ex);
+        } finally {
+          async.complete();
+        }
+      });
+    });
+    return true;
+  }
+
+  private void servePage(HttpServletRequest request, HttpServletResponse response,
+      String queryId, PagePrefetcher.Page page) throws IOException {
+    byte[] body = page.body;
+    String nextPath = null;
+    if (page.status == HttpStatus.OK_200) {
+      QueryIdExtractor extractor = new QueryIdExtractor(false, true);
+      extractor.feed(body, 0, body.length);
+      pageInspected(extractor);
+      nextPath = getExecutingPath(extractor.getNextUri());
+      if (statelessRouting) {
+        QueryResultsUriRewriter rewriter =
+            new QueryResultsUriRewriter(getGatewayUri(request), RoutingToken.encode(page.backend));
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream(body.length + 256);
+        byte[] head = rewriter.feed(body, 0, body.length);
+        if (head != null) {
+          rewritten.write(head);
+        }
+        if (!rewriter.isDone()) {
+          rewritten.write(rewriter.finish());
+        }
+        body = rewritten.toByteArray();
+      }
+    }
+    response.setStatus(page.status);
+    for (int i = 0; i < page.headers.size(); i++) {
+      response.addHeader(page.headers.name(i), page.headers.value(i));
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+    readAhead(request, queryId, page, nextPath);
+  }
+
+  private static String getPathAndQuery(String path, String query) {
+    return path + (query != null ? "?" + query : "");
+  }
+
+  /**
+   * Writes out what the URI rewriter held back, and starts reading ahead the next page of a
+   * result page now that the page has been proxied.
+   */
+  @Override
+  protected void postConnectionComplete(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    QueryResultsUriRewriter rewriter =
+        (QueryResultsUriRewriter) request.getAttribute(URI_REWRITER_ATTRIBUTE);
+    if (rewriter != null && !rewriter.isDone()) {
+      response.getOutputStream().write(rewriter.finish());
+    }
+    QueryIdExtractor extractor =
+        (QueryIdExtractor) request.getAttribute(QUERY_ID_EXTRACTOR_ATTRIBUTE);
+    String backend = request.getHeader(PROXY_TARGET_HEADER);
+    if (!isReadAhead(request) || response.getStatus() != HttpStatus.OK_200 || extractor == null
+        || !extractor.isDone() || backend == null) {
+      return;
+    }
+    // Without the content kept, the page could not be retried once the next one is read ahead
+    KeptPages.Page kept = (KeptPages.Page) request.getAttribute(KEPT_PAGE_ATTRIBUTE);
+    byte[] body = kept == null ? null : kept.getContent();
+    if (body == null) {
+      return;
+    }
+    PagePrefetcher.Page page = new PagePrefetcher.Page(backend,
+        getPathAndQuery(request.getRequestURI(), RoutingToken.strip(request.getQueryString())),
+        response.getStatus(), PagePrefetcher.responseHeaders(response), body, System.nanoTime());
+    readAhead(request, extractor.getQueryId(), page, getExecutingPath(extractor.getNextUri()));
+  }
+
+  /**
+   * Returns the URI rewriter of a response, null if its URIs are not rewritten.
+   */
+  private QueryResultsUriRewriter getUriRewriter(HttpServletRequest request,
+      HttpServletResponse response) {
+    if (!isResponseContentRewritten(request) || response.getStatus() != HttpStatus.OK_200
+        || isGZipEncoding(response)) {
+      return null;
+    }
+    QueryResultsUriRewriter rewriter =
+        (QueryResultsUriRewriter) request.getAttribute(URI_REWRITER_ATTRIBUTE);
+    String backend = request.getHeader(PROXY_TARGET_HEADER);
+    if (rewriter == null && backend != null) {
+      rewriter = new QueryResultsUriRewriter(getGatewayUri(request), RoutingToken.encode(backend));
+      request.setAttribute(URI_REWRITER_ATTRIBUTE, rewriter);
+    }
+    return rewriter;
+  }
+
+  /**
+   * Scheme and authority the client reached the gateway with, through a load balancer if any.
+   */
+  private static String getGatewayUri(HttpServletRequest request) {
+    String scheme = Optional.ofNullable(request.getHeader(HttpHeaders.X_FORWARDED_PROTO))
+        .orElse(request.getScheme());
+    String host = Optional.ofNullable(request.getHeader(HttpHeaders.X_FORWARDED_HOST))
+        .orElse(request.getHeader(HttpHeaders.HOST));
+    if (host == null) {
+      host = request.getServerName() + ":" + request.getServerPort();
+    }
+    return scheme + "://" + host;
+  }
+
+  private void cacheQueryId(HttpServletRequest request, String queryId) throws IOException {
+    QueryHistoryManager.QueryDetail queryDetail = getQueryDetailsFromRequest(request);
+    log.debug("Proxy destination : {}", queryDetail.getBackendUrl());
+    queryDetail.setQueryId(queryId);
+
+    if (!Strings.isNullOrEmpty(queryDetail.getQueryId())) {
+      routingManager.setBackendForQueryId(
+          queryDetail.getQueryId(), queryDetail.getBackendUrl());
+
+      // Saving history at gateway.
+      queryHistoryManager.submitQueryDetail(queryDetail);
+
+      log.debug(
+          "QueryId [{}] mapped with proxy [{}]",
+          queryDetail.getQueryId(),
+          queryDetail.getBackendUrl());
+    } else {
+      log.debug("QueryId [{}] could not be cached", queryDetail.getQueryId());
+    }
+  }
+
   private QueryHistoryManager.QueryDetail getQueryDetailsFromRequest(HttpServletRequest request)
       throws IOException {
     QueryHistoryManager.QueryDetail queryDetail = new QueryHistoryManager.QueryDetail();
@@ -0,0 +1,316 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Incrementally extracts the top level {@code "id"} of a /v1/statement response as the response
+ * chunks are proxied. Gzipped responses are inflated chunk by chunk with a single
+ * {@link Inflater} and the JSON is read with a non blocking Jackson parser, so the body is never
+ * materialized. Once the id is found, or the response turns out not to contain one, all
+ * further input is ignored and native resources are released.
+ *
+ * <p>When asked to, the extractor also tells whether the response has a top level
+ * {@code "nextUri"}, i.e. whether the query has more pages, and what it is. Presto and Trino write
+ * {@code nextUri} before {@code columns} and {@code data}, so parsing stops at whichever of these
+ * comes first and the result rows are never parsed.
+ *
+ * <p>An instance holds the state of a single response and is not thread safe.
+ */
+@Slf4j
+class QueryIdExtractor {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String ID_FIELD = "id";
+  private static final String NEXT_URI_FIELD = "nextUri";
+  private static final Set<String> FIELDS_AFTER_NEXT_URI = ImmutableSet.of("columns", "data");
+  private static final int INFLATE_BUFFER_SIZE = 8192;
+  private static final int MAX_GZIP_HEADER_SIZE = 65536;
+
+  // Gzip header flags, see RFC 1952
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private final JsonParser parser;
+  private final ByteArrayFeeder feeder;
+  private Inflater inflater;
+  private byte[] inflateBuffer;
+  private byte[] pendingHeader;
+  private int pendingHeaderLength;
+
+  private final boolean nextUriTracked;
+  private int depth;
+  private boolean expectingId;
+  private boolean expectingNextUri;
+  private boolean idDecided;
+  private boolean nextUriDecided;
+  private boolean nextUriPresent;
+  private boolean done;
+  private String queryId;
+  private String nextUri;
+
+  QueryIdExtractor(boolean gzipped) throws IOException {
+    this(gzipped, false);
+  }
+
+  /**
+   * Creates an extractor for a single response.
+   *
+   * @param gzipped whether the response is gzip encoded
+   * @param nextUriTracked whether to also look for the {@code nextUri} of the response
+   */
+  QueryIdExtractor(boolean gzipped, boolean nextUriTracked) throws IOException {
+    this.nextUriTracked = nextUriTracked;
+    this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+    this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    if (gzipped) {
+      this.inflater = new Inflater(true);
+      this.inflateBuffer = new byte[INFLATE_BUFFER_SIZE];
+      this.pendingHeader = new byte[0];
+    }
+  }
+
+  boolean isDone() {
+    return done;
+  }
+
+  String getQueryId() {
+    return queryId;
+  }
+
+  /**
+   * The {@code nextUri} of the response, null if it has none or it is not tracked.
+   */
+  String getNextUri() {
+    return nextUri;
+  }
+
+  /**
+   * Whether the response was found to be the last page of a query, i.e. to have no
+   * {@code nextUri}. False while undecided and for responses that could not be parsed.
+   */
+  boolean isLastPage() {
+    return nextUriTracked && nextUriDecided && !nextUriPresent;
+  }
+
+  /**
+   * Feeds the next chunk of the response body.
+   *
+   * @param buffer buffer holding the chunk
+   * @param offset start of the chunk in the buffer
+   * @param length length of the chunk
+   * @return the query id if it has been found, null otherwise
+   */
+  String feed(byte[] buffer, int offset, int length) {
+    if (done || length <= 0) {
+      return queryId;
+    }
+    try {
+      if (inflater == null) {
+        parse(buffer, offset, offset + length);
+      } else {
+        inflate(buffer, offset, length);
+      }
+    } catch (IOException | DataFormatException e) {
+      log.debug("Unable to extract the query id from the response", e);
+      finish();
+    }
+    return queryId;
+  }
+
+  private void inflate(byte[] buffer, int offset, int length)
+      throws IOException, DataFormatException {
+    if (pendingHeader != null) {
+      // Gzip header has not been fully seen yet
+      byte[] header = Arrays.copyOf(pendingHeader, pendingHeaderLength + length);
+      System.arraycopy(buffer, offset, header, pendingHeaderLength, length);
+      if (!isGzip(header, header.length)) {
+        // Not actually compressed, fall back to plain text
+        inflater.end();
+        inflater = null;
+        pendingHeader = null;
+        parse(header, 0, header.length);
+        return;
+      }
+      int headerLength = gzipHeaderLength(header, header.length);
+      if (headerLength < 0) {
+        if (header.length > MAX_GZIP_HEADER_SIZE) {
+          throw new IOException("Gzip header too large");
+        }
+        pendingHeader = header;
+        pendingHeaderLength = header.length;
+        return;
+      }
+      pendingHeader = null;
+      buffer = header;
+      offset = headerLength;
+      length = header.length - headerLength;
+    }
+
+    inflater.setInput(buffer, offset, length);
+    while (!done && !inflater.needsInput() && !inflater.finished()) {
+      int count = inflater.inflate(inflateBuffer);
+      if (count == 0 && inflater.needsDictionary()) {
+        throw new DataFormatException("Preset dictionaries are not supported");
+      }
+      if (count > 0) {
+        parse(inflateBuffer, 0, count);
+      }
+    }
+    if (inflater != null && inflater.finished()) {
+      finish();
+    }
+  }
+
+  private void parse(byte[] buffer, int start, int end) throws IOException {
+    feeder.feedInput(buffer, start, end);
+    JsonToken token;
+    while (!done && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE) {
+      if (token == null) {
+        finish();
+        return;
+      }
+      switch (token) {
+        case START_OBJECT:
+        case START_ARRAY:
+          if (depth == 0 && token == JsonToken.START_ARRAY) {
+            finish();
+            return;
+          }
+          depth++;
+          expectingId = false;
+          expectingNextUri = false;
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          depth--;
+          if (depth == 0) {
+            // End of the top level document, whatever was not found is missing
+            nextUriDecided = true;
+            finish();
+          }
+          break;
+        case FIELD_NAME:
+          expectingId = false;
+          expectingNextUri = false;
+          if (depth == 1) {
+            String field = parser.getCurrentName();
+            expectingId = !idDecided && ID_FIELD.equals(field);
+            if (NEXT_URI_FIELD.equals(field)) {
+              nextUriPresent = true;
+              // Decided once its value has been read
+              expectingNextUri = nextUriTracked;
+              nextUriDecided = !nextUriTracked;
+            } else if (nextUriTracked && FIELDS_AFTER_NEXT_URI.contains(field)) {
+              // The id comes first, so it is missing too
+              nextUriDecided = true;
+              idDecided = true;
+            }
+            finishIfDecided();
+          }
+          break;
+        default:
+          if (expectingNextUri) {
+            if (token == JsonToken.VALUE_STRING) {
+              nextUri = parser.getText();
+            }
+            expectingNextUri = false;
+            nextUriDecided = true;
+            finishIfDecided();
+          } else if (expectingId) {
+            if (token == JsonToken.VALUE_STRING) {
+              queryId = parser.getText();
+            }
+            expectingId = false;
+            idDecided = true;
+            finishIfDecided();
+          }
+          break;
+      }
+    }
+  }
+
+  private void finishIfDecided() {
+    if (idDecided && (nextUriDecided || !nextUriTracked)) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    done = true;
+    try {
+      parser.close();
+    } catch (IOException e) {
+      log.debug("Error closing the response parser", e);
+    }
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+    inflateBuffer = null;
+    pendingHeader = null;
+  }
+
+  private static boolean isGzip(byte[] header, int length) {
+    if (length < 2) {
+      return length == 0 || header[0] == (byte) GZIPInputStream.GZIP_MAGIC;
+    }
+    return header[0] == (byte) GZIPInputStream.GZIP_MAGIC
+        && header[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+  }
+
+  /**
+   * Returns the length of the gzip header, or -1 if more bytes are needed to tell.
+   */
+  private static int gzipHeaderLength(byte[] header, int length) {
+    int position = 10;
+    if (length < position) {
+      return -1;
+    }
+    int flags = header[3] & 0xff;
+    if ((flags & FEXTRA) != 0) {
+      if (length < position + 2) {
+        return -1;
+      }
+      position += 2 + ((header[position] & 0xff) | ((header[position + 1] & 0xff) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      position = skipZeroTerminated(header, position, length);
+      if (position < 0) {
+        return -1;
+      }
+    }
+    if ((flags & FCOMMENT) != 0) {
+      position = skipZeroTerminated(header, position, length);
+      if (position < 0) {
+        return -1;
+      }
+    }
+    if ((flags & FHCRC) != 0) {
+      position += 2;
+    }
+    return position <= length ? position : -1;
+  }
+
+  private static int skipZeroTerminated(byte[] header, int position, int length) {
+    for (int i = position; i < length; i++) {
+      if (header[i] == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+}
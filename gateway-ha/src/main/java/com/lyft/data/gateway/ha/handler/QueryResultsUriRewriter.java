@@ -0,0 +1,114 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the {@code nextUri}, {@code infoUri} and {@code partialCancelUri} of a /v1/statement
+ * response to gateway URIs carrying a {@link RoutingToken}. Presto and Trino write these fields
+ * ahead of {@code columns}, {@code data} and {@code stats}, so only the head of the response up
+ * to the first of those is buffered and rewritten, the result rows are passed through as is.
+ * A head that grows past {@value #MAX_HEAD_SIZE} bytes is passed through unchanged. Each chunk
+ * is only scanned from the last field name before it on, and the head is decoded once, when it
+ * is rewritten.
+ *
+ * <p>An instance holds the state of a single response and is not thread safe.
+ */
+class QueryResultsUriRewriter {
+  private static final Pattern URI_FIELD =
+      Pattern.compile("\"(nextUri|infoUri|partialCancelUri)\"\\s*:\\s*\"([^\"\\\\]*)\"");
+  private static final Pattern END_OF_HEAD = Pattern.compile("\"(columns|data|stats)\"\\s*:");
+  private static final int MAX_HEAD_SIZE = 65536;
+  private static final int INITIAL_HEAD_SIZE = 1024;
+
+  private final String gatewayUri;
+  private final String token;
+  private byte[] head = new byte[INITIAL_HEAD_SIZE];
+  private int headLength;
+  // Where the next scan for the end of the head starts, the start of a field name split across
+  // chunks is at one of the last two quotes
+  private int scanStart;
+  private int lastQuote = -1;
+
+  /**
+   * Creates a rewriter for a single response.
+   * @param gatewayUri Scheme and authority the client reached the gateway with
+   * @param token Token of the backend serving the response
+   */
+  QueryResultsUriRewriter(String gatewayUri, String token) {
+    this.gatewayUri = gatewayUri;
+    this.token = token;
+  }
+
+  boolean isDone() {
+    return head == null;
+  }
+
+  /**
+   * Feeds the next chunk of the response body.
+   * @return The bytes to send for this chunk, null while the head is still buffered
+   */
+  byte[] feed(byte[] buffer, int offset, int length) {
+    if (isDone()) {
+      byte[] chunk = new byte[length];
+      System.arraycopy(buffer, offset, chunk, 0, length);
+      return chunk;
+    }
+    if (headLength + length > head.length) {
+      head = Arrays.copyOf(head, Math.max(headLength + length, 2 * head.length));
+    }
+    System.arraycopy(buffer, offset, head, headLength, length);
+    int scanned = headLength;
+    headLength += length;
+
+    // Byte for byte, a character split across chunks is left intact
+    Matcher end = END_OF_HEAD.matcher(
+        new String(head, scanStart, headLength - scanStart, StandardCharsets.ISO_8859_1));
+    if (end.find()) {
+      return rewrite(scanStart + end.start());
+    }
+    for (int i = scanned; i < headLength; i++) {
+      if (head[i] == '"') {
+        scanStart = lastQuote < 0 ? 0 : lastQuote;
+        lastQuote = i;
+      }
+    }
+    return headLength > MAX_HEAD_SIZE ? finish() : null;
+  }
+
+  /**
+   * Returns whatever is still buffered at the end of the response.
+   */
+  byte[] finish() {
+    if (isDone()) {
+      return new byte[0];
+    }
+    if (headLength > MAX_HEAD_SIZE) {
+      byte[] text = Arrays.copyOf(head, headLength);
+      head = null;
+      return text;
+    }
+    return rewrite(headLength);
+  }
+
+  private byte[] rewrite(int headEnd) {
+    String text = new String(head, 0, headLength, StandardCharsets.ISO_8859_1);
+    StringBuffer rewritten = new StringBuffer(text.length() + 256);
+    Matcher field = URI_FIELD.matcher(text).region(0, headEnd);
+    while (field.find()) {
+      String uri = RoutingToken.rewriteUri(field.group(2), gatewayUri, token);
+      String replacement = uri == null ? field.group()
+          : "\"" + field.group(1) + "\":\"" + uri + "\"";
+      field.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+    }
+    field.appendTail(rewritten);
+    return release(rewritten.toString());
+  }
+
+  private byte[] release(String text) {
+    head = null;
+    return text.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,546 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.lyft.data.gateway.ha.config.ResultSpoolConfiguration;
+
+import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Drains the result pages of executing queries from their backends as fast as the backends
+ * produce them, and keeps them in segment files on local disk until the clients ask for them.
+ * A slow client then no longer holds the output buffers of its query on the backend, which
+ * finishes the query and frees its memory while the client is still reading.
+ *
+ * <p>Spooling starts from a page the client has received, which is spooled along so the client
+ * can still retry it once the backend has been asked for the next one. Pages are appended to the
+ * segments of their query in order, a page is kept until the client asks for the one after it,
+ * and a segment is deleted once none of its pages can be asked for any more. When a query runs
+ * out of disk space, spooling stops at the page that did not fit, which the backend still holds:
+ * the client is proxied to the backend for it, and spooling resumes behind the client from
+ * there. Spools are deleted shortly after the client asked for their last page, and spools of
+ * clients that stopped asking for pages after a TTL.
+ */
+@Slf4j
+public class ResultSpooler implements Managed {
+  public static final String METRIC_PREFIX = "proxy.spool";
+  private static final String SEGMENT_SUFFIX = ".spool";
+
+  private final ResultSpoolConfiguration configuration;
+  private final Path directory;
+  private final OkHttpClient httpClient;
+  // Spool by query id
+  private final Map<String, QuerySpool> spools = new ConcurrentHashMap<>();
+  // Spools still draining pages from their backend
+  private final AtomicInteger unfinishedSpools = new AtomicInteger();
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final AtomicLong memoryBytes = new AtomicLong();
+  private final KeptPages keptPages;
+  private final AtomicLong segmentSequence = new AtomicLong();
+  private ScheduledExecutorService cleaner;
+
+  private final Meter pageMeter;
+  private final Meter byteMeter;
+  private final Meter hitMeter;
+  private final Meter missMeter;
+  private final Meter overQuotaMeter;
+  private final Meter expiredMeter;
+  private final Histogram queryPages;
+  private final Histogram queryBytes;
+  private final Histogram leadMillis;
+
+  /**
+   * Creates a spooler, which spools pages once started.
+   * @param configuration Location and quotas of the spool
+   * @param metricRegistry Registry for the spool metrics
+   */
+  public ResultSpooler(ResultSpoolConfiguration configuration, MetricRegistry metricRegistry) {
+    this.configuration = configuration;
+    this.directory = Paths.get(configuration.getDirectory());
+    this.httpClient = new OkHttpClient.Builder()
+        .readTimeout(configuration.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .build();
+    this.httpClient.dispatcher().setMaxRequests(configuration.getMaxQueries());
+    this.httpClient.dispatcher().setMaxRequestsPerHost(configuration.getMaxQueries());
+    this.keptPages = new KeptPages(configuration.getMaxPageBytes(),
+        configuration.getMaxMemoryBytes(), memoryBytes);
+
+    pageMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "pages"));
+    byteMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "bytes"));
+    hitMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "hits"));
+    missMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "misses"));
+    overQuotaMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "overQuota"));
+    expiredMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "expired"));
+    // Per query, recorded when its spool is deleted
+    queryPages = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "query.pages"));
+    queryBytes = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "query.bytes"));
+    // Per query, how long the client kept reading after the backend was done with the query
+    leadMillis = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "query.leadMillis"));
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "diskBytes"),
+        (Gauge<Long>) totalBytes::get);
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "memoryBytes"),
+        (Gauge<Long>) memoryBytes::get);
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "queries"),
+        (Gauge<Integer>) spools::size);
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "unfinishedQueries"),
+        (Gauge<Integer>) unfinishedSpools::get);
+  }
+
+  /**
+   * Empties the spool directory of segments left behind by a previous run and schedules the
+   * deletion of expired spools.
+   */
+  @Override
+  public void start() throws IOException {
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> segments =
+        Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path segment : segments) {
+        Files.deleteIfExists(segment);
+      }
+    }
+    cleaner = Executors.newSingleThreadScheduledExecutor();
+    cleaner.scheduleWithFixedDelay(this::expire, configuration.getCleanupIntervalMillis(),
+        configuration.getCleanupIntervalMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (cleaner != null) {
+      cleaner.shutdownNow();
+    }
+    for (String queryId : spools.keySet()) {
+      discard(queryId);
+    }
+  }
+
+  /**
+   * Bounds of the proxied pages kept in memory to start spooling from.
+   */
+  KeptPages getKeptPages() {
+    return keptPages;
+  }
+
+  /**
+   * Starts spooling the pages of a query after the given page, unless they are spooled already.
+   * @param queryId Query id
+   * @param current Page the client has received, spooled along for retries
+   * @param path Path and query string of the first page to spool
+   * @param request Request of the client, whose headers are sent along
+   */
+  void spool(String queryId, PagePrefetcher.Page current, String path,
+      HttpServletRequest request) {
+    QuerySpool spool = spools.get(queryId);
+    if (spool == null) {
+      if (unfinishedSpools.get() >= configuration.getMaxQueries()) {
+        overQuotaMeter.mark();
+        return;
+      }
+      QuerySpool created =
+          new QuerySpool(queryId, current.backend, PagePrefetcher.requestHeaders(request));
+      spool = spools.putIfAbsent(queryId, created);
+      if (spool == null) {
+        unfinishedSpools.incrementAndGet();
+        spool = created;
+      }
+    }
+    if (!spool.resume(current, path)) {
+      // Holds nothing the client could ask for
+      if (spools.remove(queryId, spool)) {
+        spool.close();
+      }
+    }
+  }
+
+  /**
+   * Returns a spooled page. Never blocks, a page still being spooled is waited for up to the
+   * configured time.
+   * @param queryId Query id
+   * @param path Path and query string of the page
+   * @return The page, completed with null if it is not spooled
+   */
+  CompletableFuture<PagePrefetcher.Page> take(String queryId, String path) {
+    QuerySpool spool = spools.get(queryId);
+    if (spool == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return spool.take(path).thenApply(page -> {
+      if (page == null) {
+        missMeter.mark();
+      } else {
+        hitMeter.mark();
+      }
+      return page;
+    });
+  }
+
+  /**
+   * Deletes the spool of a query, e.g. when it is cancelled.
+   */
+  void discard(String queryId) {
+    QuerySpool spool = spools.remove(queryId);
+    if (spool != null) {
+      spool.close();
+    }
+  }
+
+  private void expire() {
+    long now = System.currentTimeMillis();
+    long cutoff = now - configuration.getTtlMillis();
+    spools.forEach((queryId, spool) -> {
+      long finishedMillis = spool.getLastPageReadMillis();
+      if (finishedMillis > 0 && finishedMillis + configuration.getFinishedTtlMillis() < now
+          && spools.remove(queryId, spool)) {
+        log.debug("Deleting spool of query [{}] read to its last page", queryId);
+        spool.close();
+      } else if (spool.getLastAccessMillis() < cutoff && spools.remove(queryId, spool)) {
+        log.debug("Deleting spool of query [{}] no longer read", queryId);
+        expiredMeter.mark();
+        spool.close();
+      }
+    });
+  }
+
+  private boolean reserve(long bytes) {
+    if (totalBytes.addAndGet(bytes) > configuration.getMaxTotalBytes()) {
+      totalBytes.addAndGet(-bytes);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Where a spooled page is.
+   */
+  private static final class SpooledPage {
+    final long index;
+    final SpoolSegment segment;
+    final int offset;
+    final int length;
+    final int status;
+    final Headers headers;
+
+    SpooledPage(long index, SpoolSegment segment, int offset, int length, int status,
+        Headers headers) {
+      this.index = index;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.status = status;
+      this.headers = headers;
+    }
+  }
+
+  /**
+   * The spooled pages of a query and the request for its next page.
+   */
+  private final class QuerySpool {
+    private final String queryId;
+    private final String backend;
+    private final Headers requestHeaders;
+    private final long createdNanos = System.nanoTime();
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+    // When the client first asked for the last page, 0 until then
+    private volatile long lastPageReadMillis;
+
+    // Pages by path, in the order of the query
+    private final Map<String, SpooledPage> pages = new LinkedHashMap<>();
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+    private long reservedBytes;
+    private long pageCount;
+    private long spooledBytes;
+    private boolean draining;
+    private String drainingPath;
+    private Call call;
+    private CompletableFuture<Void> drained = CompletableFuture.completedFuture(null);
+    // When the last page was spooled, 0 while the query has more pages
+    private long lastPageNanos;
+    private boolean finished;
+    private boolean closed;
+
+    QuerySpool(String queryId, String backend, Headers requestHeaders) {
+      this.queryId = queryId;
+      this.backend = backend;
+      this.requestHeaders = requestHeaders;
+    }
+
+    long getLastAccessMillis() {
+      return lastAccessMillis;
+    }
+
+    long getLastPageReadMillis() {
+      return lastPageReadMillis;
+    }
+
+    /**
+     * Drains the pages after the given one, unless they are being drained already.
+     * @return False if the spool holds no page the client could ask for
+     */
+    synchronized boolean resume(PagePrefetcher.Page current, String path) {
+      if (closed) {
+        return false;
+      }
+      if (draining || finished || pages.containsKey(path)) {
+        return true;
+      }
+      SpooledPage spooled = pages.get(current.path);
+      if (spooled != null) {
+        dropPagesBefore(spooled.index);
+      } else {
+        // The client was proxied to the backend for the page, all pages spooled before are past
+        dropPagesBefore(pageCount);
+        if (!store(current.path, current.status, current.headers, current.body)) {
+          overQuotaMeter.mark();
+          return false;
+        }
+      }
+      draining = true;
+      drained = new CompletableFuture<>();
+      fetch(path);
+      return true;
+    }
+
+    private void fetch(String path) {
+      drainingPath = path;
+      try {
+        call = httpClient.newCall(new Request.Builder()
+            .get()
+            .url(backend + path)
+            .headers(requestHeaders)
+            .build());
+      } catch (IllegalArgumentException e) {
+        log.warn("Unable to spool [{}] from [{}]", path, backend, e);
+        stopDraining();
+        return;
+      }
+      call.enqueue(new Callback() {
+        @Override
+        public void onFailure(Call call, IOException e) {
+          if (!call.isCanceled()) {
+            log.debug("Error spooling [{}] from [{}]", path, backend, e);
+          }
+          synchronized (QuerySpool.this) {
+            stopDraining();
+          }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+          byte[] body = null;
+          try (ResponseBody responseBody = response.body()) {
+            if (response.code() == 200) {
+              body = PagePrefetcher.readBody(responseBody, configuration.getMaxPageBytes());
+            }
+          } catch (IOException e) {
+            log.debug("Error reading spooled [{}] from [{}]", path, backend, e);
+          }
+          synchronized (QuerySpool.this) {
+            spooled(path, response, body);
+          }
+        }
+      });
+    }
+
+    /**
+     * Stores a page and requests the next one, which acknowledges the page to the backend.
+     * @param body The page, null if it could not be read
+     */
+    private void spooled(String path, Response response, byte[] body) {
+      if (closed) {
+        return;
+      }
+      if (body == null) {
+        // Left to the client, which gets the same answer from the backend
+        stopDraining();
+        return;
+      }
+      if (!store(path, response.code(), PagePrefetcher.responseHeaders(response), body)) {
+        log.debug("Query [{}] is over its spool quota at page [{}]", queryId, path);
+        overQuotaMeter.mark();
+        stopDraining();
+        return;
+      }
+
+      String nextPath;
+      try {
+        QueryIdExtractor extractor = new QueryIdExtractor(false, true);
+        extractor.feed(body, 0, body.length);
+        nextPath = QueryIdCachingProxyHandler.getExecutingPath(extractor.getNextUri());
+      } catch (IOException e) {
+        log.warn("Unable to parse spooled page [{}]", path, e);
+        nextPath = null;
+      }
+      CompletableFuture<Void> previous = drained;
+      if (nextPath != null) {
+        drained = new CompletableFuture<>();
+        fetch(nextPath);
+      } else {
+        lastPageNanos = System.nanoTime();
+        stopDraining();
+        finish();
+      }
+      // Wakes clients waiting for the page
+      previous.complete(null);
+    }
+
+    private void finish() {
+      if (!finished) {
+        finished = true;
+        unfinishedSpools.decrementAndGet();
+      }
+    }
+
+    private void stopDraining() {
+      draining = false;
+      drainingPath = null;
+      call = null;
+      drained.complete(null);
+    }
+
+    private boolean store(String path, int status, Headers headers, byte[] body) {
+      SpoolSegment segment = segments.peekLast();
+      if (segment == null || segment.remaining() < body.length) {
+        int capacity = Math.max(configuration.getSegmentBytes(), body.length);
+        if (reservedBytes + capacity > configuration.getMaxBytesPerQuery()
+            || !reserve(capacity)) {
+          return false;
+        }
+        try {
+          segment = new SpoolSegment(directory.resolve(
+              "segment-" + segmentSequence.incrementAndGet() + SEGMENT_SUFFIX), capacity);
+        } catch (IOException e) {
+          log.warn("Unable to create a spool segment in [{}]", directory, e);
+          totalBytes.addAndGet(-capacity);
+          return false;
+        }
+        segments.addLast(segment);
+        reservedBytes += capacity;
+      }
+      int offset;
+      try {
+        offset = segment.append(body);
+      } catch (IOException e) {
+        log.warn("Unable to write to spool segment of query [{}]", queryId, e);
+        return false;
+      }
+      pages.put(path, new SpooledPage(pageCount++, segment, offset, body.length, status,
+          headers));
+      spooledBytes += body.length;
+      pageMeter.mark();
+      byteMeter.mark(body.length);
+      return true;
+    }
+
+    CompletableFuture<PagePrefetcher.Page> take(String path) {
+      lastAccessMillis = System.currentTimeMillis();
+      CompletableFuture<Void> pending;
+      synchronized (this) {
+        if (pages.containsKey(path) || !draining || !path.equals(drainingPath)) {
+          return CompletableFuture.completedFuture(read(path));
+        }
+        pending = drained;
+      }
+      return PagePrefetcher.withTimeout(pending, configuration.getWaitMillis())
+          .thenApply(ignored -> {
+            synchronized (this) {
+              return read(path);
+            }
+          });
+    }
+
+    /**
+     * Reads a page and deletes the pages the client can no longer ask for.
+     */
+    private PagePrefetcher.Page read(String path) {
+      SpooledPage page = closed ? null : pages.get(path);
+      if (page == null) {
+        return null;
+      }
+      byte[] body;
+      try {
+        body = page.segment.read(page.offset, page.length);
+      } catch (IOException e) {
+        log.warn("Unable to read spooled page [{}]", path, e);
+        return null;
+      }
+      // The page before stays, the client may not have received this one yet
+      dropPagesBefore(page.index - 1);
+
+      if (lastPageNanos > 0 && page.index == pageCount - 1 && lastPageReadMillis == 0) {
+        lastPageReadMillis = System.currentTimeMillis();
+        leadMillis.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastPageNanos));
+      }
+      return new PagePrefetcher.Page(backend, path, page.status, page.headers, body,
+          System.nanoTime());
+    }
+
+    /**
+     * Deletes the pages before the given one, and the segments that only held those.
+     */
+    private void dropPagesBefore(long index) {
+      Iterator<SpooledPage> older = pages.values().iterator();
+      while (older.hasNext() && older.next().index < index) {
+        older.remove();
+      }
+      SpoolSegment oldest = pages.isEmpty() ? null : pages.values().iterator().next().segment;
+      while (!segments.isEmpty() && segments.peekFirst() != oldest) {
+        release(segments.pollFirst());
+      }
+    }
+
+    private void release(SpoolSegment segment) {
+      segment.close();
+      reservedBytes -= segment.capacity();
+      totalBytes.addAndGet(-segment.capacity());
+    }
+
+    synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (call != null) {
+        call.cancel();
+      }
+      stopDraining();
+      finish();
+      pages.clear();
+      while (!segments.isEmpty()) {
+        release(segments.pollFirst());
+      }
+      queryPages.update(pageCount);
+      queryBytes.update(spooledBytes);
+      log.debug("Deleted spool of query [{}] after {} ms: {} pages, {} bytes", queryId,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos), pageCount,
+          spooledBytes);
+    }
+  }
+}
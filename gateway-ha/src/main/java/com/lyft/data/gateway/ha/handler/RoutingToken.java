@@ -0,0 +1,91 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.StringJoiner;
+
+/**
+ * Token carrying the address of the backend running a query in the URIs handed to clients, so
+ * the follow-up requests of the query are routed by parsing their URI rather than by looking up
+ * the query id. The token is the URL safe base64 encoding of the backend address, passed as the
+ * {@value #PARAMETER} query parameter.
+ */
+final class RoutingToken {
+  static final String PARAMETER = "gatewayBackend";
+  private static final String PREFIX = PARAMETER + "=";
+
+  private RoutingToken() {
+  }
+
+  static String encode(String backend) {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(backend.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a token.
+   * @return The backend address, null if the token is not valid base64
+   */
+  static String decode(String token) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the token of a query string, null if it has none.
+   */
+  static String find(String queryString) {
+    if (queryString == null || !queryString.contains(PREFIX)) {
+      return null;
+    }
+    for (String parameter : queryString.split("&")) {
+      if (parameter.startsWith(PREFIX)) {
+        return parameter.substring(PREFIX.length());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the token from a query string.
+   * @return The query string without the token, null if nothing is left
+   */
+  static String strip(String queryString) {
+    if (queryString == null || !queryString.contains(PREFIX)) {
+      return queryString;
+    }
+    StringJoiner stripped = new StringJoiner("&");
+    for (String parameter : queryString.split("&")) {
+      if (!parameter.startsWith(PREFIX)) {
+        stripped.add(parameter);
+      }
+    }
+    return stripped.length() == 0 ? null : stripped.toString();
+  }
+
+  /**
+   * Points a backend URI at the gateway and adds the token to it.
+   * @param uri Absolute URI on the backend
+   * @param gatewayUri Scheme and authority of the gateway
+   * @param token Token of the backend
+   * @return The rewritten URI, null if the URI is not absolute
+   */
+  static String rewriteUri(String uri, String gatewayUri, String token) {
+    try {
+      URI parsed = new URI(uri);
+      if (!parsed.isAbsolute() || parsed.getRawPath() == null) {
+        return null;
+      }
+      String query = strip(parsed.getRawQuery());
+      return gatewayUri + parsed.getRawPath() + "?" + (query == null ? "" : query + "&")
+          + PREFIX + token;
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A file that result pages are appended to, up to a capacity. Pages are written and read at
+ * their position in the file rather than through a memory mapping, so the file only grows as
+ * pages are appended, and its disk space is freed as soon as it is deleted. The operating system
+ * still caches recently written pages, which are usually read soon after.
+ *
+ * <p>Not thread safe, segments are guarded by the spool of their query.
+ */
+@Slf4j
+class SpoolSegment {
+  private final Path path;
+  private final FileChannel channel;
+  private final int capacity;
+  private int size;
+
+  /**
+   * Creates a new segment file.
+   * @param path File of the segment, which must not exist
+   * @param capacity Bytes of pages the segment takes
+   */
+  SpoolSegment(Path path, int capacity) throws IOException {
+    this.path = path;
+    this.capacity = capacity;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  int remaining() {
+    return capacity - size;
+  }
+
+  /**
+   * Appends a page.
+   * @return Offset of the page in the segment
+   */
+  int append(byte[] page) throws IOException {
+    int offset = size;
+    ByteBuffer source = ByteBuffer.wrap(page);
+    while (source.hasRemaining()) {
+      channel.write(source, offset + source.position());
+    }
+    size += page.length;
+    return offset;
+  }
+
+  byte[] read(int offset, int length) throws IOException {
+    ByteBuffer page = ByteBuffer.allocate(length);
+    while (page.hasRemaining()) {
+      if (channel.read(page, offset + page.position()) < 0) {
+        throw new EOFException("Spool segment " + path + " ends before " + (offset + length));
+      }
+    }
+    return page.array();
+  }
+
+  /**
+   * Closes and deletes the segment file.
+   */
+  void close() {
+    try {
+      channel.close();
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Error deleting spool segment [{}]", path, e);
+    }
+  }
+}
@@ -5,6 +5,7 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.lyft.data.baseapp.AppModule;
 import com.lyft.data.gateway.ha.clustermonitor.HealthChecker;
+import com.lyft.data.gateway.ha.clustermonitor.LoadScoreFunction;
 import com.lyft.data.gateway.ha.clustermonitor.PrestoClusterStatsObserver;
 import com.lyft.data.gateway.ha.clustermonitor.PrestoQueueLengthChecker;
 import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
@@ -15,7 +16,9 @@ import com.lyft.data.gateway.ha.router.RoutingManager;
 import io.dropwizard.setup.Environment;
 import java.util.ArrayList;
 import java.util.List;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class ClusterStateListenerModule extends AppModule<HaGatewayConfiguration, Environment> {
   List<PrestoClusterStatsObserver> observers;
 
@@ -41,7 +44,24 @@ public class ClusterStateListenerModule extends AppModule<HaGatewayConfiguration
       observers.add(new HealthChecker(new EmailNotifier(notifierConfiguration)));
     }
 
-    observers.add(new PrestoQueueLengthChecker((PrestoQueueLengthRoutingTable)routingManager));
+    if (routingManager instanceof PrestoQueueLengthRoutingTable) {
+      observers.add(new PrestoQueueLengthChecker((PrestoQueueLengthRoutingTable) routingManager,
+          createLoadScoreFunction(getConfiguration().getRouting().getLoadScoreFunction())));
+    }
     return observers;
   }
+
+  private static LoadScoreFunction createLoadScoreFunction(String clazz) {
+    if (clazz == null || clazz.isEmpty()) {
+      return null;
+    }
+    try {
+      log.info("Routing on load scores of [{}]", clazz);
+      return (LoadScoreFunction) Class.forName(clazz).getConstructor().newInstance();
+    } catch (Exception e) {
+      log.error("Could not instantiate load score function [" + clazz + "], routing on queue "
+          + "lengths only", e);
+      return null;
+    }
+  }
 }
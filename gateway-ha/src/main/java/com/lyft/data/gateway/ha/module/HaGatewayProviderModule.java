@@ -5,17 +5,25 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.lyft.data.baseapp.AppModule;
 import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
+import com.lyft.data.gateway.ha.config.MonitorConfiguration;
 import com.lyft.data.gateway.ha.config.RequestRouterConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingConfiguration;
+import com.lyft.data.gateway.ha.handler.PagePrefetcher;
 import com.lyft.data.gateway.ha.handler.QueryIdCachingProxyHandler;
+import com.lyft.data.gateway.ha.handler.ResultSpooler;
 import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
 import com.lyft.data.gateway.ha.router.GatewayBackendManager;
 import com.lyft.data.gateway.ha.router.HaGatewayManager;
 import com.lyft.data.gateway.ha.router.HaQueryHistoryManager;
 import com.lyft.data.gateway.ha.router.HaRoutingManager;
+import com.lyft.data.gateway.ha.router.LatencyAwareRoutingTable;
+import com.lyft.data.gateway.ha.router.PowerOfTwoChoicesRoutingManager;
 import com.lyft.data.gateway.ha.router.PrestoQueueLengthRoutingTable;
 import com.lyft.data.gateway.ha.router.QueryHistoryManager;
+import com.lyft.data.gateway.ha.router.QueryIdCacheWarmer;
 import com.lyft.data.gateway.ha.router.RoutingGroupsManager;
 import com.lyft.data.gateway.ha.router.RoutingManager;
+import com.lyft.data.gateway.ha.router.WriteBehindQueryHistoryManager;
 import com.lyft.data.proxyserver.ProxyHandler;
 import com.lyft.data.proxyserver.ProxyServer;
 import com.lyft.data.proxyserver.ProxyServerConfiguration;
@@ -27,16 +35,55 @@ public class HaGatewayProviderModule extends AppModule<HaGatewayConfiguration, E
   private final RoutingManager routingManager;
   private final JdbcConnectionManager connectionManager;
   private final RoutingGroupsManager routingGroupsManager;
+  private final ResultSpooler resultSpooler;
 
   public HaGatewayProviderModule(HaGatewayConfiguration configuration, Environment environment) {
     super(configuration, environment);
-    connectionManager = new JdbcConnectionManager(configuration.getDataStore());
-    gatewayBackendManager = new HaGatewayManager(connectionManager);
-    queryHistoryManager = new HaQueryHistoryManager(configuration, connectionManager);
+    connectionManager =
+        new JdbcConnectionManager(configuration.getDataStore(), environment.metrics());
+    environment.lifecycle().manage(connectionManager);
+    HaGatewayManager haGatewayManager = new HaGatewayManager(connectionManager);
+    gatewayBackendManager = haGatewayManager;
+    HaQueryHistoryManager haQueryHistoryManager =
+        new HaQueryHistoryManager(configuration, connectionManager);
+    if (configuration.getQueryHistoryWriter() != null) {
+      WriteBehindQueryHistoryManager writeBehindManager = new WriteBehindQueryHistoryManager(
+          haQueryHistoryManager, configuration.getQueryHistoryWriter(), environment.metrics());
+      environment.lifecycle().manage(writeBehindManager);
+      queryHistoryManager = writeBehindManager;
+    } else {
+      queryHistoryManager = haQueryHistoryManager;
+    }
     routingGroupsManager = new RoutingGroupsManager(connectionManager);
-    routingManager = new PrestoQueueLengthRoutingTable(gatewayBackendManager,
-                               (HaQueryHistoryManager) queryHistoryManager,
-                               routingGroupsManager);
+    RoutingConfiguration routing = configuration.getRouting();
+    if (routing.getStrategy() == RoutingConfiguration.Strategy.POWER_OF_TWO_CHOICES) {
+      routingManager = new PowerOfTwoChoicesRoutingManager(gatewayBackendManager,
+          queryHistoryManager, routingGroupsManager, routing.getInFlightQueryTtlMillis());
+    } else if (routing.getStrategy() == RoutingConfiguration.Strategy.LATENCY_AWARE) {
+      routingManager = new LatencyAwareRoutingTable(gatewayBackendManager, queryHistoryManager,
+          routingGroupsManager, environment.metrics(), routing.getLatencyDecayMillis(),
+          routing.getLatencyToleranceMillis());
+    } else {
+      routingManager = new PrestoQueueLengthRoutingTable(gatewayBackendManager,
+                                 queryHistoryManager,
+                                 routingGroupsManager,
+                                 environment.metrics());
+    }
+
+    // Registered before the managed apps, so the proxy starts once the cache is warm
+    environment.lifecycle().manage(new QueryIdCacheWarmer(queryHistoryManager, routingManager,
+        routing.getQueryIdCacheWarmupMillis(), environment.metrics()));
+
+    if (configuration.getResultSpool() != null) {
+      resultSpooler = new ResultSpooler(configuration.getResultSpool(), environment.metrics());
+      environment.lifecycle().manage(resultSpooler);
+    } else {
+      resultSpooler = null;
+    }
+
+    // Keep the in memory backend registry in step with changes made through this gateway
+    haGatewayManager.addChangeListener(routingManager::refreshBackendRegistry);
+    routingGroupsManager.addChangeListener(routingManager::refreshBackendRegistry);
   }
 
   protected ProxyHandler getProxyHandler() {
@@ -44,8 +91,15 @@ public class HaGatewayProviderModule extends AppModule<HaGatewayConfiguration, E
         getEnvironment()
             .metrics()
             .meter(getConfiguration().getRequestRouter().getName() + ".requests");
+    PagePrefetcher pagePrefetcher = null;
+    if (getConfiguration().getPagePrefetch() != null) {
+      pagePrefetcher =
+          new PagePrefetcher(getConfiguration().getPagePrefetch(), getEnvironment().metrics());
+    }
     return new QueryIdCachingProxyHandler(
-        getQueryHistoryManager(), getRoutingManager(), getApplicationPort(), requestMeter);
+        getQueryHistoryManager(), getRoutingManager(), getApplicationPort(), requestMeter,
+        getConfiguration().getRequestRouter().isStatelessRouting(), pagePrefetcher,
+        resultSpooler);
   }
 
   @Provides
@@ -70,6 +124,12 @@ public class HaGatewayProviderModule extends AppModule<HaGatewayConfiguration, E
     return gateway;
   }
 
+  @Provides
+  @Singleton
+  public MonitorConfiguration getMonitorConfiguration() {
+    return getConfiguration().getMonitor();
+  }
+
   @Provides
   @Singleton
   public GatewayBackendManager getGatewayBackendManager() {
@@ -1,39 +1,113 @@
 package com.lyft.data.gateway.ha.persistence;
 
+import com.codahale.metrics.MetricRegistry;
+import com.lyft.data.gateway.ha.config.ConnectionPoolConfiguration;
 import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
 import com.lyft.data.gateway.ha.persistence.dao.QueryHistory;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
+import io.dropwizard.lifecycle.Managed;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.javalite.activejdbc.Base;
 
+/**
+ * Opens and closes the ActiveJDBC connection of the calling thread. When the data store has a
+ * connection pool configured, connections are borrowed from and returned to a pool, otherwise a
+ * new physical connection is opened every time.
+ */
 @Slf4j
-public class JdbcConnectionManager {
+public class JdbcConnectionManager implements Managed {
+  public static final String POOL_NAME = "gateway.datastore";
+
   private final DataStoreConfiguration configuration;
+  private final HikariDataSource dataSource;
   private final ScheduledExecutorService executorService =
       Executors.newSingleThreadScheduledExecutor();
 
   public JdbcConnectionManager(DataStoreConfiguration configuration) {
+    this(configuration, null);
+  }
+
+  /**
+   * Creates a connection manager, registering pool metrics under {@value #POOL_NAME}.
+   * @param configuration Data store configuration
+   * @param metricRegistry Registry for the pool metrics, may be null
+   */
+  public JdbcConnectionManager(DataStoreConfiguration configuration,
+      MetricRegistry metricRegistry) {
     this.configuration = configuration;
+    this.dataSource = configuration.getConnectionPool() == null
+        ? null : createDataSource(configuration, metricRegistry);
     startCleanUps();
   }
 
+  private static HikariDataSource createDataSource(DataStoreConfiguration configuration,
+      MetricRegistry metricRegistry) {
+    ConnectionPoolConfiguration pool = configuration.getConnectionPool();
+    HikariConfig config = new HikariConfig();
+    config.setPoolName(POOL_NAME);
+    config.setDriverClassName(configuration.getDriver());
+    config.setJdbcUrl(configuration.getJdbcUrl());
+    config.setUsername(configuration.getUser());
+    config.setPassword(configuration.getPassword());
+    config.setMaximumPoolSize(pool.getMaxPoolSize());
+    config.setMinimumIdle(pool.getMinIdle());
+    config.setConnectionTimeout(pool.getConnectionTimeout());
+    config.setValidationTimeout(pool.getValidationTimeout());
+    config.setConnectionTestQuery(pool.getValidationQuery());
+    config.setLeakDetectionThreshold(pool.getLeakDetectionThreshold());
+    config.setIdleTimeout(pool.getIdleTimeout());
+    config.setMaxLifetime(pool.getMaxLifetime());
+    // Don't fail start up if the database is briefly unavailable
+    config.setInitializationFailTimeout(-1);
+    if (metricRegistry != null) {
+      // Registers wait time, usage, active, idle, pending and total connection metrics
+      config.setMetricRegistry(metricRegistry);
+    }
+    log.info("Using a pool of up to {} connections for {}", pool.getMaxPoolSize(),
+        configuration.getJdbcUrl());
+    return new HikariDataSource(config);
+  }
+
   public void open() {
-    Base.open(
-        configuration.getDriver(),
-        configuration.getJdbcUrl(),
-        configuration.getUser(),
-        configuration.getPassword());
+    if (dataSource != null) {
+      Base.open(dataSource);
+    } else {
+      Base.open(
+          configuration.getDriver(),
+          configuration.getJdbcUrl(),
+          configuration.getUser(),
+          configuration.getPassword());
+    }
     log.debug("Connection opened");
   }
 
   public void close() {
+    // Returns the connection to the pool when pooling is enabled
     Base.close();
     log.debug("Connection closed");
   }
 
+  public boolean isPooled() {
+    return dataSource != null;
+  }
+
+  @Override
+  public void start() {
+  }
+
+  @Override
+  public void stop() {
+    executorService.shutdownNow();
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
   private void startCleanUps() {
     executorService.scheduleWithFixedDelay(
         () -> {
@@ -18,6 +18,7 @@ public class GatewayBackend extends Model {
   private static final String routingGroup = "routing_group";
   private static final String backendUrl = "backend_url";
   private static final String active = "active";
+  private static final String capacityWeight = "capacity_weight";
 
   public static List<ProxyBackendConfiguration> upcast(List<GatewayBackend> gatewayBackendList) {
     List<ProxyBackendConfiguration> proxyBackendConfigurations = new ArrayList<>();
@@ -27,6 +28,9 @@ public class GatewayBackend extends Model {
       backendConfig.setRoutingGroup(model.getString(routingGroup));
       backendConfig.setProxyTo(model.getString(backendUrl));
       backendConfig.setName(model.getString(name));
+      if (hasCapacityWeight()) {
+        backendConfig.setCapacityWeight(model.getDouble(capacityWeight));
+      }
       proxyBackendConfigurations.add(backendConfig);
     }
     return proxyBackendConfigurations;
@@ -37,12 +41,13 @@ public class GatewayBackend extends Model {
         .set(name, backend.getName())
         .set(routingGroup, backend.getRoutingGroup())
         .set(backendUrl, backend.getProxyTo())
-        .set(active, backend.isActive())
-        .saveIt();
+        .set(active, backend.isActive());
+    setCapacityWeight(model, backend);
+    model.saveIt();
   }
 
   public static void create(GatewayBackend model, ProxyBackendConfiguration backend) {
-    model
+    GatewayBackend created = model
         .create(
             name,
             backend.getName(),
@@ -51,7 +56,24 @@ public class GatewayBackend extends Model {
             backendUrl,
             backend.getProxyTo(),
             active,
-            backend.isActive())
-        .insert();
+            backend.isActive());
+    setCapacityWeight(created, backend);
+    created.insert();
+  }
+
+  private static void setCapacityWeight(GatewayBackend model, ProxyBackendConfiguration backend) {
+    if (hasCapacityWeight()) {
+      model.set(capacityWeight, backend.getCapacityWeight());
+    } else if (backend.getCapacityWeight() != null) {
+      log.warn("Table gateway_backend has no {} column, ignoring the capacity weight of {}",
+          capacityWeight, backend.getName());
+    }
+  }
+
+  /**
+   * Checks if the schema has the capacity weight column, older installations may not.
+   */
+  private static boolean hasCapacityWeight() {
+    return attributeNames().contains(capacityWeight);
   }
 }
@@ -2,10 +2,16 @@ package com.lyft.data.gateway.ha.persistence.dao;
 
 import static com.lyft.data.gateway.ha.router.QueryHistoryManager.QueryDetail;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
+import org.javalite.activejdbc.Base;
 import org.javalite.activejdbc.Model;
+import org.javalite.activejdbc.RowListenerAdapter;
 import org.javalite.activejdbc.annotations.Cached;
 import org.javalite.activejdbc.annotations.IdName;
 import org.javalite.activejdbc.annotations.Table;
@@ -20,6 +26,11 @@ public class QueryHistory extends Model {
   private static final String userName = "user_name";
   private static final String source = "source";
   private static final String created = "created";
+  private static final String insertQuery = "INSERT INTO query_history (" + queryId + ", "
+      + queryText + ", " + backendUrl + ", " + userName + ", " + source + ", " + created
+      + ") VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String backendsSinceQuery = "SELECT " + queryId + ", " + backendUrl
+      + " FROM query_history WHERE " + created + " >= ?";
 
   public static List<QueryDetail> upcast(List<QueryHistory> queryHistoryList) {
     List<QueryDetail> queryDetails = new ArrayList<>();
@@ -45,4 +56,48 @@ public class QueryHistory extends Model {
     model.set(created, queryDetail.getCaptureTime());
     model.insert();
   }
+
+  /**
+   * Inserts query details with a single JDBC batch.
+   * @param queryDetails Query details to insert
+   */
+  public static void createBatch(List<QueryDetail> queryDetails) throws SQLException {
+    try (PreparedStatement statement = Base.startBatch(insertQuery)) {
+      for (QueryDetail queryDetail : queryDetails) {
+        Base.addBatch(statement,
+            queryDetail.getQueryId(),
+            queryDetail.getQueryText(),
+            queryDetail.getBackendUrl(),
+            queryDetail.getUser(),
+            queryDetail.getSource(),
+            queryDetail.getCaptureTime());
+      }
+      Base.executeBatch(statement);
+    }
+    // Rows were inserted behind the model's back
+    purgeCache();
+  }
+
+  /**
+   * Streams the query id and backend of the queries created since the given time, row by row
+   * rather than as models.
+   * @param createdSinceMillis Earliest creation time of the queries
+   * @param consumer Called with the query id and the backend of each query
+   * @return Number of rows read
+   */
+  public static int forEachBackendSince(long createdSinceMillis,
+      BiConsumer<String, String> consumer) {
+    int[] rows = new int[1];
+    Base.find(backendsSinceQuery, createdSinceMillis).with(new RowListenerAdapter() {
+      @Override
+      public void onNext(Map<String, Object> row) {
+        Object backend = row.get(backendUrl);
+        if (backend != null) {
+          consumer.accept(row.get(queryId).toString(), backend.toString());
+          rows[0]++;
+        }
+      }
+    });
+    return rows[0];
+  }
 }
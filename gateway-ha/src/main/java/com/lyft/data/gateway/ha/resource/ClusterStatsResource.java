@@ -0,0 +1,55 @@
+package com.lyft.data.gateway.ha.resource;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.lyft.data.gateway.ha.clustermonitor.ActiveClusterMonitor;
+import com.lyft.data.gateway.ha.clustermonitor.ClusterStats;
+
+import java.io.IOException;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Endpoint for backends, or sidecars next to them, to push their cluster stats instead of
+ * waiting to be polled. The payload has the shape of {@link ClusterStats}, where
+ * {@code clusterId} is the backend name.
+ */
+@Slf4j
+@Path("gateway/stats")
+@Produces(MediaType.APPLICATION_JSON)
+public class ClusterStatsResource {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  @Inject private ActiveClusterMonitor activeClusterMonitor;
+
+  /**
+   * Endpoint to push the stats of a backend.
+   * @param jsonPayload Cluster stats
+   * @return 404 if the backend is not monitored, 400 if the payload can't be read
+   */
+  @Path("/push")
+  @POST
+  public Response pushClusterStats(String jsonPayload) {
+    ClusterStats clusterStats;
+    try {
+      clusterStats = OBJECT_MAPPER.readValue(jsonPayload, ClusterStats.class);
+    } catch (IOException e) {
+      log.warn("Invalid cluster stats pushed: {}", e.getMessage());
+      return Response.status(Response.Status.BAD_REQUEST).build();
+    }
+
+    if (clusterStats.getClusterId() == null
+        || !activeClusterMonitor.ingestClusterStats(clusterStats)) {
+      return GatewayResource.throw404Error();
+    }
+    return Response.ok().build();
+  }
+}
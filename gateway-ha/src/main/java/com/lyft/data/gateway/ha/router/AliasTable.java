@@ -0,0 +1,113 @@
+package com.lyft.data.gateway.ha.router;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted random selection over a fixed set of backends in constant time, built with Vose's
+ * alias method. Each column of the table holds a backend, an alias and the probability of
+ * keeping the column's own backend, so a draw is one uniform column pick plus one biased coin
+ * flip. The table lives in primitive arrays, is immutable once built and samples with a thread
+ * local random, so it can be shared by request threads without contention or allocation.
+ */
+final class AliasTable {
+  private final String[] backends;
+  private final int[] weights;
+  private final double[] probability;
+  private final int[] alias;
+
+  /**
+   * Builds the table.
+   *
+   * @param backends Backends to choose from
+   * @param weights Non negative weight of each backend, in the same order
+   */
+  AliasTable(String[] backends, int[] weights) {
+    if (backends.length == 0 || backends.length != weights.length) {
+      throw new IllegalArgumentException("Backends and weights must be non empty and aligned");
+    }
+    int size = backends.length;
+    this.backends = backends.clone();
+    this.weights = weights.clone();
+    this.probability = new double[size];
+    this.alias = new int[size];
+
+    long weightSum = 0;
+    for (int weight : weights) {
+      if (weight < 0) {
+        throw new IllegalArgumentException("Weights must not be negative");
+      }
+      weightSum += weight;
+    }
+
+    double[] scaled = new double[size];
+    int[] small = new int[size];
+    int[] large = new int[size];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < size; i++) {
+      // With no weight at all every backend is equally likely
+      scaled[i] = weightSum == 0 ? 1.0 : weights[i] * (double) size / weightSum;
+      if (scaled[i] < 1.0) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+      if (scaled[more] < 1.0) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // Whatever is left is within rounding error of 1
+    while (largeCount > 0) {
+      int more = large[--largeCount];
+      probability[more] = 1.0;
+      alias[more] = more;
+    }
+    while (smallCount > 0) {
+      int less = small[--smallCount];
+      probability[less] = 1.0;
+      alias[less] = less;
+    }
+  }
+
+  /**
+   * Picks a backend with probability proportional to its weight.
+   */
+  String sample() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int column = random.nextInt(backends.length);
+    return random.nextDouble() < probability[column] ? backends[column] : backends[alias[column]];
+  }
+
+  int size() {
+    return backends.length;
+  }
+
+  /**
+   * Returns the weight of each backend the table was built from.
+   */
+  Map<String, Integer> getWeights() {
+    Map<String, Integer> weightByBackend = new LinkedHashMap<>();
+    for (int i = 0; i < backends.length; i++) {
+      weightByBackend.put(backends[i], weights[i]);
+    }
+    return Collections.unmodifiableMap(weightByBackend);
+  }
+
+  @Override
+  public String toString() {
+    return getWeights().toString();
+  }
+}
@@ -0,0 +1,96 @@
+package com.lyft.data.gateway.ha.router;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an exponentially weighted moving average of the connect latency and time to first byte
+ * of each backend. The weight of a sample decays with time rather than with the number of
+ * samples, so a backend that is routed to less adapts as fast as a busy one. Averages without
+ * a sample for several decay times are considered unknown.
+ */
+public class BackendLatencyTracker {
+  // Number of decay times after which an average is too old to be used
+  private static final int MAX_AGE_DECAYS = 10;
+
+  private final long decayNanos;
+  private final Map<String, Ewma> connectLatencies = new ConcurrentHashMap<>();
+  private final Map<String, Ewma> timesToFirstByte = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a tracker.
+   * @param decayMillis Time after which the weight of a sample has decayed to 1/e
+   */
+  public BackendLatencyTracker(long decayMillis) {
+    this.decayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, decayMillis));
+  }
+
+  /**
+   * Records the latencies of a request to a backend.
+   * @param backend Address of the backend
+   * @param connectNanos Time to get a connection to the backend, negative if unknown
+   * @param timeToFirstByteNanos Time from sending the request to the start of the response,
+   *     negative if unknown
+   * @param nowNanos Current {@link System#nanoTime()}
+   */
+  public void record(String backend, long connectNanos, long timeToFirstByteNanos,
+      long nowNanos) {
+    if (connectNanos >= 0) {
+      connectLatencies.computeIfAbsent(backend, b -> new Ewma()).update(connectNanos, nowNanos);
+    }
+    if (timeToFirstByteNanos >= 0) {
+      timesToFirstByte.computeIfAbsent(backend, b -> new Ewma())
+          .update(timeToFirstByteNanos, nowNanos);
+    }
+  }
+
+  /**
+   * Returns the average connect latency plus time to first byte of a backend.
+   * @param backend Address of the backend
+   * @param nowNanos Current {@link System#nanoTime()}
+   * @return Latency in milliseconds, negative if unknown
+   */
+  public double getLatencyMillis(String backend, long nowNanos) {
+    double timeToFirstByte = average(timesToFirstByte.get(backend), nowNanos);
+    if (timeToFirstByte < 0) {
+      return -1;
+    }
+    double connect = Math.max(0, average(connectLatencies.get(backend), nowNanos));
+    return (connect + timeToFirstByte) / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Forgets the latencies of backends that are no longer registered.
+   */
+  public void retainAll(Collection<String> backends) {
+    connectLatencies.keySet().retainAll(backends);
+    timesToFirstByte.keySet().retainAll(backends);
+  }
+
+  private double average(Ewma ewma, long nowNanos) {
+    return ewma == null ? -1 : ewma.get(nowNanos);
+  }
+
+  private final class Ewma {
+    private double value;
+    private long lastUpdateNanos;
+    private boolean initialized;
+
+    synchronized void update(long sample, long nowNanos) {
+      if (!initialized) {
+        value = sample;
+        initialized = true;
+      } else {
+        double weight = Math.exp(-Math.max(0, nowNanos - lastUpdateNanos) / (double) decayNanos);
+        value = weight * value + (1 - weight) * sample;
+      }
+      lastUpdateNanos = nowNanos;
+    }
+
+    synchronized double get(long nowNanos) {
+      return nowNanos - lastUpdateNanos > MAX_AGE_DECAYS * decayNanos ? -1 : value;
+    }
+  }
+}
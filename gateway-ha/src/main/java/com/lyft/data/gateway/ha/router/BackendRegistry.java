@@ -0,0 +1,133 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, versioned view of the backends and routing groups stored in the database. A new
+ * instance is built whenever the database content changes and is published as a whole, so the
+ * request path can route with plain map lookups and never sees a partially updated view.
+ */
+public final class BackendRegistry {
+  public static final BackendRegistry EMPTY =
+      new BackendRegistry(0, Collections.emptyList(), Collections.emptyList());
+
+  private final long version;
+  private final List<ProxyBackendConfiguration> backends;
+  private final List<RoutingGroupConfiguration> routingGroups;
+  private final Map<String, ProxyBackendConfiguration> backendsByName;
+  private final Set<String> proxyTos;
+  private final Map<String, List<ProxyBackendConfiguration>> activeBackendsByGroup;
+  private final Map<String, Boolean> routingGroupActive;
+
+  private BackendRegistry(long version, List<ProxyBackendConfiguration> backends,
+      List<RoutingGroupConfiguration> routingGroups) {
+    this.version = version;
+    this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+    this.routingGroups = Collections.unmodifiableList(new ArrayList<>(routingGroups));
+
+    Map<String, ProxyBackendConfiguration> byName = new HashMap<>();
+    Set<String> addresses = new HashSet<>();
+    Map<String, List<ProxyBackendConfiguration>> activeByGroup = new HashMap<>();
+    for (ProxyBackendConfiguration backend : backends) {
+      byName.put(backend.getName(), backend);
+      addresses.add(backend.getProxyTo());
+      if (backend.isActive()) {
+        activeByGroup.computeIfAbsent(backend.getRoutingGroup(), group -> new ArrayList<>())
+            .add(backend);
+      }
+    }
+    activeByGroup.replaceAll((group, groupBackends) -> Collections.unmodifiableList(groupBackends));
+    this.backendsByName = Collections.unmodifiableMap(byName);
+    this.proxyTos = Collections.unmodifiableSet(addresses);
+    this.activeBackendsByGroup = Collections.unmodifiableMap(activeByGroup);
+
+    Map<String, Boolean> groupActive = new HashMap<>();
+    for (RoutingGroupConfiguration group : routingGroups) {
+      groupActive.put(group.getName(), group.isActive());
+    }
+    this.routingGroupActive = Collections.unmodifiableMap(groupActive);
+  }
+
+  /**
+   * Returns a registry holding the given backends and routing groups, or this registry if they
+   * are unchanged.
+   * @param backends All backends
+   * @param routingGroups All routing groups
+   * @return Registry for the given state
+   */
+  public BackendRegistry update(List<ProxyBackendConfiguration> backends,
+      List<RoutingGroupConfiguration> routingGroups) {
+    if (this.backends.equals(backends) && this.routingGroups.equals(routingGroups)) {
+      return this;
+    }
+    return new BackendRegistry(version + 1, backends, routingGroups);
+  }
+
+  /**
+   * Version of the registry, incremented each time the database content changes. Zero until
+   * the registry has been loaded.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public List<ProxyBackendConfiguration> getAllBackends() {
+    return backends;
+  }
+
+  public List<RoutingGroupConfiguration> getRoutingGroups() {
+    return routingGroups;
+  }
+
+  /**
+   * Returns the active backends of a routing group, regardless of whether the group is paused.
+   * @param routingGroup Name of routing group
+   * @return Active backends, empty if there are none
+   */
+  public List<ProxyBackendConfiguration> getActiveBackends(String routingGroup) {
+    return activeBackendsByGroup.getOrDefault(routingGroup, Collections.emptyList());
+  }
+
+  /**
+   * Returns the proxy address of a backend.
+   * @param backendName Name of backend
+   * @return Proxy address, null if the backend is unknown
+   */
+  public String getProxyTo(String backendName) {
+    ProxyBackendConfiguration backend = backendsByName.get(backendName);
+    return backend == null ? null : backend.getProxyTo();
+  }
+
+  /**
+   * Checks if a backend, active or not, has the given proxy address.
+   * @param proxyTo Proxy address
+   * @return If a backend has the address
+   */
+  public boolean hasBackendAt(String proxyTo) {
+    return proxyTos.contains(proxyTo);
+  }
+
+  /**
+   * Checks if a routing group exists and is not paused.
+   * @param routingGroup Name of routing group
+   * @return If the routing group is active
+   */
+  public boolean isRoutingGroupActive(String routingGroup) {
+    return routingGroupActive.getOrDefault(routingGroup, false);
+  }
+
+  @Override
+  public String toString() {
+    return "BackendRegistry{version=" + version + ", backends=" + backendsByName.keySet()
+        + ", routingGroups=" + routingGroupActive + "}";
+  }
+}
@@ -0,0 +1,21 @@
+package com.lyft.data.gateway.ha.router;
+
+import lombok.Value;
+
+/**
+ * Load score of a backend as computed by a
+ * {@link com.lyft.data.gateway.ha.clustermonitor.LoadScoreFunction}, together with what a
+ * single routed query adds to it.
+ */
+@Value
+public class ClusterLoad {
+  double score;
+  double scorePerQuery;
+
+  /**
+   * The load once the given number of queries have been routed to the backend.
+   */
+  public ClusterLoad withRoutedQueries(int queries) {
+    return new ClusterLoad(score + queries * scorePerQuery, scorePerQuery);
+  }
+}
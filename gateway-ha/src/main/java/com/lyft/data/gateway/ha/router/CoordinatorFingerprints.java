@@ -0,0 +1,80 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Learns which backend runs which coordinator from the query ids seen by the gateway. Presto and
+ * Trino query ids end with a suffix that is fixed for the lifetime of a coordinator, e.g.
+ * {@code abcde} in {@code 20261017_101010_00042_abcde}, so once a single query of a coordinator
+ * has been seen the backend of any other query of it is known without I/O.
+ *
+ * <p>A restarted coordinator picks a new suffix, the old one ages out.
+ */
+@Slf4j
+public class CoordinatorFingerprints {
+  private static final Pattern QUERY_ID_PATTERN =
+      Pattern.compile("\\d{8}_\\d{6}_\\d{5}_([a-z0-9]+)");
+  private static final int MAX_COORDINATORS = 1000;
+
+  private final Cache<String, String> backendsBySuffix =
+      CacheBuilder.newBuilder().maximumSize(MAX_COORDINATORS).build();
+
+  /**
+   * Returns the coordinator suffix of a query id.
+   * @param queryId Query id
+   * @return Suffix, null if the query id has an unknown format
+   */
+  static String getCoordinatorSuffix(String queryId) {
+    if (queryId == null) {
+      return null;
+    }
+    Matcher matcher = QUERY_ID_PATTERN.matcher(queryId);
+    return matcher.matches() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Records the backend of a query, and thereby of its coordinator.
+   * @param queryId Query id
+   * @param backend Address of the backend known to run the query
+   */
+  public void learn(String queryId, String backend) {
+    String suffix = getCoordinatorSuffix(queryId);
+    if (suffix == null || backend == null) {
+      return;
+    }
+    String previous = backendsBySuffix.asMap().put(suffix, backend);
+    if (previous == null) {
+      log.debug("Coordinator [{}] runs on backend [{}]", suffix, backend);
+    } else if (!previous.equals(backend)) {
+      log.warn("Coordinator [{}] moved from backend [{}] to [{}]", suffix, previous, backend);
+    }
+  }
+
+  /**
+   * Returns the backend whose coordinator issued a query id.
+   * @param queryId Query id
+   * @return Address of the backend, null if the coordinator has not been seen yet
+   */
+  public String getBackend(String queryId) {
+    String suffix = getCoordinatorSuffix(queryId);
+    return suffix == null ? null : backendsBySuffix.getIfPresent(suffix);
+  }
+
+  /**
+   * Forgets the coordinators of backends that are no longer registered.
+   * @param backends Addresses of the registered backends
+   */
+  public void retainBackends(Set<String> backends) {
+    backendsBySuffix.asMap().values().retainAll(backends);
+  }
+
+  public long size() {
+    return backendsBySuffix.size();
+  }
+}
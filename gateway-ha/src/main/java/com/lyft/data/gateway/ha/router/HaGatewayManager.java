@@ -6,17 +6,33 @@ import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
 import com.lyft.data.gateway.ha.persistence.dao.GatewayBackend;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class HaGatewayManager implements GatewayBackendManager {
   private JdbcConnectionManager connectionManager;
+  private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
 
   public HaGatewayManager(JdbcConnectionManager connectionManager) {
     this.connectionManager = connectionManager;
   }
 
+  /**
+   * Registers a callback that is run after every change this manager writes to the database.
+   * @param listener Callback to run
+   */
+  public void addChangeListener(Runnable listener) {
+    changeListeners.add(listener);
+  }
+
+  private void notifyChangeListeners() {
+    for (Runnable listener : changeListeners) {
+      listener.run();
+    }
+  }
+
   @Override
   public List<ProxyBackendConfiguration> getAllBackends() {
     try {
@@ -74,6 +90,7 @@ public class HaGatewayManager implements GatewayBackendManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
     return backend;
   }
 
@@ -90,6 +107,7 @@ public class HaGatewayManager implements GatewayBackendManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
     
     return backend;
   }
@@ -102,6 +120,7 @@ public class HaGatewayManager implements GatewayBackendManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   @Override
@@ -112,6 +131,7 @@ public class HaGatewayManager implements GatewayBackendManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   @Override
@@ -122,5 +142,6 @@ public class HaGatewayManager implements GatewayBackendManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 }
@@ -3,8 +3,12 @@ package com.lyft.data.gateway.ha.router;
 import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
 import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
 import com.lyft.data.gateway.ha.persistence.dao.QueryHistory;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.function.BiConsumer;
 import lombok.extern.slf4j.Slf4j;
+import org.javalite.activejdbc.Base;
 
 @Slf4j
 public class HaQueryHistoryManager implements QueryHistoryManager {
@@ -28,6 +32,52 @@ public class HaQueryHistoryManager implements QueryHistoryManager {
     }
   }
 
+  /**
+   * Persists several query details with a single batch insert. If the batch fails, for example
+   * because one query id is already stored, the rows are inserted one at a time so a single bad
+   * row does not lose the rest of the batch.
+   * @param queryDetails Query details to persist
+   */
+  public void submitQueryDetails(List<QueryDetail> queryDetails) {
+    try {
+      connectionManager.open();
+      if (insertBatch(queryDetails)) {
+        return;
+      }
+      for (QueryDetail queryDetail : queryDetails) {
+        try {
+          QueryHistory.create(new QueryHistory(), queryDetail);
+        } catch (Exception e) {
+          log.warn("Unable to persist query history for [{}]: {}", queryDetail.getQueryId(),
+              e.getLocalizedMessage());
+        }
+      }
+    } finally {
+      connectionManager.close();
+    }
+  }
+
+  private boolean insertBatch(List<QueryDetail> queryDetails) {
+    Connection connection = Base.connection();
+    try {
+      connection.setAutoCommit(false);
+      try {
+        QueryHistory.createBatch(queryDetails);
+        connection.commit();
+        return true;
+      } catch (Exception e) {
+        log.debug("Batch insert of {} query history rows failed", queryDetails.size(), e);
+        connection.rollback();
+        return false;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      log.warn("Error managing query history batch transaction", e);
+      return false;
+    }
+  }
+
   @Override
   public List<QueryDetail> fetchQueryHistory() {
     int limit = this.configuration.getRequestRouter().getHistorySize();
@@ -53,4 +103,15 @@ public class HaQueryHistoryManager implements QueryHistoryManager {
     }
     return backend;
   }
+
+  @Override
+  public int forEachQueryBackendSince(long createdSinceMillis,
+      BiConsumer<String, String> consumer) {
+    try {
+      connectionManager.open();
+      return QueryHistory.forEachBackendSince(createdSinceMillis, consumer);
+    } finally {
+      connectionManager.close();
+    }
+  }
 }
@@ -0,0 +1,80 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the queries each backend is running on behalf of this gateway. A query counts from its
+ * submission until its last result page, cancellation or until no page of it has been fetched
+ * for the TTL, e.g. because the client went away.
+ */
+public class InFlightQueryTracker {
+  private final Cache<String, String> inFlightQueries;
+  private final Map<String, AtomicInteger> inFlightCounts = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a tracker.
+   * @param ttlMillis Time after the last fetched page a query stops being counted
+   */
+  public InFlightQueryTracker(long ttlMillis) {
+    this.inFlightQueries = CacheBuilder.newBuilder()
+        .expireAfterAccess(ttlMillis, TimeUnit.MILLISECONDS)
+        .<String, String>removalListener(notification -> {
+          if (notification.getCause() != RemovalCause.REPLACED) {
+            counter(notification.getValue()).decrementAndGet();
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Starts counting a query, unless it is already counted.
+   * @param queryId Query id
+   * @param backend Address of the backend running the query
+   */
+  public void queryStarted(String queryId, String backend) {
+    if (inFlightQueries.asMap().putIfAbsent(queryId, backend) == null) {
+      counter(backend).incrementAndGet();
+    }
+  }
+
+  /**
+   * Keeps a query counted, or stops counting it once it finished.
+   * @param queryId Query id
+   * @param finished If the query finished
+   */
+  public void queryProgressed(String queryId, boolean finished) {
+    if (finished) {
+      inFlightQueries.invalidate(queryId);
+    } else {
+      inFlightQueries.getIfPresent(queryId);
+    }
+  }
+
+  /**
+   * Returns the number of queries in flight on a backend.
+   * @param backend Backend address
+   * @return Queries in flight
+   */
+  public int getInFlightCount(String backend) {
+    AtomicInteger count = inFlightCounts.get(backend);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Drops expired queries from the counts.
+   */
+  public void cleanUp() {
+    inFlightQueries.cleanUp();
+  }
+
+  private AtomicInteger counter(String backend) {
+    return inFlightCounts.computeIfAbsent(backend, b -> new AtomicInteger());
+  }
+}
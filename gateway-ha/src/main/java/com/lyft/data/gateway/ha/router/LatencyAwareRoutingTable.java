@@ -0,0 +1,92 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link PrestoQueueLengthRoutingTable} that also penalizes backends whose coordinators are
+ * slow to respond, e.g. because of GC pressure or a congested network path, which queue lengths
+ * don't show. The latency of a backend is the moving average of its connect latency plus the
+ * time to first byte of query submissions, as measured by the proxy.
+ *
+ * <p>A backend within the tolerance of the fastest backend of its routing group keeps its
+ * weight, a slower one has its weight scaled down by how much slower it is. Backends without a
+ * recent measurement keep their weight, so they get traffic and thereby a measurement.
+ */
+@Slf4j
+public class LatencyAwareRoutingTable extends PrestoQueueLengthRoutingTable {
+  private final BackendLatencyTracker latencyTracker;
+  private final double toleranceMillis;
+
+  /**
+   * Creates the routing manager.
+   * @param latencyDecayMillis Time after which the weight of a latency sample has decayed to 1/e
+   * @param latencyToleranceMillis Latency over the fastest backend that is not penalized
+   */
+  public LatencyAwareRoutingTable(GatewayBackendManager gatewayBackendManager,
+      QueryHistoryManager queryHistoryManager, RoutingGroupsManager routingGroupsManager,
+      MetricRegistry metricRegistry, long latencyDecayMillis, long latencyToleranceMillis) {
+    super(gatewayBackendManager, queryHistoryManager, routingGroupsManager, metricRegistry);
+    this.latencyTracker = new BackendLatencyTracker(latencyDecayMillis);
+    this.toleranceMillis = latencyToleranceMillis;
+  }
+
+  @Override
+  public boolean isBackendLatencyTracked() {
+    return true;
+  }
+
+  @Override
+  public void backendResponded(String backend, long connectNanos, long timeToFirstByteNanos) {
+    latencyTracker.record(backend, connectNanos, timeToFirstByteNanos, System.nanoTime());
+  }
+
+  /**
+   * Returns the average latency of a backend.
+   * @param backend Address of the backend
+   * @return Latency in milliseconds, negative if unknown
+   */
+  public double getLatencyMillis(String backend) {
+    return latencyTracker.getLatencyMillis(backend, System.nanoTime());
+  }
+
+  @Override
+  public void updateBackendRegistry(List<ProxyBackendConfiguration> backends,
+      List<RoutingGroupConfiguration> groups) {
+    super.updateBackendRegistry(backends, groups);
+    latencyTracker.retainAll(backends.stream()
+        .map(ProxyBackendConfiguration::getProxyTo)
+        .collect(Collectors.toSet()));
+  }
+
+  @Override
+  protected int[] adjustWeights(String[] clusterNames, int[] weights) {
+    BackendRegistry registry = getBackendRegistry();
+    long now = System.nanoTime();
+    double[] latencies = new double[clusterNames.length];
+    double fastest = Double.MAX_VALUE;
+    for (int i = 0; i < clusterNames.length; i++) {
+      String proxyTo = registry.getProxyTo(clusterNames[i]);
+      latencies[i] = proxyTo == null ? -1 : latencyTracker.getLatencyMillis(proxyTo, now);
+      if (latencies[i] >= 0) {
+        fastest = Math.min(fastest, latencies[i]);
+      }
+    }
+
+    int[] adjusted = weights.clone();
+    for (int i = 0; i < clusterNames.length; i++) {
+      if (latencies[i] > fastest + toleranceMillis) {
+        double penalty = (fastest + toleranceMillis) / latencies[i];
+        adjusted[i] = Math.max(MIN_WT, (int) Math.ceil(weights[i] * penalty));
+        log.debug("Penalizing [{}] with latency {} ms, weight {} -> {}", clusterNames[i],
+            latencies[i], weights[i], adjusted[i]);
+      }
+    }
+    return adjusted;
+  }
+}
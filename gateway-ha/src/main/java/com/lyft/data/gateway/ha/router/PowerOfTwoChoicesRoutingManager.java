@@ -0,0 +1,105 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A Routing Manager that picks the less loaded of two random active backends of a routing
+ * group. Load is the number of queries in flight on a backend as seen by this gateway, so it
+ * reacts to each submission right away instead of waiting for the next stats from
+ * {@link com.lyft.data.gateway.ha.clustermonitor.ActiveClusterMonitor}, and a burst of
+ * submissions does not pile up on a single backend.
+ */
+@Slf4j
+public class PowerOfTwoChoicesRoutingManager extends HaRoutingManager {
+  private final InFlightQueryTracker inFlightQueryTracker;
+
+  /**
+   * Creates the routing manager.
+   * @param inFlightQueryTtlMillis Time after the last fetched page a query stops being counted
+   */
+  public PowerOfTwoChoicesRoutingManager(GatewayBackendManager gatewayBackendManager,
+      QueryHistoryManager queryHistoryManager, RoutingGroupsManager routingGroupsManager,
+      long inFlightQueryTtlMillis) {
+    super(gatewayBackendManager, queryHistoryManager, routingGroupsManager);
+    this.inFlightQueryTracker = new InFlightQueryTracker(inFlightQueryTtlMillis);
+  }
+
+  @Override
+  public void setBackendForQueryId(String queryId, String backend) {
+    super.setBackendForQueryId(queryId, backend);
+    inFlightQueryTracker.queryStarted(queryId, backend);
+  }
+
+  @Override
+  public boolean isQueryProgressTracked() {
+    return true;
+  }
+
+  @Override
+  public void queryProgressed(String queryId, boolean finished) {
+    inFlightQueryTracker.queryProgressed(queryId, finished);
+  }
+
+  public int getInFlightCount(String backend) {
+    return inFlightQueryTracker.getInFlightCount(backend);
+  }
+
+  /**
+   * Performs routing to an adhoc backend and checks if it is not paused.
+   */
+  @Override
+  public String provideAdhocBackend() {
+    BackendRegistry registry = getBackendRegistry();
+    List<ProxyBackendConfiguration> backends = registry.getActiveBackends(ADHOC);
+
+    if (backends.isEmpty()) {
+      throw new IllegalStateException("No adhoc backends are currently available");
+    }
+
+    if (!registry.isRoutingGroupActive(ADHOC)) {
+      throw new IllegalStateException(
+          "All available backends are currently undergoing maintainence");
+    }
+
+    return pickLessLoaded(backends);
+  }
+
+  /**
+   * Performs routing to a given cluster group. This falls back to an adhoc backend, if no
+   * backend is found or if the routing group is paused.
+   */
+  @Override
+  public String provideBackendForRoutingGroup(String routingGroup) {
+    BackendRegistry registry = getBackendRegistry();
+    List<ProxyBackendConfiguration> backends = registry.getActiveBackends(routingGroup);
+
+    if (backends.isEmpty() || !registry.isRoutingGroupActive(routingGroup)) {
+      log.warn("Routing group {} is currently paused or has no active backends, "
+          + "routing to adhoc", routingGroup);
+      return provideAdhocBackend();
+    }
+
+    return pickLessLoaded(backends);
+  }
+
+  private String pickLessLoaded(List<ProxyBackendConfiguration> backends) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(backends.size());
+    if (backends.size() == 1) {
+      return backends.get(first).getProxyTo();
+    }
+    // Drawn from the remaining backends, so the two candidates always differ
+    int second = random.nextInt(backends.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    String firstBackend = backends.get(first).getProxyTo();
+    String secondBackend = backends.get(second).getProxyTo();
+    return getInFlightCount(secondBackend) < getInFlightCount(firstBackend)
+        ? secondBackend : firstBackend;
+  }
+}
@@ -1,16 +1,20 @@
 package com.lyft.data.gateway.ha.router;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,15 +26,33 @@ import lombok.extern.slf4j.Slf4j;
  * routing manager should get notified & updated.
  * Currently updates are made only on heart beats from
  * {@link com.lyft.data.gateway.ha.clustermonitor.ActiveClusterMonitor} & during routing requests.
+ *
+ * <p>The routing state is published as an immutable {@link RoutingTableSnapshot}. Updates build
+ * the next generation off to the side and swap it in, so request threads never block and never
+ * see a partially built table. Weights are compiled into an {@link AliasTable} per routing group,
+ * so picking a backend takes constant time.
+ *
+ * <p>Between two updates every routed query is optimistically counted against its backend, and
+ * every few routed queries the weights of that routing group are recomputed from the reported
+ * queue lengths plus those counts, so a burst of queries does not all land on the backend that
+ * was least loaded at the last update. The counters belong to the snapshot, so the next update
+ * resets them, and the difference between the estimates and the reported queue lengths is
+ * recorded in the {@value #PREDICTION_ERROR_METRIC} histogram.
+ *
+ * <p>When the updates carry {@link ClusterLoad load scores}, weights are proportional to the
+ * capacity of a backend and inversely proportional to its load, so backends are compared by
+ * their load per unit of capacity rather than by their raw queue lengths. Without load scores the
+ * weights are derived from the queue lengths alone.
  */
 @Slf4j
 public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
-  private static final Random RANDOM = new Random();
-  private static final int MIN_WT = 1;
+  protected static final int MIN_WT = 1;
   private static final int MAX_WT = 100;
-  private ConcurrentHashMap<String, Integer> routingGroupWeightSum;
-  private ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> clusterQueueLengthMap;
-  private Map<String, TreeMap<Integer, String>> weightedDistributionRouting;
+  // Routed queries of a routing group between two recomputations of its weights
+  private static final int RECOMPUTE_INTERVAL_QUERIES = 8;
+  public static final String PREDICTION_ERROR_METRIC = "routingTable.queueLength.predictionError";
+  private final AtomicReference<RoutingTableSnapshot> routingTable;
+  private final Histogram predictionError;
 
   /**
    * A Routing Manager that distributes queries according to assigned weights based on
@@ -39,10 +61,19 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
   public PrestoQueueLengthRoutingTable(GatewayBackendManager gatewayBackendManager,
                                        QueryHistoryManager queryHistoryManager,
                                        RoutingGroupsManager routingGroupsManager) {
+    this(gatewayBackendManager, queryHistoryManager, routingGroupsManager, new MetricRegistry());
+  }
+
+  /**
+   * Creates the routing manager, registering its metrics with the given registry.
+   */
+  public PrestoQueueLengthRoutingTable(GatewayBackendManager gatewayBackendManager,
+                                       QueryHistoryManager queryHistoryManager,
+                                       RoutingGroupsManager routingGroupsManager,
+                                       MetricRegistry metricRegistry) {
     super(gatewayBackendManager, queryHistoryManager, routingGroupsManager);
-    routingGroupWeightSum = new ConcurrentHashMap<String, Integer>();
-    clusterQueueLengthMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>();
-    weightedDistributionRouting = new HashMap<String, TreeMap<Integer, String>>();
+    routingTable = new AtomicReference<>(RoutingTableSnapshot.EMPTY);
+    predictionError = metricRegistry.histogram(PREDICTION_ERROR_METRIC);
   }
 
   /**
@@ -96,85 +127,188 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
    * Uses the queue length of a cluster to assign weights to all active clusters in a routing group.
    * The weights assigned ensure a fair distribution of routing for queries such that clusters with
    * the least queue length get assigned more queries.
+   *
+   * @param queueLengthMap Queue lengths by routing group and cluster, owned by the new snapshot
+   * @param loadMap Load scores by routing group and cluster, owned by the new snapshot
+   * @param generation Generation of the snapshot to build
+   * @return A new routing table snapshot
    */
-  private void computeWeightsBasedOnQueueLength(ConcurrentHashMap<String,
-      ConcurrentHashMap<String, Integer>> queueLengthMap) {
-    synchronized (lockObject) {
-      int sum = 0;
-      int queueSum = 0;
-      int weight;
-      int numBuckets = 1;
-      int equalDistribution = 0;
-      int smallestQueueLn = 0;
-      int lastButOneQueueLn = 0;
-      int maxQueueLn = 0;
-      int calculatedWtMaxQueue = 0;
-
-      weightedDistributionRouting.clear();
-      routingGroupWeightSum.clear();
-
-      log.debug("Computing Weights for Queue Map :[{}] ", queueLengthMap.toString());
-
-      for (String routingGroup : queueLengthMap.keySet()) {
-        sum = 0;
-        TreeMap<Integer, String> weightsMap = new TreeMap<>();
-
-        if (queueLengthMap.get(routingGroup).size() == 0) {
-          log.warn("No active clusters in routingGroup : [{}]. Continue to "
-              + "process rest of routing table ", routingGroup);
-          continue;
-        } else if (queueLengthMap.get(routingGroup).size() == 1) {
-          log.debug("Routing Group: [{}] has only 1 active backend.", routingGroup);
-          weightedDistributionRouting.put(routingGroup, new TreeMap<Integer, String>() {
-                {
-                  put(MAX_WT, queueLengthMap.get(routingGroup).keys().nextElement());
-                }
-              }
-          );
-          routingGroupWeightSum.put(routingGroup, MAX_WT);
-          continue;
-        }
+  private RoutingTableSnapshot computeWeightsBasedOnQueueLength(
+      Map<String, Map<String, Integer>> queueLengthMap,
+      Map<String, Map<String, ClusterLoad>> loadMap, long generation) {
+    Map<String, GroupRouting> groups = new HashMap<>();
+
+    log.debug("Computing Weights for Queue Map :[{}] ", queueLengthMap.toString());
+
+    for (String routingGroup : queueLengthMap.keySet()) {
+      AliasTable weights = computeGroupWeights(routingGroup, queueLengthMap.get(routingGroup),
+          loadMap.get(routingGroup));
+      groups.put(routingGroup,
+          new GroupRouting(queueLengthMap.get(routingGroup).keySet(), weights));
+      if (weights != null) {
+        log.debug("Routing Table generation [{}] for : [{}] is [{}]", generation, routingGroup,
+            weights);
+      }
+    }
 
-        LinkedHashMap<String, Integer> sortedByQueueLength = queueLengthMap.get(routingGroup)
-            .entrySet()
-            .stream().sorted(Comparator.comparing(Map.Entry::getValue))
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                (e1, e2) -> e1, LinkedHashMap::new));
+    return new RoutingTableSnapshot(generation, queueLengthMap, loadMap, groups);
+  }
 
-        numBuckets = sortedByQueueLength.size();
-        queueSum = sortedByQueueLength.values().stream().mapToInt(Integer::intValue).sum();
+  /**
+   * Computes the weights of a single routing group, from the load scores if every cluster of
+   * the group has one.
+   *
+   * @param loads Load scores of the group, may be null
+   * @return Weights of the group, null if it has no active clusters
+   */
+  private AliasTable computeGroupWeights(String routingGroup, Map<String, Integer> queueLengths,
+      Map<String, ClusterLoad> loads) {
+    if (queueLengths.size() == 0) {
+      log.warn("No active clusters in routingGroup : [{}]. Continue to "
+          + "process rest of routing table ", routingGroup);
+      return null;
+    } else if (queueLengths.size() == 1) {
+      log.debug("Routing Group: [{}] has only 1 active backend.", routingGroup);
+      String backend = queueLengths.keySet().iterator().next();
+      return new AliasTable(new String[] {backend}, new int[] {MAX_WT});
+    } else if (loads != null && loads.keySet().containsAll(queueLengths.keySet())) {
+      return computeGroupWeightsBasedOnLoad(queueLengths.keySet(), loads);
+    }
+    return computeGroupWeightsBasedOnQueueLength(queueLengths);
+  }
 
-        Object[] queueLengths = sortedByQueueLength.values().toArray();
-        Object[] clusterNames = sortedByQueueLength.keySet().toArray();
+  /**
+   * Weights each cluster by its capacity, the inverse of its score per query, divided by its
+   * load. Idle clusters are thereby weighted by capacity, and routing evens out the load per
+   * unit of capacity. The score per query of the smallest cluster smooths the load so idle
+   * clusters don't take all queries. The highest weight is {@link #MAX_WT}.
+   */
+  private AliasTable computeGroupWeightsBasedOnLoad(Set<String> clusters,
+      Map<String, ClusterLoad> loads) {
+    String[] clusterNames = clusters.toArray(new String[0]);
+    double smoothing = 0;
+    for (String cluster : clusterNames) {
+      smoothing = Math.max(smoothing, loads.get(cluster).getScorePerQuery());
+    }
 
-        maxQueueLn = (Integer) queueLengths[queueLengths.length - 1];
-        calculatedWtMaxQueue = getWeightForMaxQueueCluster(sortedByQueueLength);
+    double[] rawWeights = new double[clusterNames.length];
+    double maxRawWeight = 0;
+    for (int i = 0; i < clusterNames.length; i++) {
+      ClusterLoad load = loads.get(clusterNames[i]);
+      rawWeights[i] = 1 / (load.getScorePerQuery() * (load.getScore() + smoothing));
+      maxRawWeight = Math.max(maxRawWeight, rawWeights[i]);
+    }
 
-        for (int i = 0; i < numBuckets - 1; i++) {
-          // If all clusters have same queue length, assign same wt
-          weight = (maxQueueLn == (Integer) queueLengths[i]) ? calculatedWtMaxQueue :
-              (int) Math.ceil(MAX_WT
-                  - (((Integer) queueLengths[i] * MAX_WT) / (double) maxQueueLn));
-          sum += weight;
-          weightsMap.put(sum, (String) clusterNames[i]);
-        }
+    int[] weights = new int[clusterNames.length];
+    for (int i = 0; i < clusterNames.length; i++) {
+      weights[i] = Math.max(MIN_WT, (int) Math.ceil(MAX_WT * rawWeights[i] / maxRawWeight));
+    }
+    return new AliasTable(clusterNames, adjustWeights(clusterNames, weights));
+  }
 
-        sum += calculatedWtMaxQueue;
-        weightsMap.put(sum, (String) clusterNames[numBuckets - 1]);
+  /**
+   * Uses the queue lengths alone, the least queued clusters get the most queries.
+   */
+  private AliasTable computeGroupWeightsBasedOnQueueLength(Map<String, Integer> queueLengths) {
+    LinkedHashMap<String, Integer> sortedByQueueLength = queueLengths
+        .entrySet()
+        .stream().sorted(Comparator.comparing(Map.Entry::getValue))
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
+            (e1, e2) -> e1, LinkedHashMap::new));
+
+    int numBuckets = sortedByQueueLength.size();
+
+    Object[] queueLengthValues = sortedByQueueLength.values().toArray();
+    final String[] clusterNames = sortedByQueueLength.keySet().toArray(new String[0]);
+    int[] weights = new int[numBuckets];
+
+    int maxQueueLn = (Integer) queueLengthValues[queueLengthValues.length - 1];
+    int calculatedWtMaxQueue = getWeightForMaxQueueCluster(sortedByQueueLength);
+
+    for (int i = 0; i < numBuckets - 1; i++) {
+      // If all clusters have same queue length, assign same wt
+      weights[i] = (maxQueueLn == (Integer) queueLengthValues[i]) ? calculatedWtMaxQueue :
+          (int) Math.ceil(MAX_WT
+              - (((Integer) queueLengthValues[i] * MAX_WT) / (double) maxQueueLn));
+    }
+    weights[numBuckets - 1] = calculatedWtMaxQueue;
 
-        weightedDistributionRouting.put(routingGroup, weightsMap);
-        routingGroupWeightSum.put(routingGroup, sum);
-      }
+    return new AliasTable(clusterNames, adjustWeights(clusterNames, weights));
+  }
 
-      if (log.isDebugEnabled()) {
-        for (String rg : weightedDistributionRouting.keySet()) {
-          log.debug("Routing Table for : [{}] is [{}]", rg,
-              weightedDistributionRouting.get(rg).toString());
-        }
+  /**
+   * Lets subclasses adjust the weights of a routing group with more than one active cluster.
+   * Called whenever the weights of a group are recomputed, i.e. on every update and every few
+   * routed queries.
+   *
+   * @param clusterNames Clusters of the routing group
+   * @param weights Weights of the clusters, in the same order
+   * @return Adjusted weights, at least 1 each
+   */
+  protected int[] adjustWeights(String[] clusterNames, int[] weights) {
+    return weights;
+  }
+
+  /**
+   * Counts a routed query against its backend, and recomputes the weights of the routing group
+   * every {@value #RECOMPUTE_INTERVAL_QUERIES} routed queries. Lock free, and a recomputation
+   * already under way on another thread is not repeated.
+   *
+   * @param snapshot Snapshot the query was routed with
+   * @param routingGroup Routing group the query was routed in
+   * @param clusterId Backend the query was routed to
+   */
+  private void recordRoutedQuery(RoutingTableSnapshot snapshot, String routingGroup,
+      String clusterId) {
+    GroupRouting routing = snapshot.groups.get(routingGroup);
+    LongAdder routed = routing == null ? null : routing.routedQueries.get(clusterId);
+    if (routed == null) {
+      return;
+    }
+    routed.increment();
+    if (routing.routedCount.incrementAndGet() % RECOMPUTE_INTERVAL_QUERIES == 0
+        && routing.recomputing.compareAndSet(false, true)) {
+      try {
+        routing.weights.set(computeGroupWeights(routingGroup,
+            estimateQueueLengths(snapshot.clusterQueueLengthMap.get(routingGroup), routing),
+            estimateLoads(snapshot.clusterLoadMap.get(routingGroup), routing)));
+      } finally {
+        routing.recomputing.set(false);
       }
     }
   }
 
+  /**
+   * Reported queue lengths of a routing group plus the queries routed since.
+   */
+  private static Map<String, Integer> estimateQueueLengths(Map<String, Integer> queueLengths,
+      GroupRouting routing) {
+    Map<String, Integer> estimates = new HashMap<>(queueLengths);
+    routing.routedQueries.forEach(
+        (cluster, routed) -> estimates.merge(cluster, routed.intValue(), Integer::sum));
+    return estimates;
+  }
+
+  /**
+   * Reported load scores of a routing group plus the queries routed since.
+   *
+   * @return The estimates, null if the group has no load scores
+   */
+  private static Map<String, ClusterLoad> estimateLoads(Map<String, ClusterLoad> loads,
+      GroupRouting routing) {
+    if (loads == null) {
+      return null;
+    }
+    Map<String, ClusterLoad> estimates = new HashMap<>(loads);
+    routing.routedQueries.forEach((cluster, routed) -> {
+      ClusterLoad load = estimates.get(cluster);
+      if (load != null) {
+        estimates.put(cluster, load.withRoutedQueries(routed.intValue()));
+      }
+    });
+    return estimates;
+  }
+
   /**
    * Update the Routing Table only if a previously known backend has been deactivated.
    * Newly added backends are handled through
@@ -183,24 +317,36 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
    */
   public void updateRoutingTable(String routingGroup, Set<String> backends) {
     synchronized (lockObject) {
-      if (clusterQueueLengthMap.containsKey(routingGroup)) {
+      RoutingTableSnapshot current = routingTable.get();
+      Map<String, Integer> knownBackends = current.clusterQueueLengthMap.get(routingGroup);
+      if (knownBackends != null && backends.containsAll(knownBackends.keySet())) {
+        return;
+      }
+      // The published maps are copied, the new snapshot takes ownership of its maps
+      Map<String, Map<String, Integer>> queueLengthMap = new HashMap<>();
+      current.clusterQueueLengthMap.forEach(
+          (group, queueLengths) -> queueLengthMap.put(group, new HashMap<>(queueLengths)));
+      // The queries routed since the last stats are carried over in the loads
+      Map<String, Map<String, ClusterLoad>> loadMap = new HashMap<>();
+      current.groups.forEach((group, routing) -> {
+        Map<String, ClusterLoad> loads =
+            estimateLoads(current.clusterLoadMap.get(group), routing);
+        if (loads != null) {
+          loadMap.put(group, loads);
+        }
+      });
+
+      if (knownBackends != null) {
         log.debug("Update routing table for routing group : [{}]"
             + " with active backends : [{}]", routingGroup, backends.toString());
-        Collection<String> knownBackends = new HashSet<String>();
-        knownBackends.addAll(clusterQueueLengthMap.get(routingGroup).keySet());
-
-        if (backends.containsAll(knownBackends)) {
-          return;
-        } else {
-          if (knownBackends.removeAll(backends)) {
-            for (String inactiveBackend : knownBackends) {
-              clusterQueueLengthMap.get(routingGroup).remove(inactiveBackend);
-            }
-          }
+        queueLengthMap.get(routingGroup).keySet().retainAll(backends);
+        if (loadMap.containsKey(routingGroup)) {
+          loadMap.get(routingGroup).keySet().retainAll(backends);
         }
       }
 
-      computeWeightsBasedOnQueueLength(clusterQueueLengthMap);
+      routingTable.set(
+          computeWeightsBasedOnQueueLength(queueLengthMap, loadMap, current.generation + 1));
     }
   }
 
@@ -208,58 +354,101 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
    * Update routing Table with new Queue Lengths.
    */
   public void updateRoutingTable(Map<String, Map<String, Integer>> updatedQueueLengthMap) {
+    updateRoutingTable(updatedQueueLengthMap, Collections.emptyMap());
+  }
+
+  /**
+   * Update routing Table with new Queue Lengths and the load scores the weights are based on.
+   *
+   * @param updatedQueueLengthMap Queue lengths by routing group and cluster
+   * @param updatedLoadMap Load scores by routing group and cluster, groups without scores are
+   *     weighted by queue length
+   */
+  public void updateRoutingTable(Map<String, Map<String, Integer>> updatedQueueLengthMap,
+      Map<String, Map<String, ClusterLoad>> updatedLoadMap) {
     synchronized (lockObject) {
       log.debug("Update Routing table with new cluster queue lengths : [{}]",
           updatedQueueLengthMap.toString());
-      clusterQueueLengthMap.clear();
+      Map<String, Map<String, Integer>> queueLengthMap = new HashMap<>();
 
       for (String grp : updatedQueueLengthMap.keySet()) {
-        ConcurrentHashMap<String, Integer> queueMap = new ConcurrentHashMap<>();
-        queueMap.putAll(updatedQueueLengthMap.get(grp));
-        clusterQueueLengthMap.put(grp, queueMap);
+        queueLengthMap.put(grp, new HashMap<>(updatedQueueLengthMap.get(grp)));
       }
+      Map<String, Map<String, ClusterLoad>> loadMap = new HashMap<>();
+      updatedLoadMap.forEach((grp, loads) -> loadMap.put(grp, new HashMap<>(loads)));
 
-      computeWeightsBasedOnQueueLength(clusterQueueLengthMap);
+      RoutingTableSnapshot current = routingTable.get();
+      recordPredictionError(current, queueLengthMap);
+      routingTable.set(
+          computeWeightsBasedOnQueueLength(queueLengthMap, loadMap, current.generation + 1));
     }
   }
 
+  private void recordPredictionError(RoutingTableSnapshot previous,
+      Map<String, Map<String, Integer>> reported) {
+    reported.forEach((group, clusters) -> {
+      Map<String, Integer> previousQueueLengths = previous.clusterQueueLengthMap.get(group);
+      if (previousQueueLengths != null) {
+        Map<String, Integer> estimates =
+            estimateQueueLengths(previousQueueLengths, previous.groups.get(group));
+        clusters.forEach((cluster, queueLength) -> {
+          Integer estimate = estimates.get(cluster);
+          if (estimate != null) {
+            // Positive when queries were estimated to queue up but started right away
+            predictionError.update(estimate - queueLength);
+          }
+        });
+      }
+    });
+  }
+
   /**
    * A convenience method to peak into the weights used by the routing Manager.
    */
   public Map<String, Integer> getInternalWeightedRoutingTable(String routingGroup) {
-    if (!weightedDistributionRouting.containsKey(routingGroup)) {
-      return null;
-    }
-    Map<String, Integer> routingTable = new HashMap<>();
-
-    for (Integer wt : weightedDistributionRouting.get(routingGroup).keySet()) {
-      routingTable.put(weightedDistributionRouting.get(routingGroup).get(wt), wt);
-    }
-    return routingTable;
+    GroupRouting routing = routingTable.get().groups.get(routingGroup);
+    AliasTable weights = routing == null ? null : routing.weights.get();
+    return weights == null ? null : weights.getWeights();
   }
 
   /**
    * A convienience method to get a peak into the state of the routing manager.
    */
   public Map<String, Integer> getInternalClusterQueueLength(String routingGroup) {
-    if (!clusterQueueLengthMap.containsKey(routingGroup)) {
-      return null;
-    }
+    return routingTable.get().clusterQueueLengthMap.get(routingGroup);
+  }
 
-    return clusterQueueLengthMap.get(routingGroup);
+  /**
+   * Load scores of the routing group as reported, plus the queries routed since.
+   */
+  public Map<String, ClusterLoad> getEstimatedClusterLoad(String routingGroup) {
+    RoutingTableSnapshot snapshot = routingTable.get();
+    GroupRouting routing = snapshot.groups.get(routingGroup);
+    return routing == null ? null
+        : estimateLoads(snapshot.clusterLoadMap.get(routingGroup), routing);
+  }
+
+  /**
+   * Queue lengths of the routing group as reported, plus the queries routed since.
+   */
+  public Map<String, Integer> getEstimatedClusterQueueLength(String routingGroup) {
+    RoutingTableSnapshot snapshot = routingTable.get();
+    GroupRouting routing = snapshot.groups.get(routingGroup);
+    return routing == null ? null
+        : estimateQueueLengths(snapshot.clusterQueueLengthMap.get(routingGroup), routing);
   }
 
   /**
-   * Looks up the closest weight to random number generated for a given routing group.
+   * Picks a backend of the routing group with probability proportional to its weight.
    */
   public String getEligibleBackEnd(String routingGroup) {
-    if (routingGroupWeightSum.containsKey(routingGroup)
-        && weightedDistributionRouting.containsKey(routingGroup)) {
-      int rnd = RANDOM.nextInt(routingGroupWeightSum.get(routingGroup));
-      return weightedDistributionRouting.get(routingGroup).higherEntry(rnd).getValue();
-    } else {
-      return null;
-    }
+    return getEligibleBackEnd(routingTable.get(), routingGroup);
+  }
+
+  private String getEligibleBackEnd(RoutingTableSnapshot snapshot, String routingGroup) {
+    GroupRouting routing = snapshot.groups.get(routingGroup);
+    AliasTable weights = routing == null ? null : routing.weights.get();
+    return weights == null ? null : weights.sample();
   }
 
   /**
@@ -268,26 +457,29 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
    */
   @Override
   public String provideBackendForRoutingGroup(String routingGroup) {
-    Map<String, Integer> backends = clusterQueueLengthMap.get(routingGroup);
+    RoutingTableSnapshot snapshot = routingTable.get();
+    BackendRegistry registry = getBackendRegistry();
+    Map<String, Integer> backends = snapshot.clusterQueueLengthMap.get(routingGroup);
 
     if (backends == null || backends.isEmpty()
-        || !routingGroups.get(routingGroup)) {
+        || !registry.isRoutingGroupActive(routingGroup)) {
       log.warn("Routing group {} is currently paused or has no active backends, "
           + "routing {} to adhoc", routingGroup);
       return provideAdhocBackend();
     }
-    
-    String clusterId = getEligibleBackEnd(routingGroup);
+
+    String clusterId = getEligibleBackEnd(snapshot, routingGroup);
     log.debug("Routing to eligible backend : [{}] for routing group: [{}]",
         clusterId, routingGroup);
 
     if (clusterId != null) {
-      return backendProxyMap.get(clusterId);
+      recordRoutedQuery(snapshot, routingGroup, clusterId);
+      return registry.getProxyTo(clusterId);
     } else {
       log.debug("Falling back to random distribution");
       String randomClusterId = new ArrayList<String>(backends.keySet())
-          .get(RANDOM.nextInt(backends.size()));
-      return backendProxyMap.get(randomClusterId);
+          .get(ThreadLocalRandom.current().nextInt(backends.size()));
+      return registry.getProxyTo(randomClusterId);
     }
   }
 
@@ -298,26 +490,83 @@ public class PrestoQueueLengthRoutingTable extends HaRoutingManager {
    */
   @Override
   public String provideAdhocBackend() {
-    Map<String, Integer> backends = clusterQueueLengthMap.get(ADHOC);
-    
+    RoutingTableSnapshot snapshot = routingTable.get();
+    BackendRegistry registry = getBackendRegistry();
+    Map<String, Integer> backends = snapshot.clusterQueueLengthMap.get(ADHOC);
+
     if (backends == null || backends.size() == 0) {
       throw new IllegalStateException("No adhoc backends are currently available");
     }
 
-    if (!routingGroups.get(ADHOC)) {
+    if (!registry.isRoutingGroupActive(ADHOC)) {
       throw new IllegalStateException(
           "All available backends are currently undergoing maintainence");
     }
 
-    String clusterId = getEligibleBackEnd(ADHOC);
+    String clusterId = getEligibleBackEnd(snapshot, ADHOC);
     log.debug("Routing to eligible backend : " + clusterId + " for routing group: adhoc");
     if (clusterId != null) {
-      return backendProxyMap.get(clusterId);
+      recordRoutedQuery(snapshot, ADHOC, clusterId);
+      return registry.getProxyTo(clusterId);
     } else {
       log.debug("Falling back to random distribution");
       String randomClusterId = new ArrayList<String>(backends.keySet())
-          .get(RANDOM.nextInt(backends.size()));
-      return backendProxyMap.get(randomClusterId);
+          .get(ThreadLocalRandom.current().nextInt(backends.size()));
+      return registry.getProxyTo(randomClusterId);
+    }
+  }
+
+  /**
+   * One generation of the routing state. Its maps are never modified once published, only the
+   * routed query counters and the weights of its groups move until the next generation.
+   */
+  private static final class RoutingTableSnapshot {
+    static final RoutingTableSnapshot EMPTY = new RoutingTableSnapshot(0, Collections.emptyMap(),
+        Collections.emptyMap(), Collections.emptyMap());
+
+    final long generation;
+    // Queue lengths as last reported
+    final Map<String, Map<String, Integer>> clusterQueueLengthMap;
+    // Load scores as last reported, empty when weighting by queue length
+    final Map<String, Map<String, ClusterLoad>> clusterLoadMap;
+    final Map<String, GroupRouting> groups;
+
+    /**
+     * Creates a snapshot, taking ownership of the given maps, which must not be published yet.
+     */
+    RoutingTableSnapshot(long generation,
+                         Map<String, Map<String, Integer>> clusterQueueLengthMap,
+                         Map<String, Map<String, ClusterLoad>> clusterLoadMap,
+                         Map<String, GroupRouting> groups) {
+      this.generation = generation;
+      this.clusterQueueLengthMap = unmodifiable(clusterQueueLengthMap);
+      this.clusterLoadMap = unmodifiable(clusterLoadMap);
+      this.groups = Collections.unmodifiableMap(groups);
+    }
+
+    private static <V> Map<String, Map<String, V>> unmodifiable(
+        Map<String, Map<String, V>> clusterMap) {
+      clusterMap.replaceAll((group, values) -> Collections.unmodifiableMap(values));
+      return Collections.unmodifiableMap(clusterMap);
+    }
+  }
+
+  /**
+   * Weights of a routing group and the queries routed in it since its snapshot was published.
+   */
+  private static final class GroupRouting {
+    // Keys are fixed, so lookups need no synchronization
+    final Map<String, LongAdder> routedQueries;
+    final AtomicLong routedCount = new AtomicLong();
+    final AtomicBoolean recomputing = new AtomicBoolean();
+    // Null if the group has no active clusters
+    final AtomicReference<AliasTable> weights;
+
+    GroupRouting(Set<String> clusters, AliasTable weights) {
+      Map<String, LongAdder> routed = new HashMap<>();
+      clusters.forEach(cluster -> routed.put(cluster, new LongAdder()));
+      this.routedQueries = Collections.unmodifiableMap(routed);
+      this.weights = new AtomicReference<>(weights);
     }
   }
 }
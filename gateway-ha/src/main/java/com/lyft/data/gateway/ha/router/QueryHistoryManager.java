@@ -1,6 +1,7 @@
 package com.lyft.data.gateway.ha.router;
 
 import java.util.List;
+import java.util.function.BiConsumer;
 
 import lombok.Data;
 import lombok.ToString;
@@ -12,6 +13,14 @@ public interface QueryHistoryManager {
 
   String getBackendForQueryId(String queryId);
 
+  /**
+   * Streams the query id and backend of each query created at or after the given time.
+   * @param createdSinceMillis Earliest creation time of the queries
+   * @param consumer Called with the query id and the backend of each query
+   * @return Number of queries passed to the consumer
+   */
+  int forEachQueryBackendSince(long createdSinceMillis, BiConsumer<String, String> consumer);
+
   @Data
   @ToString
   class QueryDetail implements Comparable<QueryDetail> {
@@ -0,0 +1,395 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Maps query ids to the backends running them, compact enough to hold millions of entries.
+ *
+ * <p>Query ids of the form {@code YYYYMMDD_HHMMSS_NNNNN_coord} are packed into a single long:
+ * seconds since {@link #EPOCH_SECONDS} in the high 32 bits, the sequence number in the next 17
+ * and an interned coordinator suffix in the low 15. Backends are interned to shorts. Entries
+ * live in an open addressing table with linear probing over a {@code long[]} and a
+ * {@code short[]}, about 13 bytes per entry at the maximum load factor, and without an object
+ * per entry. Query ids of any other form go to a small overflow cache.
+ *
+ * <p>The table grows up to the maximum number of entries. When it is full, entries for queries
+ * created longer than the retention ago are dropped, and if that is not enough the oldest
+ * queries are dropped, as their creation time is part of the key.
+ *
+ * <p>The table can be saved with {@link #writeTo(DataOutput)} and loaded into another map with
+ * {@link #readFrom(DataInput)}, without decoding the keys.
+ */
+public class QueryIdBackendMap {
+  // 2020-01-01T00:00:00Z, query ids are encodable until 2088
+  static final long EPOCH_SECONDS = 1577836800L;
+  private static final int MIN_CAPACITY = 1 << 12;
+  private static final double MAX_LOAD = 0.75;
+  private static final int MAX_SEQUENCE = 99999;
+  private static final int MAX_INTERNED = Short.MAX_VALUE;
+  private static final int OVERFLOW_ENTRIES = 10000;
+  private static final long COORDINATOR_MASK = MAX_INTERNED;
+
+  private final int maxCapacity;
+  private final long retentionSeconds;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Cache<String, String> overflow = CacheBuilder.newBuilder()
+      .maximumSize(OVERFLOW_ENTRIES)
+      .expireAfterAccess(30, TimeUnit.MINUTES)
+      .build();
+
+  // Index 0 is unused, so no key is 0 and no value is 0
+  private final Map<String, Integer> coordinatorIds = new HashMap<>();
+  private final Map<String, Integer> backendIds = new HashMap<>();
+  private final List<String> backends = new ArrayList<>();
+
+  private long[] keys;
+  private short[] values;
+  private int size;
+
+  /**
+   * Creates an empty map.
+   * @param maxEntries Number of entries the table grows to
+   * @param retentionMillis Age of queries that are dropped first once the table is full
+   */
+  public QueryIdBackendMap(int maxEntries, long retentionMillis) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * MAX_LOAD < maxEntries && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    this.maxCapacity = capacity;
+    this.retentionSeconds = TimeUnit.MILLISECONDS.toSeconds(retentionMillis);
+    this.keys = new long[Math.min(MIN_CAPACITY, capacity)];
+    this.values = new short[keys.length];
+    this.backends.add(null);
+  }
+
+  /**
+   * Returns the backend of a query.
+   * @param queryId Query id
+   * @return Address of the backend, null if unknown
+   */
+  public String get(String queryId) {
+    lock.readLock().lock();
+    try {
+      long key = encode(queryId, false);
+      if (key < 0) {
+        return overflow.getIfPresent(queryId);
+      }
+      if (key == 0) {
+        // Coordinator never seen
+        return null;
+      }
+      int slot = find(keys, key);
+      return keys[slot] == key ? backends.get(values[slot]) : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Records the backend of a query.
+   * @param queryId Query id
+   * @param backend Address of the backend
+   */
+  public void put(String queryId, String backend) {
+    lock.writeLock().lock();
+    try {
+      long key = encode(queryId, true);
+      int backendId = key > 0 ? intern(backendIds, backend) : -1;
+      if (key <= 0 || backendId < 0) {
+        overflow.put(queryId, backend);
+        return;
+      }
+      if (backendId == backends.size()) {
+        backends.add(backend);
+      }
+      insert(key, (short) backendId);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Writes the interned coordinators and backends and the entries of the table. The overflow
+   * cache is not written. The table is copied under the lock and written out after, so puts
+   * don't wait for the output.
+   * @param out Output to write to
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    String[] coordinators;
+    String[] backendNames;
+    long[] keysCopy;
+    short[] valuesCopy;
+    int sizeCopy;
+    lock.readLock().lock();
+    try {
+      coordinators = new String[coordinatorIds.size() + 1];
+      for (Map.Entry<String, Integer> coordinator : coordinatorIds.entrySet()) {
+        coordinators[coordinator.getValue()] = coordinator.getKey();
+      }
+      backendNames = backends.toArray(new String[0]);
+      keysCopy = keys.clone();
+      valuesCopy = values.clone();
+      sizeCopy = size;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    out.writeInt(coordinators.length - 1);
+    for (int i = 1; i < coordinators.length; i++) {
+      out.writeUTF(coordinators[i]);
+    }
+    out.writeInt(backendNames.length - 1);
+    for (int i = 1; i < backendNames.length; i++) {
+      out.writeUTF(backendNames[i]);
+    }
+    out.writeInt(sizeCopy);
+    for (int i = 0; i < keysCopy.length; i++) {
+      if (keysCopy[i] != 0) {
+        out.writeLong(keysCopy[i]);
+        out.writeShort(valuesCopy[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds the entries written by {@link #writeTo(DataOutput)}, replacing the backends of query
+   * ids already in the map. The coordinators and backends are interned again, so the entries
+   * are re-keyed rather than copied. Entries that don't fit the interned ids are skipped.
+   * @param in Input to read from
+   */
+  public void readFrom(DataInput in) throws IOException {
+    lock.writeLock().lock();
+    try {
+      int[] coordinatorMapping = new int[in.readInt() + 1];
+      for (int i = 1; i < coordinatorMapping.length; i++) {
+        coordinatorMapping[i] = intern(coordinatorIds, in.readUTF());
+      }
+      int[] backendMapping = new int[in.readInt() + 1];
+      for (int i = 1; i < backendMapping.length; i++) {
+        String backend = in.readUTF();
+        backendMapping[i] = intern(backendIds, backend);
+        if (backendMapping[i] == backends.size()) {
+          backends.add(backend);
+        }
+      }
+      int entries = in.readInt();
+      for (int i = 0; i < entries; i++) {
+        long key = in.readLong();
+        int coordinatorId = (int) (key & COORDINATOR_MASK);
+        int backendId = in.readShort();
+        if (coordinatorId >= coordinatorMapping.length || backendId <= 0
+            || backendId >= backendMapping.length) {
+          throw new IOException("Invalid query id entry " + i + " of " + entries);
+        }
+        if (coordinatorMapping[coordinatorId] > 0 && backendMapping[backendId] > 0) {
+          insert(key & ~COORDINATOR_MASK | coordinatorMapping[coordinatorId],
+              (short) backendMapping[backendId]);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Puts an encoded entry into the table, holding the write lock.
+   */
+  private void insert(long key, short backendId) {
+    int slot = find(keys, key);
+    if (keys[slot] != key) {
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = backendId;
+    if (size > keys.length * MAX_LOAD) {
+      makeRoom(System.currentTimeMillis() / 1000);
+    }
+  }
+
+  /**
+   * Number of query ids in the table, not counting the overflow cache.
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Heap used by the table arrays, in bytes.
+   */
+  public long getTableBytes() {
+    lock.readLock().lock();
+    try {
+      return (long) keys.length * (Long.BYTES + Short.BYTES);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Grows the table, or drops the oldest queries once it has reached its maximum capacity.
+   */
+  private void makeRoom(long nowSeconds) {
+    if (keys.length < maxCapacity) {
+      rehash(keys.length << 1, Long.MIN_VALUE);
+      return;
+    }
+    rehash(keys.length, nowSeconds - EPOCH_SECONDS - retentionSeconds);
+    // Stay well below the maximum load so a full table is not rebuilt on every put
+    while (size > keys.length * MAX_LOAD * 0.75) {
+      long oldest = Long.MAX_VALUE;
+      long newest = Long.MIN_VALUE;
+      for (long key : keys) {
+        if (key != 0) {
+          oldest = Math.min(oldest, key >>> 32);
+          newest = Math.max(newest, key >>> 32);
+        }
+      }
+      if (oldest >= newest) {
+        return;
+      }
+      // Drop the oldest quarter of the remaining time span
+      rehash(keys.length, oldest + Math.max(1, (newest - oldest) / 4));
+    }
+  }
+
+  /**
+   * Rebuilds the table with the given capacity, dropping queries created before the cutoff.
+   */
+  private void rehash(int capacity, long cutoffSeconds) {
+    long[] newKeys = new long[capacity];
+    short[] newValues = new short[capacity];
+    int newSize = 0;
+    for (int i = 0; i < keys.length; i++) {
+      long key = keys[i];
+      if (key != 0 && (key >>> 32) >= cutoffSeconds) {
+        int slot = find(newKeys, key);
+        newKeys[slot] = key;
+        newValues[slot] = values[i];
+        newSize++;
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+    size = newSize;
+  }
+
+  /**
+   * Returns the slot holding the key, or the empty slot it would go to.
+   */
+  private static int find(long[] table, long key) {
+    int mask = table.length - 1;
+    int slot = (int) mix(key) & mask;
+    while (table[slot] != 0 && table[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static long mix(long key) {
+    // Finalizer of MurmurHash3
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb34fe1a85ec3L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private static int intern(Map<String, Integer> ids, String value) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      if (ids.size() >= MAX_INTERNED) {
+        return -1;
+      }
+      id = ids.size() + 1;
+      ids.put(value, id);
+    }
+    return id;
+  }
+
+  /**
+   * Packs a query id into a key.
+   * @param internCoordinator Whether a coordinator seen for the first time gets an id
+   * @return The key, 0 if the coordinator has no id, negative if the query id is not encodable
+   */
+  long encode(String queryId, boolean internCoordinator) {
+    // YYYYMMDD_HHMMSS_NNNNN_coord
+    if (queryId == null || queryId.length() < 23 || queryId.charAt(8) != '_'
+        || queryId.charAt(15) != '_' || queryId.charAt(21) != '_') {
+      return -1;
+    }
+    int year = digits(queryId, 0, 4);
+    int month = digits(queryId, 4, 6);
+    int day = digits(queryId, 6, 8);
+    int hour = digits(queryId, 9, 11);
+    int minute = digits(queryId, 11, 13);
+    int second = digits(queryId, 13, 15);
+    int sequence = digits(queryId, 16, 21);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+        || minute < 0 || minute > 59 || second < 0 || second > 59 || sequence < 0
+        || sequence > MAX_SEQUENCE) {
+      return -1;
+    }
+    long seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second
+        - EPOCH_SECONDS;
+    if (seconds < 0 || seconds > Integer.MAX_VALUE) {
+      return -1;
+    }
+
+    String coordinator = queryId.substring(22);
+    Integer coordinatorId = coordinatorIds.get(coordinator);
+    if (coordinatorId == null) {
+      if (!internCoordinator) {
+        return 0;
+      }
+      int id = intern(coordinatorIds, coordinator);
+      if (id < 0) {
+        return -1;
+      }
+      coordinatorId = id;
+    }
+    return seconds << 32 | (long) sequence << 15 | coordinatorId;
+  }
+
+  private static int digits(String value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /**
+   * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468;
+  }
+}
@@ -0,0 +1,66 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import io.dropwizard.lifecycle.Managed;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads the backends of recent queries from the query history into the query id cache of the
+ * routing manager, so clients polling queries that were running before a restart do not each
+ * hit the database. Runs on start, which blocks until the warm-up is done, so the proxy and the
+ * admin endpoints only come up with a warm cache.
+ */
+@Slf4j
+public class QueryIdCacheWarmer implements Managed {
+  public static final String METRIC_PREFIX = "queryIdCache.warmup";
+
+  private final QueryHistoryManager queryHistoryManager;
+  private final RoutingManager routingManager;
+  private final long windowMillis;
+  private final Timer warmupTimer;
+  private final Counter loadedCounter;
+
+  /**
+   * Creates the warmer, the warm-up runs with {@link #start()}.
+   * @param queryHistoryManager Query history to load the backends from
+   * @param routingManager Routing manager whose query id cache is warmed
+   * @param windowMillis Age of the oldest queries loaded, 0 to skip the warm-up
+   * @param metricRegistry Registry for the warm-up metrics
+   */
+  public QueryIdCacheWarmer(QueryHistoryManager queryHistoryManager,
+      RoutingManager routingManager, long windowMillis, MetricRegistry metricRegistry) {
+    this.queryHistoryManager = queryHistoryManager;
+    this.routingManager = routingManager;
+    this.windowMillis = windowMillis;
+    this.warmupTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "duration"));
+    this.loadedCounter = metricRegistry.counter(MetricRegistry.name(METRIC_PREFIX, "queries"));
+  }
+
+  @Override
+  public void start() {
+    if (windowMillis <= 0) {
+      return;
+    }
+    long createdSince = System.currentTimeMillis() - windowMillis;
+    // A failed warm-up must not keep the gateway down, query ids are then looked up on demand
+    Timer.Context context = warmupTimer.time();
+    try {
+      int loaded = queryHistoryManager.forEachQueryBackendSince(createdSince,
+          routingManager::cacheBackendForQueryId);
+      loadedCounter.inc(loaded);
+      log.info("Loaded backends of {} queries into the query id cache in {} ms", loaded,
+          TimeUnit.NANOSECONDS.toMillis(context.stop()));
+    } catch (Exception e) {
+      context.stop();
+      log.error("Error loading recent queries into the query id cache", e);
+    }
+  }
+
+  @Override
+  public void stop() {
+  }
+}
@@ -0,0 +1,162 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Finds the backend running a query by asking all backends at once. The first backend to answer
+ * {@code 200} wins and the requests to the others are cancelled, as are all requests still open
+ * at the deadline. Concurrent look ups of the same query id share the same requests.
+ *
+ * <p>Query ids no backend knows are remembered for a while, so a client polling a bogus or long
+ * gone query id can't cause a storm of requests to the backends.
+ */
+@Slf4j
+public class QueryIdLocator {
+  private static final int MAX_CONCURRENT_REQUESTS = 256;
+  private static final int MAX_UNKNOWN_QUERY_IDS = 10000;
+
+  private final OkHttpClient httpClient;
+  private final long deadlineMillis;
+  private final Cache<String, Boolean> unknownQueryIds;
+  private final Map<String, CompletableFuture<String>> lookups = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a locator.
+   * @param deadlineMillis Time to wait for the backends to answer
+   * @param unknownQueryIdTtlMillis Time a query id no backend knows is not looked up again
+   */
+  public QueryIdLocator(long deadlineMillis, long unknownQueryIdTtlMillis) {
+    this.deadlineMillis = deadlineMillis;
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+    this.httpClient = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectTimeout(deadlineMillis, TimeUnit.MILLISECONDS)
+        .readTimeout(deadlineMillis, TimeUnit.MILLISECONDS)
+        .build();
+    this.unknownQueryIds = CacheBuilder.newBuilder()
+        .maximumSize(MAX_UNKNOWN_QUERY_IDS)
+        .expireAfterWrite(unknownQueryIdTtlMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Finds the backend running a query.
+   * @param queryId Query id
+   * @param backends Addresses of the backends to ask
+   * @return Address of the backend, null if no backend knows the query by the deadline
+   */
+  public String locate(String queryId, List<String> backends) {
+    if (backends.isEmpty() || unknownQueryIds.getIfPresent(queryId) != null) {
+      return null;
+    }
+    CompletableFuture<String> lookup = new CompletableFuture<>();
+    CompletableFuture<String> existing = lookups.putIfAbsent(queryId, lookup);
+    if (existing != null) {
+      lookup = existing;
+    } else {
+      scatter(queryId, backends, lookup);
+      lookup.whenComplete((backend, e) -> lookups.remove(queryId));
+    }
+
+    try {
+      return lookup.get(deadlineMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.warn("No backend found query [{}] within {} ms", queryId, deadlineMillis);
+      lookup.complete(null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.warn("Error looking up query [{}]", queryId, e);
+    }
+    return null;
+  }
+
+  private void scatter(String queryId, List<String> backends,
+      CompletableFuture<String> lookup) {
+    List<Call> calls = new ArrayList<>(backends.size());
+    AtomicInteger pending = new AtomicInteger(backends.size());
+    // Only a query id every backend answered not to know is remembered as unknown
+    AtomicBoolean conclusive = new AtomicBoolean(true);
+    for (String backend : backends) {
+      try {
+        calls.add(httpClient.newCall(new Request.Builder()
+            .head()
+            .url(backend + "/v1/query/" + queryId)
+            .tag(backend)
+            .build()));
+      } catch (IllegalArgumentException e) {
+        log.warn("Invalid address of backend [{}]", backend, e);
+        pending.decrementAndGet();
+        conclusive.set(false);
+      }
+    }
+    // Cancels the losers once a backend won, or all of them at the deadline
+    lookup.whenComplete((backend, e) -> calls.forEach(Call::cancel));
+    if (pending.get() == 0) {
+      lookup.complete(null);
+      return;
+    }
+
+    Callback callback = new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        if (!call.isCanceled()) {
+          log.debug("Error looking up query [{}] on [{}]", queryId, call.request().tag(), e);
+        }
+        conclusive.set(false);
+        answered(queryId, pending, conclusive, lookup);
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        response.close();
+        if (response.code() == 200) {
+          conclusive.set(false);
+          String backend = (String) call.request().tag();
+          if (lookup.complete(backend)) {
+            log.info("Found query [{}] on backend [{}]", queryId, backend);
+          }
+        } else if (response.code() != 404 && response.code() != 410) {
+          conclusive.set(false);
+        }
+        answered(queryId, pending, conclusive, lookup);
+      }
+    };
+    calls.forEach(call -> call.enqueue(callback));
+  }
+
+  private void answered(String queryId, AtomicInteger pending, AtomicBoolean conclusive,
+      CompletableFuture<String> lookup) {
+    if (pending.decrementAndGet() == 0) {
+      // Remembered before the waiting callers return
+      if (conclusive.get()) {
+        unknownQueryIds.put(queryId, true);
+      }
+      if (lookup.complete(null)) {
+        log.warn("Query id [{}] not found on any backend", queryId);
+      }
+    }
+  }
+}
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,11 +21,26 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class RoutingGroupsManager {
   private JdbcConnectionManager connectionManager;
+  private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
 
   public RoutingGroupsManager(JdbcConnectionManager connectionManager) {
     this.connectionManager = connectionManager;
   }
 
+  /**
+   * Registers a callback that is run after every change this manager writes to the database.
+   * @param listener Callback to run
+   */
+  public void addChangeListener(Runnable listener) {
+    changeListeners.add(listener);
+  }
+
+  private void notifyChangeListeners() {
+    for (Runnable listener : changeListeners) {
+      listener.run();
+    }
+  }
+
   /**
    * Returns a list of routing groups based on the active backends
    * and combines information with the backends.
@@ -92,6 +108,7 @@ public class RoutingGroupsManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   /**
@@ -111,6 +128,7 @@ public class RoutingGroupsManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
   
   /**
@@ -124,6 +142,7 @@ public class RoutingGroupsManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   /**
@@ -138,6 +157,7 @@ public class RoutingGroupsManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   /**
@@ -152,6 +172,7 @@ public class RoutingGroupsManager {
     } finally {
       connectionManager.close();
     }
+    notifyChangeListeners();
   }
 
   /**
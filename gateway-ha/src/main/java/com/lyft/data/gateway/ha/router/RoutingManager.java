@@ -1,26 +1,18 @@
 package com.lyft.data.gateway.ha.router;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.inject.Inject;
 import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
 import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
 import com.lyft.data.proxyserver.ProxyServerConfiguration;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import javax.ws.rs.HttpMethod;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -31,64 +23,139 @@ import lombok.extern.slf4j.Slf4j;
 public abstract class RoutingManager {
   public static final String ADHOC = "adhoc";
   
-  private static final Random RANDOM = new Random();
-  private final LoadingCache<String, String> queryIdBackendCache;
-  private ExecutorService executorService = Executors.newFixedThreadPool(5);
+  // Millions of running and recent queries, in about 40 MB once the table is full
+  private static final int QUERY_ID_CACHE_MAX_ENTRIES = 3000000;
+  private static final long QUERY_ID_CACHE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long QUERY_ID_LOOKUP_DEADLINE_MILLIS = 5000;
+  // Query ids no backend knows are not looked up again for this long
+  private static final long UNKNOWN_QUERY_ID_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final QueryIdBackendMap queryIdBackendCache;
+  private final CoordinatorFingerprints coordinatorFingerprints = new CoordinatorFingerprints();
+  private final QueryIdLocator queryIdLocator =
+      new QueryIdLocator(QUERY_ID_LOOKUP_DEADLINE_MILLIS, UNKNOWN_QUERY_ID_TTL_MILLIS);
   private GatewayBackendManager gatewayBackendManager;
   protected RoutingGroupsManager routingGroupsManager;
 
   protected final Object lockObject = new Object();
-  public ConcurrentHashMap<String, Boolean> routingGroups = new ConcurrentHashMap<>();
-  public ConcurrentHashMap<String, String> backendProxyMap = new ConcurrentHashMap<>();
+  private final AtomicReference<BackendRegistry> backendRegistry =
+      new AtomicReference<>(BackendRegistry.EMPTY);
 
   public RoutingManager(GatewayBackendManager gatewayBackendManager,
       RoutingGroupsManager routingGroupsManager) {
     this.gatewayBackendManager = gatewayBackendManager;
     this.routingGroupsManager = routingGroupsManager;
-    queryIdBackendCache =
-        CacheBuilder.newBuilder()
-            .maximumSize(10000)
-            .expireAfterAccess(30, TimeUnit.MINUTES)
-            .build(
-                new CacheLoader<String, String>() {
-                  @Override
-                  public String load(String queryId) {
-                    return findBackendForUnknownQueryId(queryId);
-                  }
-                });
+    queryIdBackendCache = new QueryIdBackendMap(QUERY_ID_CACHE_MAX_ENTRIES,
+        QUERY_ID_CACHE_RETENTION_MILLIS);
   }
 
   protected GatewayBackendManager getGatewayBackendManager() {
     return gatewayBackendManager;
   }
 
+  /**
+   * Records the backend of a query submitted through this gateway.
+   */
   public void setBackendForQueryId(String queryId, String backend) {
+    cacheBackendForQueryId(queryId, backend);
+  }
+
+  /**
+   * Only caches the backend of a query, e.g. one loaded from the query history, without the
+   * bookkeeping subclasses do for newly submitted queries.
+   */
+  public void cacheBackendForQueryId(String queryId, String backend) {
     queryIdBackendCache.put(queryId, backend);
+    coordinatorFingerprints.learn(queryId, backend);
+  }
+
+  /**
+   * Saves the query id cache, see {@link QueryIdBackendMap#writeTo(DataOutput)}.
+   */
+  public void writeQueryIdCache(DataOutput out) throws IOException {
+    queryIdBackendCache.writeTo(out);
+  }
+
+  /**
+   * Adds the entries of a saved query id cache, see {@link QueryIdBackendMap#readFrom(DataInput)}.
+   */
+  public void readQueryIdCache(DataInput in) throws IOException {
+    queryIdBackendCache.readFrom(in);
+  }
+
+  /**
+   * Whether {@link #queryProgressed(String, boolean)} should be called for result pages. Off by
+   * default, so result pages are passed through without being inspected.
+   */
+  public boolean isQueryProgressTracked() {
+    return false;
+  }
+
+  /**
+   * Called for each result page of a query proxied by this gateway, when
+   * {@link #isQueryProgressTracked()}.
+   * @param queryId Query id
+   * @param finished If the page is the last one, or the query is gone or cancelled
+   */
+  public void queryProgressed(String queryId, boolean finished) {
+  }
+
+  /**
+   * Whether {@link #backendResponded(String, long, long)} should be called for query requests
+   * proxied to backends. Off by default.
+   */
+  public boolean isBackendLatencyTracked() {
+    return false;
+  }
+
+  /**
+   * Called when a backend starts to respond to a query request proxied by this gateway, when
+   * {@link #isBackendLatencyTracked()}.
+   * @param backend Address of the backend
+   * @param connectNanos Time to get a connection to the backend
+   * @param timeToFirstByteNanos Time from sending the request to the start of the response,
+   *     negative if not measured for this request
+   */
+  public void backendResponded(String backend, long connectNanos, long timeToFirstByteNanos) {
   }
 
   /**
-   * Updates the internal routing groups.
-   * @param groups Routing groups
+   * Returns the backends and routing groups currently used for routing.
    */
-  public void updateRoutingGroups(List<RoutingGroupConfiguration> groups) {
+  public BackendRegistry getBackendRegistry() {
+    return backendRegistry.get();
+  }
+
+  /**
+   * Publishes a new backend registry built from the given state, if it changed.
+   * @param backends All backends
+   * @param groups All routing groups
+   */
+  public void updateBackendRegistry(List<ProxyBackendConfiguration> backends,
+      List<RoutingGroupConfiguration> groups) {
     synchronized (lockObject) {
-      routingGroups.clear();
-      for (RoutingGroupConfiguration group : groups) {
-        routingGroups.put(group.getName(), group.isActive());
+      BackendRegistry current = backendRegistry.get();
+      BackendRegistry updated = current.update(backends, groups);
+      if (updated != current) {
+        log.debug("Loaded backend registry {}", updated);
+        backendRegistry.set(updated);
+        coordinatorFingerprints.retainBackends(updated.getAllBackends().stream()
+            .map(ProxyBackendConfiguration::getProxyTo)
+            .collect(Collectors.toSet()));
       }
     }
   }
 
   /**
-   * Updates the backend map.
-   * @param map Updated map of backends.
+   * Reloads the backend registry from the database. On failure the previous registry is kept.
    */
-  public void updateBackendProxyMap(List<ProxyBackendConfiguration> clusters) {
-    synchronized (lockObject) {
-      backendProxyMap.clear();
-      for (ProxyBackendConfiguration cluster : clusters) {
-        backendProxyMap.put(cluster.getName(), cluster.getProxyTo());
-      }
+  public void refreshBackendRegistry() {
+    try {
+      List<ProxyBackendConfiguration> backends = gatewayBackendManager.getAllBackends();
+      updateBackendRegistry(backends, routingGroupsManager.getAllRoutingGroups(backends));
+    } catch (Exception e) {
+      log.error("Error refreshing backend registry, keeping version {}",
+          backendRegistry.get().getVersion(), e);
     }
   }
 
@@ -100,19 +167,19 @@ public abstract class RoutingManager {
    * @return
    */
   public String provideAdhocBackend() {
-    List<ProxyBackendConfiguration> backends = this.gatewayBackendManager.getActiveAdhocBackends();
+    BackendRegistry registry = backendRegistry.get();
+    List<ProxyBackendConfiguration> backends = registry.getActiveBackends(ADHOC);
 
     if (backends.size() == 0) {
       throw new IllegalStateException("No adhoc backends are currently available");
     }
 
-    if (!routingGroups.get("adhoc")) {
+    if (!registry.isRoutingGroupActive(ADHOC)) {
       throw new IllegalStateException(
           "All available backends are currently undergoing maintainence");
     }
 
-    int backendId = Math.abs(RANDOM.nextInt()) % backends.size();
-    return backends.get(backendId).getProxyTo();
+    return backends.get(ThreadLocalRandom.current().nextInt(backends.size())).getProxyTo();
   }
 
   /**
@@ -122,78 +189,58 @@ public abstract class RoutingManager {
    * @return
    */
   public String provideBackendForRoutingGroup(String routingGroup) {
-    List<ProxyBackendConfiguration> backends =
-        gatewayBackendManager.getActiveBackends(routingGroup);
+    BackendRegistry registry = backendRegistry.get();
+    List<ProxyBackendConfiguration> backends = registry.getActiveBackends(routingGroup);
 
     if (backends.isEmpty()
-        || !routingGroups.get(routingGroup)) {
+        || !registry.isRoutingGroupActive(routingGroup)) {
       log.warn("Routing group {} is currently paused or has no active backends, "
           + "routing {} to adhoc", routingGroup);
       return provideAdhocBackend();
     }
 
-    int backendId = Math.abs(RANDOM.nextInt()) % backends.size();
-    return backends.get(backendId).getProxyTo();
+    return backends.get(ThreadLocalRandom.current().nextInt(backends.size())).getProxyTo();
   }
 
   /**
-   * Performs cache look up, if a backend not found, it checks with all backends and tries to find
-   * out which backend has info about given query id.
+   * Performs cache look up, if a backend not found, it looks up the coordinator of the query id
+   * and otherwise checks with all backends and tries to find out which backend has info about
+   * given query id.
    *
    * @param queryId
    * @return
    */
   public String findBackendForQueryId(String queryId) {
-    String backendAddress = null;
-    try {
-      backendAddress = queryIdBackendCache.get(queryId);
-    } catch (ExecutionException e) {
-      log.error("Exception while loading queryId from cache {}", e.getLocalizedMessage());
+    String backendAddress = queryIdBackendCache.get(queryId);
+    if (backendAddress == null) {
+      backendAddress = coordinatorFingerprints.getBackend(queryId);
+      if (backendAddress != null) {
+        log.debug("Found query [{}] on backend [{}] by its coordinator", queryId,
+            backendAddress);
+      } else {
+        backendAddress = findBackendForUnknownQueryId(queryId);
+      }
+      if (backendAddress == null) {
+        // Fallback on first active backend if queryId mapping not found, without caching it
+        return backendRegistry.get().getActiveBackends(ADHOC).get(0).getProxyTo();
+      }
+      queryIdBackendCache.put(queryId, backendAddress);
+      coordinatorFingerprints.learn(queryId, backendAddress);
     }
     return backendAddress;
   }
 
   /**
-   * This tries to find out which backend may have info about given query id. If not found returns
-   * the first healthy backend.
+   * This tries to find out which backend may have info about given query id, by asking all
+   * backends at once.
    *
    * @param queryId
-   * @return
+   * @return The backend, null if not found
    */
   protected String findBackendForUnknownQueryId(String queryId) {
-    List<ProxyBackendConfiguration> backends = gatewayBackendManager.getAllBackends();
-
-    Map<String, Future<Integer>> responseCodes = new HashMap<>();
-    try {
-      for (ProxyServerConfiguration backend : backends) {
-        String target = backend.getProxyTo() + "/v1/query/" + queryId;
-
-        Future<Integer> call =
-            executorService.submit(
-                () -> {
-                  URL url = new URL(target);
-                  HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                  conn.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(5));
-                  conn.setReadTimeout((int) TimeUnit.SECONDS.toMillis(5));
-                  conn.setRequestMethod(HttpMethod.HEAD);
-                  return conn.getResponseCode();
-                });
-        responseCodes.put(backend.getProxyTo(), call);
-      }
-      for (Map.Entry<String, Future<Integer>> entry : responseCodes.entrySet()) {
-        if (entry.getValue().isDone()) {
-          int responseCode = entry.getValue().get();
-          if (responseCode == 200) {
-            log.info("Found query [{}] on backend [{}]", queryId, entry.getKey());
-            setBackendForQueryId(queryId, entry.getKey());
-            return entry.getKey();
-          }
-        }
-      }
-    } catch (Exception e) {
-      log.warn("Query id [{}] not found", queryId);
-    }
-    // Fallback on first active backend if queryId mapping not found.
-    return gatewayBackendManager.getActiveAdhocBackends().get(0).getProxyTo();
+    List<String> backends = backendRegistry.get().getAllBackends().stream()
+        .map(ProxyServerConfiguration::getProxyTo)
+        .collect(Collectors.toList());
+    return queryIdLocator.locate(queryId, backends);
   }
 }
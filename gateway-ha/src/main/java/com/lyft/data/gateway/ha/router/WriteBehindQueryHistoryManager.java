@@ -0,0 +1,167 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.lyft.data.gateway.ha.config.QueryHistoryWriterConfiguration;
+
+import io.dropwizard.lifecycle.Managed;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Query history manager that takes the database off the request path. Submitted query details
+ * are put on a bounded queue and a single writer thread persists them in batches, flushing when
+ * a batch is full or when the first query detail of a batch has waited for the linger time.
+ * Reads go straight to the underlying {@link HaQueryHistoryManager}.
+ */
+@Slf4j
+public class WriteBehindQueryHistoryManager implements QueryHistoryManager, Managed {
+  public static final String METRIC_PREFIX = "queryHistory.writer";
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+  private final HaQueryHistoryManager delegate;
+  private final QueryHistoryWriterConfiguration configuration;
+  private final BlockingQueue<QueryDetail> queue;
+  private final Thread writerThread;
+  private final Timer flushTimer;
+  private final Histogram batchSizes;
+  private final Meter droppedMeter;
+
+  private volatile boolean running = true;
+
+  /**
+   * Creates the manager, the writer thread starts with {@link #start()}.
+   * @param delegate Manager used to persist and read query history
+   * @param configuration Queue and batching settings
+   * @param metricRegistry Registry for the writer metrics
+   */
+  public WriteBehindQueryHistoryManager(HaQueryHistoryManager delegate,
+      QueryHistoryWriterConfiguration configuration, MetricRegistry metricRegistry) {
+    this.delegate = delegate;
+    this.configuration = configuration;
+    this.queue = new ArrayBlockingQueue<>(configuration.getQueueCapacity());
+    this.writerThread = new Thread(this::drain, "query-history-writer");
+    this.writerThread.setDaemon(true);
+
+    metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "queueDepth"),
+        (Gauge<Integer>) queue::size);
+    this.flushTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "flush"));
+    this.batchSizes = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "batchSize"));
+    this.droppedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "dropped"));
+  }
+
+  @Override
+  public void submitQueryDetail(QueryDetail queryDetail) {
+    if (queue.offer(queryDetail)) {
+      return;
+    }
+    switch (configuration.getOverflowPolicy()) {
+      case CALLER_RUNS:
+        delegate.submitQueryDetail(queryDetail);
+        break;
+      case DROP_OLDEST:
+        // Another submitter may refill the slot first, then the newest one is dropped after all
+        if (queue.poll() != null) {
+          droppedMeter.mark();
+        }
+        if (!queue.offer(queryDetail)) {
+          droppedMeter.mark();
+        }
+        break;
+      case DROP_NEWEST:
+      default:
+        droppedMeter.mark();
+        log.debug("Query history queue is full, dropping [{}]", queryDetail.getQueryId());
+        break;
+    }
+  }
+
+  @Override
+  public List<QueryDetail> fetchQueryHistory() {
+    return delegate.fetchQueryHistory();
+  }
+
+  @Override
+  public String getBackendForQueryId(String queryId) {
+    return delegate.getBackendForQueryId(queryId);
+  }
+
+  @Override
+  public int forEachQueryBackendSince(long createdSinceMillis,
+      BiConsumer<String, String> consumer) {
+    return delegate.forEachQueryBackendSince(createdSinceMillis, consumer);
+  }
+
+  @Override
+  public void start() {
+    writerThread.start();
+  }
+
+  /**
+   * Stops the writer thread and flushes whatever is still queued.
+   */
+  @Override
+  public void stop() throws InterruptedException {
+    // Not interrupted, so an in flight batch insert is never cut short. The writer notices
+    // within its poll timeout.
+    running = false;
+    writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+    List<QueryDetail> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    if (!remaining.isEmpty()) {
+      flush(remaining);
+    }
+  }
+
+  private void drain() {
+    int batchSize = configuration.getBatchSize();
+    List<QueryDetail> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        QueryDetail first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(configuration.getLingerMillis());
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long remainingNanos = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || remainingNanos <= 0) {
+            break;
+          }
+          QueryDetail next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        log.warn("Query history writer interrupted, flushing {} query details", batch.size());
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        flush(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<QueryDetail> batch) {
+    batchSizes.update(batch.size());
+    try (Timer.Context ignored = flushTimer.time()) {
+      delegate.submitQueryDetails(batch);
+    } catch (Exception e) {
+      log.error("Error persisting {} query history rows", batch.size(), e);
+    }
+  }
+}
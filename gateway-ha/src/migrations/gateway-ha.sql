@@ -10,7 +10,8 @@ CREATE TABLE IF NOT EXISTS gateway_backend (
 name VARCHAR(256) PRIMARY KEY,
 routing_group VARCHAR (256),
 backend_url VARCHAR (256),
-active BOOLEAN
+active BOOLEAN,
+capacity_weight DOUBLE
 );
 
 CREATE TABLE IF NOT EXISTS query_history (
@@ -76,6 +76,15 @@ public class HaGatewayTestUtils {
   }
 
   public static TestConfig buildGatewayConfigAndSeedDb(int routerPort) throws IOException {
+    return buildGatewayConfigAndSeedDb(routerPort, false);
+  }
+
+  /**
+   * Writes a gateway config from the test template and seeds its database.
+   * @param statelessRouting Whether the gateway rewrites the URIs of query responses
+   */
+  public static TestConfig buildGatewayConfigAndSeedDb(int routerPort, boolean statelessRouting)
+      throws IOException {
     TestConfig testConfig = new TestConfig();
     
     File baseDir = new File(System.getProperty("java.io.tmpdir"));
@@ -86,6 +95,7 @@ public class HaGatewayTestUtils {
     String configStr = getResourceFileContent("test-config-template.yml")
         .replace("REQUEST_ROUTER_PORT", String.valueOf(routerPort))
         .replace("DB_FILE_PATH", tempH2DbDir.getAbsolutePath())
+        .replace("statelessRouting: false", "statelessRouting: " + statelessRouting)
         .replace(
             "APPLICATION_CONNECTOR_PORT", String.valueOf(30000 + (int) (Math.random() * 1000)))
         .replace("ADMIN_CONNECTOR_PORT", String.valueOf(31000 + (int) (Math.random() * 1000)));
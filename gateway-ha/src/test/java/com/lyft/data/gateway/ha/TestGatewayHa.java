@@ -115,6 +115,28 @@ public class TestGatewayHa {
     Assert.assertEquals(response4.body().string(), EXPECTED_RESPONSE2);
   }
 
+  @Test
+  public void testPushClusterStats() throws Exception {
+    RequestBody requestBody = RequestBody.create(
+        MediaType.parse("application/json; charset=utf-8"),
+        "{\"clusterId\": \"presto1\", \"healthy\": true, \"numWorkerNodes\": 5, "
+            + "\"queuedQueryCount\": 2, \"runningQueryCount\": 10}");
+    Request request = new Request.Builder()
+        .url("http://localhost:" + routerPort + "/gateway/stats/push")
+        .post(requestBody)
+        .build();
+    Response response = httpClient.newCall(request).execute();
+    Assert.assertEquals(response.code(), 200);
+
+    RequestBody unknownBackend = RequestBody.create(
+        MediaType.parse("application/json; charset=utf-8"), "{\"clusterId\": \"unknown\"}");
+    Request unknownRequest = new Request.Builder()
+        .url("http://localhost:" + routerPort + "/gateway/stats/push")
+        .post(unknownBackend)
+        .build();
+    Assert.assertEquals(httpClient.newCall(unknownRequest).execute().code(), 404);
+  }
+
   @AfterClass(alwaysRun = true)
   public void cleanup() {
     backend.stop();
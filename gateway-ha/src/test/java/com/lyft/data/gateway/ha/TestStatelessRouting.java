@@ -0,0 +1,81 @@
+package com.lyft.data.gateway.ha;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Runs a gateway of its own with stateless routing enabled, which is off by default.
+ */
+public class TestStatelessRouting {
+  private final OkHttpClient httpClient = new OkHttpClient();
+
+  final int routerPort = 21000 + (int) (Math.random() * 900);
+  final int backendPort = routerPort + 1;
+
+  private WireMockServer backend =
+      new WireMockServer(WireMockConfiguration.options().port(backendPort));
+
+  @BeforeClass(alwaysRun = true)
+  public void setup() throws Exception {
+    HaGatewayTestUtils.prepareMockBackend(backend, "/v1/statement", "{\"id\":\"testId\"}");
+
+    HaGatewayTestUtils.TestConfig testConfig =
+        HaGatewayTestUtils.buildGatewayConfigAndSeedDb(routerPort, true);
+    String[] args = { "server", testConfig.getConfigFilePath() };
+    HaGatewayLauncher.main(args);
+
+    HaGatewayTestUtils.setUpBackend(
+        "presto", "http://localhost:" + backendPort, true, "singleRG", routerPort);
+
+    // Give time for the server to update with the new backends and groups
+    Thread.sleep(5000);
+  }
+
+  @Test
+  public void testStatelessRouting() throws Exception {
+    // A query id this gateway has not seen, so only the token routes the page
+    String pagePath = "/v1/statement/executing/20261017_101010_00002_fghij/y1/1";
+    backend.stubFor(WireMock.post(WireMock.urlPathEqualTo("/v1/statement"))
+        .withHeader("X-Presto-Source", WireMock.equalTo("stateless"))
+        .willReturn(WireMock.aResponse()
+            .withStatus(200)
+            .withBody("{\"id\":\"20261017_101010_00001_abcde\",\"nextUri\":\"http://localhost:"
+                + backendPort + pagePath + "\",\"stats\":{\"state\":\"QUEUED\"}}")));
+    backend.stubFor(WireMock.get(WireMock.urlEqualTo(pagePath))
+        .willReturn(WireMock.aResponse().withStatus(200).withBody("{\"id\":\"page\"}")));
+
+    Request request = new Request.Builder()
+        .url("http://localhost:" + routerPort + "/v1/statement")
+        .post(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), "SELECT 1"))
+        .addHeader("X-Presto-Routing-Group", "singleRG")
+        .addHeader("X-Presto-Source", "stateless")
+        .build();
+    String body = httpClient.newCall(request).execute().body().string();
+    Matcher nextUri = Pattern.compile("\"nextUri\":\"([^\"]+)\"").matcher(body);
+    Assert.assertTrue(nextUri.find(), body);
+    Assert.assertTrue(
+        nextUri.group(1).startsWith("http://localhost:" + routerPort + pagePath + "?"), body);
+    Assert.assertTrue(body.endsWith(",\"stats\":{\"state\":\"QUEUED\"}}"), body);
+
+    Response page = httpClient.newCall(new Request.Builder().url(nextUri.group(1)).build())
+        .execute();
+    Assert.assertEquals(page.body().string(), "{\"id\":\"page\"}");
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanup() {
+    backend.stop();
+  }
+}
@@ -0,0 +1,147 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.config.MonitorConfiguration;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@Test
+public class TestActiveClusterMonitor {
+  private static final String STATS = "{\"activeWorkers\": 3, \"queuedQueries\": 7, "
+      + "\"runningQueries\": 2, \"blockedQueries\": 0}";
+  private static final long BACKEND_TIMEOUT_MILLIS = 500;
+
+  private final WireMockServer fastBackend =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final WireMockServer slowBackend =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+  private final AtomicReference<List<ClusterStats>> published = new AtomicReference<>();
+  private ActiveClusterMonitor monitor;
+  private List<ProxyBackendConfiguration> backends;
+
+  @BeforeClass(alwaysRun = true)
+  public void setup() {
+    fastBackend.start();
+    slowBackend.start();
+    stubStats(fastBackend, 0);
+    stubStats(slowBackend, 0);
+
+    MonitorConfiguration configuration = new MonitorConfiguration();
+    configuration.setBackendTimeoutMillis(BACKEND_TIMEOUT_MILLIS);
+    PrestoClusterStatsObserver observer = new PrestoClusterStatsObserver() {
+      @Override
+      public void observe(List<ClusterStats> stats) {
+        published.set(stats);
+      }
+
+      @Override
+      public boolean isFastPath() {
+        return true;
+      }
+    };
+    monitor = new ActiveClusterMonitor(ImmutableList.of(observer), null, configuration,
+        metricRegistry);
+    backends = ImmutableList.of(backend("fast", fastBackend), backend("slow", slowBackend));
+  }
+
+  private static void stubStats(WireMockServer server, int delayMillis) {
+    server.resetAll();
+    server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/v1/info"))
+        .willReturn(WireMock.aResponse()
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody("{\"nodeVersion\": {\"version\": \"0.245.1\"}, \"coordinator\": true}")));
+    server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/v1/cluster"))
+        .willReturn(WireMock.aResponse()
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withFixedDelay(delayMillis)
+            .withBody(STATS)));
+  }
+
+  private static ProxyBackendConfiguration backend(String name, WireMockServer server) {
+    ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+    backend.setName(name);
+    backend.setProxyTo("http://localhost:" + server.port());
+    backend.setRoutingGroup("adhoc");
+    return backend;
+  }
+
+  public void testStragglerIsMarkedStale() throws Exception {
+    long now = System.currentTimeMillis();
+    List<ClusterStats> stats = poll(now, false);
+    Assert.assertTrue(stats.get(1).isHealthy());
+    Assert.assertFalse(stats.get(1).isStale());
+    Assert.assertEquals(stats.get(1).getQueuedQueryCount(), 7);
+    // Queued queries put both backends on the shortest interval
+    Assert.assertEquals(metricRegistry.getGauges()
+        .get(ActiveClusterMonitor.intervalMetric("fast")).getValue(), 250L);
+    Assert.assertEquals(metricRegistry.meter(ActiveClusterMonitor.pollRateMetric("fast"))
+        .getCount(), 1);
+
+    // The slow backend now hangs well past its deadline
+    stubStats(slowBackend, 10000);
+    long start = System.currentTimeMillis();
+    stats = poll(now + 1000, true);
+    long elapsed = System.currentTimeMillis() - start;
+
+    Assert.assertTrue(elapsed < 5000, "Poll took " + elapsed + " ms");
+    Assert.assertEquals(stats.get(0).getClusterId(), "fast");
+    Assert.assertTrue(stats.get(0).isHealthy());
+    Assert.assertFalse(stats.get(0).isStale());
+    Assert.assertEquals(stats.get(1).getClusterId(), "slow");
+    Assert.assertTrue(stats.get(1).isHealthy());
+    Assert.assertTrue(stats.get(1).isStale());
+    Assert.assertEquals(stats.get(1).getQueuedQueryCount(), 7);
+    Assert.assertEquals(metricRegistry.meter(ActiveClusterMonitor.pollRateMetric("slow"))
+        .getCount(), 2);
+    // Published by the poll callbacks, without waiting for the next tick
+    awaitPublished(stats);
+  }
+
+  @Test(dependsOnMethods = "testStragglerIsMarkedStale")
+  public void testRemovedBackendIsForgotten() throws Exception {
+    monitor.pollBackends(ImmutableList.of(backends.get(0)), System.currentTimeMillis());
+    Assert.assertTrue(monitor.getCurrentStats(backends.subList(1, 2)).isEmpty());
+    Assert.assertFalse(metricRegistry.getMeters()
+        .containsKey(ActiveClusterMonitor.pollRateMetric("slow")));
+  }
+
+  private List<ClusterStats> poll(long now, boolean expectStale) throws InterruptedException {
+    monitor.pollBackends(backends, now);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      List<ClusterStats> stats = monitor.getCurrentStats(backends);
+      if (stats.size() == backends.size() && stats.get(1).isStale() == expectStale) {
+        return stats;
+      }
+      Thread.sleep(20);
+    }
+    throw new AssertionError("Stats of " + backends + " did not arrive");
+  }
+
+  private void awaitPublished(List<ClusterStats> stats) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline && !stats.equals(published.get())) {
+      Thread.sleep(20);
+    }
+    Assert.assertEquals(published.get(), stats);
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanup() {
+    monitor.stop();
+    fastBackend.stop();
+    slowBackend.stop();
+  }
+}
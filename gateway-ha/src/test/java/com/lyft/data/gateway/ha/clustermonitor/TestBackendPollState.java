@@ -0,0 +1,71 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestBackendPollState {
+
+  private static ClusterStats stats(boolean healthy, int queued, int running) {
+    ClusterStats stats = new ClusterStats();
+    stats.setHealthy(healthy);
+    stats.setQueuedQueryCount(queued);
+    stats.setRunningQueryCount(running);
+    return stats;
+  }
+
+  public void testIntervalAdaptsToLoad() {
+    BackendPollState state = new BackendPollState(250, 5000, 20000, 15000);
+    Assert.assertTrue(state.isDue(0));
+    state.pollStarted();
+    Assert.assertFalse(state.isDue(Long.MAX_VALUE));
+
+    // Queued queries poll at the minimum interval
+    state.pollCompleted(stats(true, 3, 10), 1000);
+    Assert.assertEquals(state.getIntervalMillis(), 250);
+    Assert.assertFalse(state.isDue(1249));
+    Assert.assertTrue(state.isDue(1250));
+
+    // A draining queue is still moving
+    state.pollCompleted(stats(true, 0, 10), 1250);
+    Assert.assertEquals(state.getIntervalMillis(), 250);
+
+    // Running queries back off towards the default interval
+    for (int i = 0; i < 10; i++) {
+      state.pollCompleted(stats(true, 0, 10), 2000);
+    }
+    Assert.assertEquals(state.getIntervalMillis(), 5000);
+
+    // Idle clusters back off to the maximum
+    for (int i = 0; i < 10; i++) {
+      state.pollCompleted(stats(true, 0, 0), 2000);
+    }
+    Assert.assertEquals(state.getIntervalMillis(), 20000);
+
+    // Running queries bring it back to the default interval
+    state.pollCompleted(stats(true, 0, 1), 2000);
+    Assert.assertEquals(state.getIntervalMillis(), 5000);
+  }
+
+  public void testUnhealthyBackendUsesDefaultInterval() {
+    BackendPollState state = new BackendPollState(250, 5000, 20000, 15000);
+    state.pollCompleted(stats(true, 3, 0), 0);
+    Assert.assertEquals(state.getIntervalMillis(), 250);
+    state.pollCompleted(stats(false, 0, 0), 0);
+    Assert.assertEquals(state.getIntervalMillis(), 5000);
+  }
+
+  public void testPushPostponesPolling() {
+    BackendPollState state = new BackendPollState(250, 5000, 20000, 15000);
+    state.pushReceived(1000);
+    Assert.assertFalse(state.isDue(15999));
+    Assert.assertTrue(state.isDue(16000));
+    Assert.assertTrue(state.isPushedSince(1000));
+    Assert.assertFalse(state.isPushedSince(1001));
+
+    // A poll that completes while pushes keep coming doesn't bring polling forward
+    state.pollStarted();
+    state.pollCompleted(stats(true, 3, 0), 2000);
+    Assert.assertFalse(state.isDue(15999));
+  }
+}
@@ -0,0 +1,44 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestCapacityNormalizedLoadScore {
+  private final LoadScoreFunction loadScore = new CapacityNormalizedLoadScore();
+
+  private static ClusterStats stats(int workers, double capacityWeight, int running, int blocked,
+      int queued) {
+    ClusterStats stats = new ClusterStats();
+    stats.setHealthy(true);
+    stats.setNumWorkerNodes(workers);
+    stats.setCapacityWeight(capacityWeight);
+    stats.setRunningQueryCount(running);
+    stats.setBlockedQueryCount(blocked);
+    stats.setQueuedQueryCount(queued);
+    return stats;
+  }
+
+  public void testNormalizedByCapacity() {
+    ClusterStats small = stats(10, 1.0, 20, 0, 0);
+    ClusterStats moreWorkers = stats(20, 1.0, 20, 0, 0);
+    ClusterStats largerWorkers = stats(10, 2.0, 20, 0, 0);
+    Assert.assertEquals(loadScore.score(small), 2.0, 0.0001);
+    Assert.assertEquals(loadScore.score(moreWorkers), 1.0, 0.0001);
+    Assert.assertEquals(loadScore.score(largerWorkers), 1.0, 0.0001);
+    Assert.assertEquals(loadScore.scorePerQuery(small), 0.1, 0.0001);
+    Assert.assertEquals(loadScore.scorePerQuery(largerWorkers), 0.05, 0.0001);
+  }
+
+  public void testQueuedAndBlockedQueries() {
+    ClusterStats blocked = stats(10, 1.0, 10, 10, 0);
+    ClusterStats queued = stats(10, 1.0, 10, 0, 10);
+    Assert.assertEquals(loadScore.score(blocked), 2.0, 0.0001);
+    Assert.assertEquals(loadScore.score(queued), 3.0, 0.0001);
+    Assert.assertTrue(loadScore.scorePerQuery(queued) > loadScore.scorePerQuery(blocked));
+  }
+
+  public void testUnsetCapacityWeight() {
+    Assert.assertEquals(loadScore.score(stats(4, 0, 8, 0, 0)), 2.0, 0.0001);
+  }
+}
@@ -0,0 +1,50 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestClusterStatsDecoder {
+
+  private static InputStream json(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public void testDecodeStats() throws IOException {
+    ClusterStats stats = new ClusterStats();
+    ClusterStatsDecoder.decodeStats(json("{\"runningQueries\": 12, \"blockedQueries\": 1, "
+        + "\"queuedQueries\": 30, \"activeCoordinators\": 1, \"activeWorkers\": 8, "
+        + "\"runningDrivers\": 4000, \"reservedMemory\": 6.442450944E10, "
+        + "\"totalInputRows\": 91234567890123, \"nested\": {\"activeWorkers\": 99}, "
+        + "\"list\": [1, 2, {\"queuedQueries\": 99}]}"), stats);
+
+    Assert.assertEquals(stats.getRunningQueryCount(), 12);
+    Assert.assertEquals(stats.getBlockedQueryCount(), 1);
+    Assert.assertEquals(stats.getQueuedQueryCount(), 30);
+    Assert.assertEquals(stats.getNumWorkerNodes(), 8);
+    Assert.assertEquals(stats.getReservedMemoryBytes(), 64424509440L);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testMissingCountsAreRejected() throws IOException {
+    ClusterStatsDecoder.decodeStats(json("{\"runningQueries\": 12}"), new ClusterStats());
+  }
+
+  public void testDecodeVersion() throws IOException {
+    Assert.assertEquals(ClusterStatsDecoder.decodeVersion(json("{\"environment\": \"prod\", "
+        + "\"nodeVersion\": {\"version\": \"351\"}, \"coordinator\": true}")), "351");
+    Assert.assertNull(ClusterStatsDecoder.decodeVersion(json("{\"coordinator\": true}")));
+  }
+
+  public void testStatsEndpointForVersion() {
+    Assert.assertEquals(StatsEndpoint.forVersion("0.245.1"), StatsEndpoint.CLUSTER);
+    Assert.assertEquals(StatsEndpoint.forVersion("318"), StatsEndpoint.CLUSTER);
+    Assert.assertEquals(StatsEndpoint.forVersion("331"), StatsEndpoint.UI_STATS);
+    Assert.assertEquals(StatsEndpoint.forVersion("351-e.1"), StatsEndpoint.UI_STATS);
+    Assert.assertEquals(StatsEndpoint.forVersion(null), StatsEndpoint.CLUSTER);
+  }
+}
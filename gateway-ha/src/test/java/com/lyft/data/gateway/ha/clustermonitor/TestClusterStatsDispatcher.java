@@ -0,0 +1,83 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestClusterStatsDispatcher {
+
+  private static class RecordingObserver implements PrestoClusterStatsObserver {
+    final List<List<ClusterStats>> observed = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void observe(List<ClusterStats> stats) {
+      observed.add(stats);
+    }
+
+    @Override
+    public boolean isFastPath() {
+      return true;
+    }
+  }
+
+  private static class BlockingObserver implements PrestoClusterStatsObserver {
+    final List<List<ClusterStats>> observed = new CopyOnWriteArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void observe(List<ClusterStats> stats) {
+      started.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      observed.add(stats);
+    }
+  }
+
+  private static List<ClusterStats> snapshot(int queuedQueries) {
+    ClusterStats stats = new ClusterStats();
+    stats.setClusterId("presto");
+    stats.setQueuedQueryCount(queuedQueries);
+    return ImmutableList.of(stats);
+  }
+
+  public void testSlowObserverIsCoalesced() throws Exception {
+    RecordingObserver fast = new RecordingObserver();
+    BlockingObserver slow = new BlockingObserver();
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ClusterStatsDispatcher dispatcher =
+        new ClusterStatsDispatcher(ImmutableList.of(slow, fast), metricRegistry);
+
+    dispatcher.dispatch(snapshot(0));
+    Assert.assertTrue(slow.started.await(10, TimeUnit.SECONDS));
+    // The slow observer is stuck, the fast one still sees every snapshot right away
+    for (int i = 1; i <= 10; i++) {
+      dispatcher.dispatch(snapshot(i));
+      Assert.assertEquals(fast.observed.size(), i + 1);
+    }
+    slow.release.countDown();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (slow.observed.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    // Only the first and the latest snapshot reach the slow observer
+    Assert.assertEquals(slow.observed.size(), 2);
+    Assert.assertEquals(slow.observed.get(1).get(0).getQueuedQueryCount(), 10);
+    Assert.assertEquals(metricRegistry.meter(MetricRegistry.name(
+        ClusterStatsDispatcher.METRIC_PREFIX, "BlockingObserver", "coalesced")).getCount(), 9);
+    Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(
+        ClusterStatsDispatcher.METRIC_PREFIX, "BlockingObserver", "lag")).getCount(), 2);
+    dispatcher.stop();
+  }
+}
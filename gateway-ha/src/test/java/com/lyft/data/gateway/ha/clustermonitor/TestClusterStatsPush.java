@@ -0,0 +1,100 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.HaGatewayTestUtils;
+import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
+import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
+import com.lyft.data.gateway.ha.config.MonitorConfiguration;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RequestRouterConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
+import com.lyft.data.gateway.ha.router.HaGatewayManager;
+import com.lyft.data.gateway.ha.router.HaQueryHistoryManager;
+import com.lyft.data.gateway.ha.router.PrestoQueueLengthRoutingTable;
+import com.lyft.data.gateway.ha.router.RoutingGroupsManager;
+import java.io.File;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@Test
+public class TestClusterStatsPush {
+  private static final String ROUTING_GROUP = "adhoc";
+  private PrestoQueueLengthRoutingTable routingTable;
+  private ActiveClusterMonitor monitor;
+
+  @BeforeClass(alwaysRun = true)
+  public void setUp() {
+    File baseDir = new File(System.getProperty("java.io.tmpdir"));
+    File tempH2DbDir = new File(baseDir, "h2db-push-" + System.currentTimeMillis());
+    tempH2DbDir.deleteOnExit();
+    HaGatewayTestUtils.seedRequiredData(
+        new HaGatewayTestUtils.TestConfig("", tempH2DbDir.getAbsolutePath()));
+    DataStoreConfiguration db = new DataStoreConfiguration(
+        "jdbc:h2:" + tempH2DbDir.getAbsolutePath(), "sa", "sa", "org.h2.Driver");
+    JdbcConnectionManager connectionManager = new JdbcConnectionManager(db);
+    HaGatewayConfiguration gatewayConf = new HaGatewayConfiguration();
+    gatewayConf.setRequestRouter(new RequestRouterConfiguration());
+    HaGatewayManager backendManager = new HaGatewayManager(connectionManager);
+    RoutingGroupsManager routingGroupsManager = new RoutingGroupsManager(connectionManager);
+    routingTable = new PrestoQueueLengthRoutingTable(backendManager,
+        new HaQueryHistoryManager(gatewayConf, connectionManager), routingGroupsManager);
+
+    routingGroupsManager.addRoutingGroup(new RoutingGroupConfiguration(ROUTING_GROUP));
+    for (int i = 0; i < 2; i++) {
+      ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+      backend.setActive(true);
+      backend.setRoutingGroup(ROUTING_GROUP);
+      backend.setName("pushed" + i);
+      backend.setProxyTo("http://pushed" + i + ".presto.lyft.com");
+      backendManager.addBackend(backend);
+    }
+    routingTable.refreshBackendRegistry();
+
+    monitor = new ActiveClusterMonitor(
+        ImmutableList.of(new PrestoQueueLengthChecker(routingTable)), routingTable,
+        new MonitorConfiguration(), new MetricRegistry());
+  }
+
+  /**
+   * Stands in for a sidecar that pushes the stats of its coordinator.
+   */
+  private boolean push(String backend, int queuedQueries) {
+    ClusterStats stats = new ClusterStats();
+    stats.setClusterId(backend);
+    stats.setHealthy(true);
+    stats.setNumWorkerNodes(10);
+    stats.setQueuedQueryCount(queuedQueries);
+    return monitor.ingestClusterStats(stats);
+  }
+
+  public void testRoutingReactsToPushedStats() {
+    Assert.assertTrue(push("pushed0", 0));
+    Assert.assertTrue(push("pushed1", 50));
+    Map<String, Integer> weights = routingTable.getInternalWeightedRoutingTable(ROUTING_GROUP);
+    Assert.assertTrue(weights.get("pushed0") > weights.get("pushed1"));
+
+    // The routing table is updated by the time the push returns
+    long start = System.nanoTime();
+    Assert.assertTrue(push("pushed0", 100));
+    final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    Assert.assertEquals(routingTable.getInternalClusterQueueLength(ROUTING_GROUP).get("pushed0"),
+        Integer.valueOf(100));
+    weights = routingTable.getInternalWeightedRoutingTable(ROUTING_GROUP);
+    Assert.assertTrue(weights.get("pushed0") < weights.get("pushed1"));
+    Assert.assertTrue(elapsedMillis < 100, "Push took " + elapsedMillis + " ms");
+  }
+
+  public void testUnknownBackendIsRejected() {
+    Assert.assertFalse(push("unknown", 0));
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanup() {
+    monitor.stop();
+  }
+}
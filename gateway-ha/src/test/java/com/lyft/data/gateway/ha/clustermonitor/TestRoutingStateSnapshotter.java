@@ -0,0 +1,66 @@
+package com.lyft.data.gateway.ha.clustermonitor;
+
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.router.HaRoutingManager;
+import com.lyft.data.gateway.ha.router.RoutingManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestRoutingStateSnapshotter {
+  private static final String QUERY_ID = "20261017_101010_00001_abcde";
+  private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static ClusterStats clusterStats(String clusterId, int queuedQueryCount) {
+    ClusterStats clusterStats = new ClusterStats();
+    clusterStats.setClusterId(clusterId);
+    clusterStats.setProxyTo("http://" + clusterId + ":8080");
+    clusterStats.setRoutingGroup("adhoc");
+    clusterStats.setHealthy(true);
+    clusterStats.setNumWorkerNodes(3);
+    clusterStats.setQueuedQueryCount(queuedQueryCount);
+    clusterStats.setRunningQueryCount(2);
+    clusterStats.setReservedMemoryBytes(1L << 40);
+    clusterStats.setLastUpdated(1000);
+    return clusterStats;
+  }
+
+  public void testWriteAndRestore() throws Exception {
+    Path path = Files.createTempDirectory("snapshot").resolve("routing-state.bin");
+    RoutingStateSnapshotter snapshotter = new RoutingStateSnapshotter(path, MAX_AGE_MILLIS);
+    RoutingManager routingManager = new HaRoutingManager(null, null, null);
+    routingManager.setBackendForQueryId(QUERY_ID, "http://presto1:8080");
+    List<ClusterStats> stats = ImmutableList.of(clusterStats("presto1", 7),
+        clusterStats("presto2", 0));
+    snapshotter.write(stats, routingManager, 2000);
+
+    RoutingManager restartedRoutingManager = new HaRoutingManager(null, null, null);
+    Assert.assertEquals(snapshotter.restore(restartedRoutingManager, 3000), stats);
+    Assert.assertEquals(restartedRoutingManager.findBackendForQueryId(QUERY_ID),
+        "http://presto1:8080");
+
+    // Query ids outlive the stats
+    restartedRoutingManager = new HaRoutingManager(null, null, null);
+    Assert.assertTrue(
+        snapshotter.restore(restartedRoutingManager, 2001 + MAX_AGE_MILLIS).isEmpty());
+    Assert.assertEquals(restartedRoutingManager.findBackendForQueryId(QUERY_ID),
+        "http://presto1:8080");
+  }
+
+  public void testMissingOrCorruptSnapshot() throws Exception {
+    Path path = Files.createTempDirectory("snapshot").resolve("routing-state.bin");
+    RoutingStateSnapshotter snapshotter = new RoutingStateSnapshotter(path, MAX_AGE_MILLIS);
+    RoutingManager routingManager = new HaRoutingManager(null, null, null);
+    Assert.assertTrue(snapshotter.restore(routingManager, 0).isEmpty());
+
+    snapshotter.write(ImmutableList.of(clusterStats("presto1", 7)), routingManager, 0);
+    byte[] bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+    Assert.assertTrue(snapshotter.restore(routingManager, 0).isEmpty());
+  }
+}
@@ -0,0 +1,48 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestKeptPages {
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final KeptPages keptPages = new KeptPages(100, 150, totalBytes);
+
+  public void testPageIsKept() {
+    KeptPages.Page page = keptPages.keep();
+    Assert.assertTrue(page.append(new byte[] {1, 2, 3}, 1, 2));
+    Assert.assertTrue(page.append(new byte[] {4}, 0, 1));
+
+    Assert.assertEquals(page.getContent(), new byte[] {2, 3, 4});
+    Assert.assertEquals(totalBytes.get(), 3);
+    page.release();
+    Assert.assertNull(page.getContent());
+    Assert.assertEquals(totalBytes.get(), 0);
+  }
+
+  public void testOversizedPageIsDropped() {
+    KeptPages.Page page = keptPages.keep();
+    Assert.assertTrue(page.append(new byte[60], 0, 60));
+    Assert.assertFalse(page.append(new byte[60], 0, 60));
+
+    Assert.assertNull(page.getContent());
+    Assert.assertEquals(totalBytes.get(), 0);
+    Assert.assertFalse(page.append(new byte[1], 0, 1));
+    page.release();
+    Assert.assertEquals(totalBytes.get(), 0);
+  }
+
+  public void testPagesShareTheBudget() {
+    KeptPages.Page first = keptPages.keep();
+    KeptPages.Page second = keptPages.keep();
+    Assert.assertTrue(first.append(new byte[100], 0, 100));
+    Assert.assertFalse(second.append(new byte[60], 0, 60));
+
+    Assert.assertNotNull(first.getContent());
+    Assert.assertNull(second.getContent());
+    first.release();
+    Assert.assertEquals(totalBytes.get(), 0);
+    Assert.assertTrue(keptPages.keep().append(new byte[60], 0, 60));
+  }
+}
@@ -0,0 +1,145 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.lyft.data.gateway.ha.config.PagePrefetchConfiguration;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.http.HttpServletRequest;
+import okhttp3.Headers;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TestPagePrefetcher {
+  private static final String QUERY_ID = "20261017_101010_00042_abcde";
+  private static final String PAGE_PATH =
+      "/v1/statement/executing/" + QUERY_ID + "/y0d7/2?slug=x";
+  private static final String PAGE = "{\"id\":\"" + QUERY_ID + "\",\"data\":[[1]]}";
+
+  private final WireMockServer backend =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+      getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getHeaderNames":
+            return Collections.enumeration(Collections.singletonList("X-Trino-User"));
+          case "getHeaders":
+            return Collections.enumeration(Collections.singletonList("alice"));
+          default:
+            return null;
+        }
+      });
+  private MetricRegistry metricRegistry;
+  private PagePrefetcher prefetcher;
+
+  @BeforeClass(alwaysRun = true)
+  public void setup() {
+    backend.start();
+  }
+
+  @BeforeMethod
+  public void resetPrefetcher() {
+    backend.resetAll();
+    backend.stubFor(WireMock.get(WireMock.urlEqualTo(PAGE_PATH))
+        .withHeader("X-Trino-User", WireMock.equalTo("alice"))
+        .willReturn(WireMock.aResponse().withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody(PAGE)
+            .withFixedDelay(100)));
+    PagePrefetchConfiguration configuration = new PagePrefetchConfiguration();
+    configuration.setMaxBytesPerQuery(1024);
+    configuration.setMaxTotalBytes(1024);
+    configuration.setWaitMillis(500);
+    metricRegistry = new MetricRegistry();
+    prefetcher = new PagePrefetcher(configuration, metricRegistry);
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanUp() {
+    backend.stop();
+  }
+
+  public void testPrefetchedPageIsTaken() {
+    prefetcher.prefetch(QUERY_ID, currentPage(), PAGE_PATH, request);
+    PagePrefetcher.Page page = prefetcher.take(QUERY_ID, PAGE_PATH).join();
+
+    Assert.assertNotNull(page);
+    Assert.assertEquals(page.status, 200);
+    Assert.assertEquals(page.path, PAGE_PATH);
+    Assert.assertEquals(new String(page.body, StandardCharsets.UTF_8), PAGE);
+    Assert.assertEquals(page.headers.get("Content-Type"), "application/json");
+    Assert.assertNull(page.headers.get("Content-Length"));
+    Assert.assertEquals(metricRegistry.meter("proxy.prefetch.hits").getCount(), 1);
+    Assert.assertEquals(metricRegistry.histogram("proxy.prefetch.savedMillis").getCount(), 1);
+
+    // Reading ahead of the page releases the page before it
+    prefetcher.prefetch(QUERY_ID, page, PAGE_PATH.replace("/2?", "/3?"), request);
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.prefetch.bytes").getValue(),
+        (long) PAGE.length());
+    prefetcher.discard(QUERY_ID);
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.prefetch.bytes").getValue(), 0L);
+  }
+
+  public void testCurrentPageIsKeptForRetries() {
+    PagePrefetcher.Page current = currentPage();
+    prefetcher.prefetch(QUERY_ID, current, PAGE_PATH, request);
+
+    Assert.assertSame(prefetcher.take(QUERY_ID, current.path).join(), current);
+    Assert.assertSame(prefetcher.take(QUERY_ID, current.path).join(), current);
+    Assert.assertEquals(metricRegistry.meter("proxy.prefetch.retries").getCount(), 2);
+    Assert.assertNotNull(prefetcher.take(QUERY_ID, PAGE_PATH).join());
+  }
+
+  public void testPageIsNotWaitedForPastTheWait() {
+    backend.stubFor(WireMock.get(WireMock.urlEqualTo(PAGE_PATH))
+        .willReturn(WireMock.aResponse().withStatus(200).withBody(PAGE).withFixedDelay(2000)));
+    prefetcher.prefetch(QUERY_ID, currentPage(), PAGE_PATH, request);
+    CompletableFuture<PagePrefetcher.Page> page = prefetcher.take(QUERY_ID, PAGE_PATH);
+
+    Assert.assertFalse(page.isDone());
+    Assert.assertNull(page.join());
+    Assert.assertEquals(metricRegistry.meter("proxy.prefetch.misses").getCount(), 1);
+  }
+
+  public void testOtherPageIsNotTaken() {
+    prefetcher.prefetch(QUERY_ID, currentPage(), PAGE_PATH, request);
+
+    Assert.assertNull(prefetcher.take(QUERY_ID, PAGE_PATH.replace("/2?", "/4?")).join());
+    Assert.assertNotNull(prefetcher.take(QUERY_ID, PAGE_PATH).join());
+  }
+
+  public void testPageOverBudgetIsDropped() {
+    backend.stubFor(WireMock.get(WireMock.urlEqualTo(PAGE_PATH))
+        .willReturn(WireMock.aResponse().withStatus(200).withBody(new byte[2048])));
+    prefetcher.prefetch(QUERY_ID, currentPage(), PAGE_PATH, request);
+
+    Assert.assertNull(prefetcher.take(QUERY_ID, PAGE_PATH).join());
+    Assert.assertEquals(metricRegistry.meter("proxy.prefetch.overBudget").getCount(), 1);
+    prefetcher.discard(QUERY_ID);
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.prefetch.bytes").getValue(), 0L);
+  }
+
+  public void testDiscardedPageIsNotTaken() {
+    prefetcher.prefetch(QUERY_ID, currentPage(), PAGE_PATH, request);
+    prefetcher.discard(QUERY_ID);
+
+    Assert.assertNull(prefetcher.take(QUERY_ID, PAGE_PATH).join());
+    Assert.assertEquals(metricRegistry.meter("proxy.prefetch.discarded").getCount(), 1);
+  }
+
+  private PagePrefetcher.Page currentPage() {
+    return new PagePrefetcher.Page("http://localhost:" + backend.port(),
+        PAGE_PATH.replace("/2?", "/1?"), 200, Headers.of("Content-Type", "application/json"),
+        PAGE.getBytes(StandardCharsets.UTF_8), System.nanoTime());
+  }
+}
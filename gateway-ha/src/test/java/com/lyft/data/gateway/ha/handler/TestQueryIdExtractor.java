@@ -0,0 +1,115 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestQueryIdExtractor {
+  private static final String RESPONSE =
+      "{\"stats\":{\"id\":\"nested\",\"state\":\"QUEUED\"},"
+          + "\"id\":\"20261017_101010_00042_abcde\","
+          + "\"nextUri\":\"http://localhost/v1/statement/queued/20261017_101010_00042_abcde/1\"}";
+  private static final String QUERY_ID = "20261017_101010_00042_abcde";
+
+  @Test
+  public void testSingleChunk() throws Exception {
+    byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+    QueryIdExtractor extractor = new QueryIdExtractor(false);
+    Assert.assertEquals(extractor.feed(body, 0, body.length), QUERY_ID);
+    Assert.assertTrue(extractor.isDone());
+  }
+
+  @Test
+  public void testChunkedPlainText() throws Exception {
+    byte[] body = ("  " + RESPONSE).getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(false), body, 1), QUERY_ID);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(false), body, 7), QUERY_ID);
+  }
+
+  @Test
+  public void testChunkedGzip() throws Exception {
+    byte[] body = gzip(RESPONSE);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(true), body, 1), QUERY_ID);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(true), body, 5), QUERY_ID);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(true), body, body.length), QUERY_ID);
+  }
+
+  @Test
+  public void testGzipHeaderWithoutCompressedBody() throws Exception {
+    byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(feedInChunks(new QueryIdExtractor(true), body, 3), QUERY_ID);
+  }
+
+  @Test
+  public void testMissingId() throws Exception {
+    byte[] body =
+        "{\"error\":{\"id\":\"nested\"}}{\"id\":\"next\"}".getBytes(StandardCharsets.UTF_8);
+    QueryIdExtractor extractor = new QueryIdExtractor(false);
+    Assert.assertNull(feedInChunks(extractor, body, 4));
+    Assert.assertTrue(extractor.isDone());
+  }
+
+  @Test
+  public void testMalformedResponse() throws Exception {
+    byte[] body = "<html>Bad gateway</html>".getBytes(StandardCharsets.UTF_8);
+    QueryIdExtractor extractor = new QueryIdExtractor(false);
+    Assert.assertNull(extractor.feed(body, 0, body.length));
+    Assert.assertTrue(extractor.isDone());
+  }
+
+  @Test
+  public void testPageWithNextUri() throws Exception {
+    QueryIdExtractor extractor = new QueryIdExtractor(false, true);
+    Assert.assertEquals(feedInChunks(extractor, RESPONSE.getBytes(StandardCharsets.UTF_8), 3),
+        QUERY_ID);
+    Assert.assertTrue(extractor.isDone());
+    Assert.assertFalse(extractor.isLastPage());
+    Assert.assertEquals(extractor.getNextUri(),
+        "http://localhost/v1/statement/queued/20261017_101010_00042_abcde/1");
+  }
+
+  @Test
+  public void testLastPage() throws Exception {
+    // Parsing stops at the columns, the rows are never read
+    byte[] body = ("{\"id\":\"" + QUERY_ID + "\",\"infoUri\":\"http://localhost/ui\","
+        + "\"columns\":[{\"name\": not json at all").getBytes(StandardCharsets.UTF_8);
+    QueryIdExtractor extractor = new QueryIdExtractor(false, true);
+    Assert.assertEquals(feedInChunks(extractor, body, 4), QUERY_ID);
+    Assert.assertTrue(extractor.isLastPage());
+
+    extractor = new QueryIdExtractor(true, true);
+    Assert.assertEquals(feedInChunks(extractor, gzip(new String(body, StandardCharsets.UTF_8)),
+        4), QUERY_ID);
+    Assert.assertTrue(extractor.isLastPage());
+
+    extractor = new QueryIdExtractor(false, true);
+    Assert.assertEquals(feedInChunks(extractor,
+        ("{\"id\":\"" + QUERY_ID + "\",\"stats\":{}}").getBytes(StandardCharsets.UTF_8), 5),
+        QUERY_ID);
+    Assert.assertTrue(extractor.isLastPage());
+  }
+
+  private static String feedInChunks(QueryIdExtractor extractor, byte[] body, int chunkSize) {
+    for (int offset = 0; offset < body.length && !extractor.isDone(); offset += chunkSize) {
+      // Copy each chunk so the extractor can not rely on seeing the whole array
+      int length = Math.min(chunkSize, body.length - offset);
+      byte[] chunk = new byte[length + 2];
+      System.arraycopy(body, offset, chunk, 1, length);
+      extractor.feed(chunk, 1, length);
+    }
+    return extractor.getQueryId();
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+}
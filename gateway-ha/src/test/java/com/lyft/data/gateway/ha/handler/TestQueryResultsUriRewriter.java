@@ -0,0 +1,77 @@
+package com.lyft.data.gateway.ha.handler;
+
+import java.nio.charset.StandardCharsets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestQueryResultsUriRewriter {
+  private static final String BACKEND = "http://presto1.lyft.com:8080";
+  private static final String GATEWAY = "https://gateway.lyft.com";
+  private static final String QUERY_ID = "20261017_101010_00001_abcde";
+
+  public void testRoutingToken() {
+    String token = RoutingToken.encode(BACKEND);
+    Assert.assertEquals(RoutingToken.decode(token), BACKEND);
+    Assert.assertNull(RoutingToken.decode("not base64!"));
+
+    String queryString = QUERY_ID + "&" + RoutingToken.PARAMETER + "=" + token;
+    Assert.assertEquals(RoutingToken.find(queryString), token);
+    Assert.assertEquals(RoutingToken.strip(queryString), QUERY_ID);
+    Assert.assertNull(RoutingToken.strip(RoutingToken.PARAMETER + "=" + token));
+    Assert.assertNull(RoutingToken.find(QUERY_ID));
+
+    Assert.assertEquals(RoutingToken.rewriteUri(BACKEND + "/ui/query.html?" + QUERY_ID, GATEWAY,
+        token), GATEWAY + "/ui/query.html?" + queryString);
+    Assert.assertNull(RoutingToken.rewriteUri("/v1/statement", GATEWAY, token));
+  }
+
+  public void testRewritesUrisAcrossChunks() {
+    String token = RoutingToken.encode(BACKEND);
+    String nextPath = "/v1/statement/executing/" + QUERY_ID + "/y1/2";
+    String head = "{\"id\":\"" + QUERY_ID + "\",\"infoUri\":\"" + BACKEND + "/ui/query.html?"
+        + QUERY_ID + "\",\"nextUri\" : \"" + BACKEND + nextPath + "\",";
+    String rest = "\"columns\":[{\"name\":\"nextUri\"}],\"data\":[[\"" + BACKEND + "\"]]}";
+    byte[] response = (head + rest).getBytes(StandardCharsets.UTF_8);
+
+    QueryResultsUriRewriter rewriter = new QueryResultsUriRewriter(GATEWAY, token);
+    Assert.assertNull(rewriter.feed(response, 0, 20));
+    byte[] first = rewriter.feed(response, 20, head.length() + 12 - 20);
+    Assert.assertTrue(rewriter.isDone());
+    byte[] second = rewriter.feed(response, head.length() + 12, rest.length() - 12);
+
+    String rewritten = new String(first, StandardCharsets.UTF_8)
+        + new String(second, StandardCharsets.UTF_8);
+    String parameter = RoutingToken.PARAMETER + "=" + token;
+    Assert.assertEquals(rewritten, "{\"id\":\"" + QUERY_ID + "\",\"infoUri\":\"" + GATEWAY
+        + "/ui/query.html?" + QUERY_ID + "&" + parameter + "\",\"nextUri\":\"" + GATEWAY
+        + nextPath + "?" + parameter + "\"," + rest);
+  }
+
+  public void testFindsHeadEndSplitAcrossChunks() {
+    String head = "{\"id\":\"" + QUERY_ID + "\",\"nextUri\":\"" + BACKEND + "/v1/x\",";
+    byte[] response = (head + "\"data\" \n: [[1]]}").getBytes(StandardCharsets.UTF_8);
+    QueryResultsUriRewriter rewriter =
+        new QueryResultsUriRewriter(GATEWAY, RoutingToken.encode(BACKEND));
+    // One byte at a time, the end of the head is only complete with its colon
+    int fed = 0;
+    byte[] released = null;
+    while (released == null) {
+      released = rewriter.feed(response, fed++, 1);
+    }
+    Assert.assertEquals(fed, head.length() + "\"data\" \n:".length());
+    Assert.assertTrue(new String(released, StandardCharsets.UTF_8)
+        .contains("\"nextUri\":\"" + GATEWAY + "/v1/x?" + RoutingToken.PARAMETER + "="));
+  }
+
+  public void testRewritesShortResponseOnFinish() {
+    String response = "{\"id\":\"" + QUERY_ID + "\",\"nextUri\":\"" + BACKEND + "/v1/x\"}";
+    QueryResultsUriRewriter rewriter =
+        new QueryResultsUriRewriter(GATEWAY, RoutingToken.encode(BACKEND));
+    Assert.assertNull(rewriter.feed(response.getBytes(StandardCharsets.UTF_8), 0,
+        response.length()));
+    Assert.assertTrue(new String(rewriter.finish(), StandardCharsets.UTF_8)
+        .contains("\"nextUri\":\"" + GATEWAY + "/v1/x?" + RoutingToken.PARAMETER + "="));
+    Assert.assertEquals(rewriter.finish().length, 0);
+  }
+}
@@ -0,0 +1,199 @@
+package com.lyft.data.gateway.ha.handler;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.lyft.data.gateway.ha.config.ResultSpoolConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+import javax.servlet.http.HttpServletRequest;
+import okhttp3.Headers;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TestResultSpooler {
+  private static final String QUERY_ID = "20261017_101010_00042_abcde";
+  private static final int PAGES = 4;
+
+  private final WireMockServer backend =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+      getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+      (proxy, method, args) -> method.getName().equals("getHeaderNames")
+          ? Collections.emptyEnumeration() : null);
+  private Path directory;
+  private ResultSpoolConfiguration configuration;
+  private MetricRegistry metricRegistry;
+  private ResultSpooler spooler;
+
+  @BeforeClass(alwaysRun = true)
+  public void setup() {
+    backend.start();
+    for (int i = 1; i <= PAGES; i++) {
+      backend.stubFor(WireMock.get(WireMock.urlEqualTo(pagePath(i)))
+          .willReturn(WireMock.aResponse().withStatus(200).withBody(page(i))));
+    }
+  }
+
+  @BeforeMethod
+  public void createSpooler() throws IOException {
+    backend.resetRequests();
+    directory = Files.createTempDirectory("spool");
+    configuration = new ResultSpoolConfiguration();
+    configuration.setDirectory(directory.toString());
+    configuration.setSegmentBytes(64);
+    metricRegistry = new MetricRegistry();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void stopSpooler() {
+    spooler.stop();
+    new File(directory.toString()).delete();
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanUp() {
+    backend.stop();
+  }
+
+  private static String pagePath(int page) {
+    return "/v1/statement/executing/" + QUERY_ID + "/y0d7/" + page;
+  }
+
+  private String page(int page) {
+    return "{\"id\":\"" + QUERY_ID + "\","
+        + (page < PAGES
+            ? "\"nextUri\":\"http://localhost:" + backend.port() + pagePath(page + 1) + "\","
+            : "")
+        + "\"data\":[[" + page + ",\"" + String.format("%40d", page) + "\"]]}";
+  }
+
+  private PagePrefetcher.Page receivedPage(int page) {
+    return new PagePrefetcher.Page("http://localhost:" + backend.port(), pagePath(page), 200,
+        Headers.of("Content-Type", "application/json"),
+        page(page).getBytes(StandardCharsets.UTF_8), System.nanoTime());
+  }
+
+  private void startSpooler() throws IOException {
+    spooler = new ResultSpooler(configuration, metricRegistry);
+    spooler.start();
+  }
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  private void awaitSpooledPages(int pages) throws InterruptedException {
+    for (int i = 0; i < 100 && metricRegistry.meter("proxy.spool.pages").getCount() < pages; i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(metricRegistry.meter("proxy.spool.pages").getCount(), pages);
+  }
+
+  public void testPagesAreDrainedAheadOfTheClient() throws Exception {
+    startSpooler();
+    spooler.spool(QUERY_ID, receivedPage(1), pagePath(2), request);
+    awaitSpooledPages(PAGES);
+    Assert.assertEquals(segmentFiles(), PAGES);
+
+    // The page spooling started from is kept, the client may ask for it again
+    Assert.assertEquals(new String(spooler.take(QUERY_ID, pagePath(1)).join().body,
+        StandardCharsets.UTF_8), page(1));
+    for (int i = 2; i <= PAGES; i++) {
+      PagePrefetcher.Page page = spooler.take(QUERY_ID, pagePath(i)).join();
+      Assert.assertEquals(new String(page.body, StandardCharsets.UTF_8), page(i));
+      Assert.assertEquals(page.path, pagePath(i));
+      // The page asked for before stays, the client may ask for it again
+      Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(i)).join());
+    }
+    Assert.assertNull(spooler.take(QUERY_ID, pagePath(1)).join());
+    Assert.assertEquals(segmentFiles(), 2);
+    Assert.assertEquals(metricRegistry.histogram("proxy.spool.query.leadMillis").getCount(), 1);
+    backend.verify(0, WireMock.getRequestedFor(WireMock.urlEqualTo(pagePath(1))));
+    for (int i = 2; i <= PAGES; i++) {
+      backend.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo(pagePath(i))));
+    }
+
+    spooler.discard(QUERY_ID);
+    Assert.assertEquals(segmentFiles(), 0);
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.spool.diskBytes").getValue(), 0L);
+    Assert.assertEquals(metricRegistry.histogram("proxy.spool.query.pages").getSnapshot()
+        .getMax(), PAGES);
+  }
+
+  public void testSpoolingStopsAtTheQuota() throws Exception {
+    configuration.setMaxBytesPerQuery(2 * page(1).length());
+    startSpooler();
+    spooler.spool(QUERY_ID, receivedPage(1), pagePath(2), request);
+    awaitSpooledPages(2);
+    Thread.sleep(100);
+
+    Assert.assertEquals(metricRegistry.meter("proxy.spool.overQuota").getCount(), 1);
+    Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(1)).join());
+    Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(2)).join());
+    // Left to the client, and spooled again behind it
+    Assert.assertNull(spooler.take(QUERY_ID, pagePath(3)).join());
+    spooler.spool(QUERY_ID, receivedPage(3), pagePath(4), request);
+    awaitSpooledPages(4);
+    Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(3)).join());
+    Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(4)).join());
+    Assert.assertNull(spooler.take(QUERY_ID, pagePath(2)).join());
+  }
+
+  public void testSpoolIsDeletedAfterItsLastPage() throws Exception {
+    configuration.setMaxQueries(1);
+    configuration.setFinishedTtlMillis(100);
+    configuration.setCleanupIntervalMillis(50);
+    startSpooler();
+    spooler.spool(QUERY_ID, receivedPage(1), pagePath(2), request);
+    awaitSpooledPages(PAGES);
+
+    // Spooled to the end, which frees its slot for another query
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.spool.unfinishedQueries")
+        .getValue(), 0);
+    String otherQueryId = QUERY_ID.replace("00042", "00043");
+    spooler.spool(otherQueryId, receivedPage(1), pagePath(2), request);
+    awaitSpooledPages(2 * PAGES);
+    Assert.assertEquals(metricRegistry.meter("proxy.spool.overQuota").getCount(), 0);
+
+    Assert.assertNotNull(spooler.take(QUERY_ID, pagePath(PAGES)).join());
+    for (int i = 0; i < 100 && spooler.take(QUERY_ID, pagePath(PAGES)).join() != null; i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertNull(spooler.take(QUERY_ID, pagePath(PAGES)).join());
+    Assert.assertEquals(metricRegistry.getGauges().get("proxy.spool.queries").getValue(), 1);
+    Assert.assertEquals(metricRegistry.meter("proxy.spool.expired").getCount(), 0);
+  }
+
+  public void testStaleSpoolsAreDeleted() throws Exception {
+    Files.createFile(directory.resolve("segment-1.spool"));
+    configuration.setTtlMillis(100);
+    configuration.setCleanupIntervalMillis(50);
+    startSpooler();
+    Assert.assertEquals(segmentFiles(), 0);
+
+    spooler.spool(QUERY_ID, receivedPage(1), pagePath(2), request);
+    awaitSpooledPages(PAGES);
+    for (int i = 0; i < 100 && segmentFiles() > 0; i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(segmentFiles(), 0);
+    Assert.assertEquals(metricRegistry.meter("proxy.spool.expired").getCount(), 1);
+    Assert.assertNull(spooler.take(QUERY_ID, pagePath(1)).join());
+  }
+}
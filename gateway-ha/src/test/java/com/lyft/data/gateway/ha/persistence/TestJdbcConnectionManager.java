@@ -0,0 +1,61 @@
+package com.lyft.data.gateway.ha.persistence;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.lyft.data.gateway.ha.HaGatewayTestUtils;
+import com.lyft.data.gateway.ha.config.ConnectionPoolConfiguration;
+import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
+import com.lyft.data.gateway.ha.persistence.dao.GatewayBackend;
+import java.io.File;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@Test
+public class TestJdbcConnectionManager {
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+  private JdbcConnectionManager connectionManager;
+
+  @BeforeClass(alwaysRun = true)
+  public void setUp() {
+    File baseDir = new File(System.getProperty("java.io.tmpdir"));
+    File tempH2DbDir = new File(baseDir, "h2db-" + System.currentTimeMillis());
+    tempH2DbDir.deleteOnExit();
+    String jdbcUrl = "jdbc:h2:" + tempH2DbDir.getAbsolutePath();
+    HaGatewayTestUtils.seedRequiredData(
+        new HaGatewayTestUtils.TestConfig("", tempH2DbDir.getAbsolutePath()));
+    DataStoreConfiguration db = new DataStoreConfiguration(jdbcUrl, "sa", "sa", "org.h2.Driver");
+    ConnectionPoolConfiguration pool = new ConnectionPoolConfiguration();
+    pool.setMaxPoolSize(2);
+    pool.setMinIdle(1);
+    db.setConnectionPool(pool);
+    connectionManager = new JdbcConnectionManager(db, metricRegistry);
+  }
+
+  public void testPooledConnectionsAreReused() {
+    Assert.assertTrue(connectionManager.isPooled());
+    // More round trips than the pool has connections, each one returns its connection
+    for (int i = 0; i < 10; i++) {
+      try {
+        connectionManager.open();
+        Assert.assertEquals(GatewayBackend.count().longValue(), 0L);
+      } finally {
+        connectionManager.close();
+      }
+    }
+
+    String prefix = JdbcConnectionManager.POOL_NAME + ".pool.";
+    Assert.assertTrue(metricRegistry.getTimers().containsKey(prefix + "Wait"));
+    Gauge<?> active = metricRegistry.getGauges().get(prefix + "ActiveConnections");
+    Assert.assertEquals(active.getValue(), 0);
+    Gauge<?> total = metricRegistry.getGauges().get(prefix + "TotalConnections");
+    Assert.assertTrue((Integer) total.getValue() <= 2);
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanUp() {
+    connectionManager.stop();
+  }
+}
@@ -0,0 +1,143 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares looking up and adding query ids in a {@link QueryIdBackendMap} with the Guava cache
+ * of full strings the routing manager used before, and prints the heap each of them retains.
+ *
+ * <p>Not part of the test suite, run {@link #main} on the test classpath (e.g. from the IDE).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Threads(4)
+public class BenchmarkQueryIdBackendMap {
+  private static final int BACKENDS = 20;
+  private static final int COORDINATORS = 40;
+
+  @Param({"100000", "1000000"})
+  private int entries;
+
+  private String[] queryIds;
+  private QueryIdBackendMap compactMap;
+  private Cache<String, String> guavaCache;
+
+  @Setup
+  public void setUp() {
+    queryIds = queryIds(entries);
+    compactMap = fillCompactMap(queryIds);
+    guavaCache = fillGuavaCache(queryIds);
+  }
+
+  private static String[] queryIds(int count) {
+    String[] queryIds = new String[count];
+    for (int i = 0; i < count; i++) {
+      // 2000 queries per coordinator and second
+      int second = i / (2000 * COORDINATORS);
+      queryIds[i] = String.format("20261017_%02d%02d%02d_%05d_c%04d", second / 3600 % 24,
+          second / 60 % 60, second % 60, i % 2000, i / 2000 % COORDINATORS);
+    }
+    return queryIds;
+  }
+
+  private static String backend(int i) {
+    return "http://presto" + (i % BACKENDS) + ".lyft.com:8080";
+  }
+
+  private static QueryIdBackendMap fillCompactMap(String[] queryIds) {
+    QueryIdBackendMap map = new QueryIdBackendMap(queryIds.length, TimeUnit.DAYS.toMillis(1));
+    for (int i = 0; i < queryIds.length; i++) {
+      map.put(queryIds[i], backend(i));
+    }
+    return map;
+  }
+
+  private static Cache<String, String> fillGuavaCache(String[] queryIds) {
+    Cache<String, String> cache = CacheBuilder.newBuilder()
+        .maximumSize(queryIds.length)
+        .expireAfterAccess(30, TimeUnit.MINUTES)
+        .build();
+    for (int i = 0; i < queryIds.length; i++) {
+      // Copies, as ids parsed from requests are not shared
+      cache.put(new String(queryIds[i]), new String(backend(i)));
+    }
+    return cache;
+  }
+
+  @Benchmark
+  public String compactMapGet() {
+    return compactMap.get(queryIds[ThreadLocalRandom.current().nextInt(queryIds.length)]);
+  }
+
+  @Benchmark
+  public String guavaCacheGet() {
+    return guavaCache.getIfPresent(queryIds[ThreadLocalRandom.current().nextInt(queryIds.length)]);
+  }
+
+  @Benchmark
+  public void compactMapPut() {
+    int i = ThreadLocalRandom.current().nextInt(queryIds.length);
+    compactMap.put(queryIds[i], backend(i));
+  }
+
+  @Benchmark
+  public void guavaCachePut() {
+    int i = ThreadLocalRandom.current().nextInt(queryIds.length);
+    guavaCache.put(queryIds[i], backend(i));
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Prints the heap retained by each store for a million query ids.
+   */
+  private static void printRetainedHeap() {
+    String[] queryIds = queryIds(1000000);
+    long before = usedHeap();
+    QueryIdBackendMap compactMap = fillCompactMap(queryIds);
+    long compactBytes = usedHeap() - before;
+    before = usedHeap();
+    Cache<String, String> guavaCache = fillGuavaCache(queryIds);
+    long guavaBytes = usedHeap() - before;
+    System.out.printf("%d query ids: compact map %d MB (%d bytes per entry), "
+        + "Guava cache %d MB (%d bytes per entry)%n", queryIds.length,
+        compactBytes >> 20, compactBytes / compactMap.size(),
+        guavaBytes >> 20, guavaBytes / guavaCache.size());
+  }
+
+  public static void main(String[] args) throws Exception {
+    printRetainedHeap();
+    new Runner(new OptionsBuilder()
+        .include(BenchmarkQueryIdBackendMap.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,77 @@
+package com.lyft.data.gateway.ha.router;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares picking a backend from an {@link AliasTable} with the cumulative weight
+ * {@link TreeMap} lookup on a shared {@link Random} that the routing table used before.
+ *
+ * <p>Not part of the test suite, run {@link #main} on the test classpath (e.g. from the IDE).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BenchmarkWeightedBackendSelection {
+  private static final Random RANDOM = new Random();
+
+  @Param({"2", "10", "100"})
+  private int backendsPerGroup;
+
+  private AliasTable aliasTable;
+  private TreeMap<Integer, String> cumulativeWeights;
+  private int weightSum;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    String[] backends = new String[backendsPerGroup];
+    int[] weights = new int[backendsPerGroup];
+    cumulativeWeights = new TreeMap<>();
+    weightSum = 0;
+    for (int i = 0; i < backendsPerGroup; i++) {
+      backends[i] = "presto" + i;
+      weights[i] = 1 + random.nextInt(100);
+      weightSum += weights[i];
+      cumulativeWeights.put(weightSum, backends[i]);
+    }
+    aliasTable = new AliasTable(backends, weights);
+  }
+
+  @Benchmark
+  public String aliasTable() {
+    return aliasTable.sample();
+  }
+
+  @Benchmark
+  public String treeMap() {
+    int rnd = RANDOM.nextInt(weightSum);
+    return cumulativeWeights.higherEntry(rnd).getValue();
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .include(BenchmarkWeightedBackendSelection.class.getSimpleName())
+        .build()).run();
+  }
+}
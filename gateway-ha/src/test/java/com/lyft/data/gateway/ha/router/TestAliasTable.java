@@ -0,0 +1,59 @@
+package com.lyft.data.gateway.ha.router;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestAliasTable {
+  private static final int NUM_SAMPLES = 100000;
+
+  @Test
+  public void testSamplesProportionalToWeights() {
+    String[] backends = {"presto0", "presto1", "presto2", "presto3"};
+    int[] weights = {10, 20, 30, 40};
+    Map<String, Integer> distribution = sample(new AliasTable(backends, weights));
+
+    for (int i = 0; i < backends.length; i++) {
+      double expected = NUM_SAMPLES * weights[i] / 100.0;
+      Assert.assertEquals(distribution.get(backends[i]), expected, expected * 0.1);
+    }
+  }
+
+  @Test
+  public void testZeroWeightNeverChosen() {
+    String[] backends = {"presto0", "presto1", "presto2"};
+    Map<String, Integer> distribution = sample(new AliasTable(backends, new int[] {5, 0, 5}));
+    Assert.assertFalse(distribution.containsKey("presto1"));
+    Assert.assertEquals(distribution.size(), 2);
+  }
+
+  @Test
+  public void testAllZeroWeightsAreUniform() {
+    String[] backends = {"presto0", "presto1"};
+    Map<String, Integer> distribution = sample(new AliasTable(backends, new int[] {0, 0}));
+    Assert.assertEquals(distribution.size(), 2);
+  }
+
+  @Test
+  public void testSingleBackend() {
+    AliasTable table = new AliasTable(new String[] {"presto0"}, new int[] {100});
+    Assert.assertEquals(table.sample(), "presto0");
+    Assert.assertEquals(table.getWeights().get("presto0"), Integer.valueOf(100));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testMismatchedWeights() {
+    new AliasTable(new String[] {"presto0"}, new int[] {1, 2});
+  }
+
+  private static Map<String, Integer> sample(AliasTable table) {
+    Map<String, Integer> distribution = new HashMap<>();
+    for (int i = 0; i < NUM_SAMPLES; i++) {
+      distribution.merge(table.sample(), 1, Integer::sum);
+    }
+    return distribution;
+  }
+}
@@ -0,0 +1,41 @@
+package com.lyft.data.gateway.ha.router;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestBackendLatencyTracker {
+  private static final long DECAY_MILLIS = 1000;
+  private static final String BACKEND = "http://presto1.lyft.com";
+
+  public void testTimeDecayedAverage() {
+    BackendLatencyTracker tracker = new BackendLatencyTracker(DECAY_MILLIS);
+    Assert.assertTrue(tracker.getLatencyMillis(BACKEND, 0) < 0);
+
+    tracker.record(BACKEND, MILLISECONDS.toNanos(10), MILLISECONDS.toNanos(100), 0);
+    Assert.assertEquals(tracker.getLatencyMillis(BACKEND, 0), 110, 0.001);
+
+    // One decay time later the previous average still weighs 1/e
+    long now = MILLISECONDS.toNanos(DECAY_MILLIS);
+    tracker.record(BACKEND, -1, MILLISECONDS.toNanos(200), now);
+    double expected = 10 + Math.exp(-1) * 100 + (1 - Math.exp(-1)) * 200;
+    Assert.assertEquals(tracker.getLatencyMillis(BACKEND, now), expected, 0.001);
+
+    // Samples close together move the average little
+    tracker.record(BACKEND, -1, MILLISECONDS.toNanos(5000), now + MILLISECONDS.toNanos(1));
+    Assert.assertTrue(tracker.getLatencyMillis(BACKEND, now) < expected + 10);
+  }
+
+  public void testOldAndRemovedAveragesAreUnknown() {
+    BackendLatencyTracker tracker = new BackendLatencyTracker(DECAY_MILLIS);
+    tracker.record(BACKEND, 0, MILLISECONDS.toNanos(100), 0);
+    Assert.assertTrue(tracker.getLatencyMillis(BACKEND, MILLISECONDS.toNanos(20000)) < 0);
+
+    tracker.record(BACKEND, 0, MILLISECONDS.toNanos(100), 0);
+    tracker.retainAll(ImmutableList.of("http://presto2.lyft.com"));
+    Assert.assertTrue(tracker.getLatencyMillis(BACKEND, 0) < 0);
+  }
+}
@@ -0,0 +1,62 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestBackendRegistry {
+
+  private static ProxyBackendConfiguration backend(String name, String group, boolean active) {
+    ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+    backend.setName(name);
+    backend.setProxyTo("http://" + name + ":8080");
+    backend.setRoutingGroup(group);
+    backend.setActive(active);
+    return backend;
+  }
+
+  public void testLookups() {
+    List<ProxyBackendConfiguration> backends = ImmutableList.of(
+        backend("adhoc1", "adhoc", true),
+        backend("adhoc2", "adhoc", false),
+        backend("etl1", "etl", true));
+    List<RoutingGroupConfiguration> groups = ImmutableList.of(
+        new RoutingGroupConfiguration("adhoc", true),
+        new RoutingGroupConfiguration("etl", false));
+
+    BackendRegistry registry = BackendRegistry.EMPTY.update(backends, groups);
+
+    Assert.assertEquals(registry.getVersion(), 1);
+    Assert.assertEquals(registry.getAllBackends().size(), 3);
+    Assert.assertEquals(registry.getActiveBackends("adhoc").size(), 1);
+    Assert.assertEquals(registry.getActiveBackends("adhoc").get(0).getName(), "adhoc1");
+    Assert.assertTrue(registry.getActiveBackends("unknown").isEmpty());
+    Assert.assertEquals(registry.getProxyTo("adhoc2"), "http://adhoc2:8080");
+    Assert.assertNull(registry.getProxyTo("unknown"));
+    Assert.assertTrue(registry.isRoutingGroupActive("adhoc"));
+    Assert.assertFalse(registry.isRoutingGroupActive("etl"));
+    Assert.assertFalse(registry.isRoutingGroupActive("unknown"));
+  }
+
+  public void testVersionOnlyChangesWithContent() {
+    List<RoutingGroupConfiguration> groups =
+        ImmutableList.of(new RoutingGroupConfiguration("adhoc", true));
+    BackendRegistry registry = BackendRegistry.EMPTY.update(
+        ImmutableList.of(backend("adhoc1", "adhoc", true)), groups);
+
+    BackendRegistry same = registry.update(
+        ImmutableList.of(backend("adhoc1", "adhoc", true)), groups);
+    Assert.assertSame(same, registry);
+
+    BackendRegistry changed = registry.update(
+        ImmutableList.of(backend("adhoc1", "adhoc", false)), groups);
+    Assert.assertEquals(changed.getVersion(), 2);
+    Assert.assertTrue(changed.getActiveBackends("adhoc").isEmpty());
+    // Published registries are never modified
+    Assert.assertEquals(registry.getActiveBackends("adhoc").size(), 1);
+  }
+}
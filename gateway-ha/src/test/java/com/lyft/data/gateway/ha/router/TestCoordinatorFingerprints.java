@@ -0,0 +1,51 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestCoordinatorFingerprints {
+  private static final String BACKEND1 = "http://presto1.lyft.com";
+  private static final String BACKEND2 = "http://presto2.lyft.com";
+
+  public void testCoordinatorSuffix() {
+    Assert.assertEquals(
+        CoordinatorFingerprints.getCoordinatorSuffix("20261017_101010_00042_abcde"), "abcde");
+    Assert.assertNull(CoordinatorFingerprints.getCoordinatorSuffix("abcde"));
+    Assert.assertNull(CoordinatorFingerprints.getCoordinatorSuffix("20261017_101010_abcde"));
+    Assert.assertNull(CoordinatorFingerprints.getCoordinatorSuffix(null));
+  }
+
+  public void testLearnedCoordinators() {
+    CoordinatorFingerprints fingerprints = new CoordinatorFingerprints();
+    fingerprints.learn("20261017_101010_00001_abcde", BACKEND1);
+    fingerprints.learn("20261017_101010_00001_fghij", BACKEND2);
+    fingerprints.learn("not-a-query-id", BACKEND2);
+    Assert.assertEquals(fingerprints.size(), 2);
+    Assert.assertEquals(fingerprints.getBackend("20261017_121212_00042_abcde"), BACKEND1);
+    Assert.assertEquals(fingerprints.getBackend("20261017_121212_00043_fghij"), BACKEND2);
+    Assert.assertNull(fingerprints.getBackend("20261017_121212_00044_klmno"));
+
+    fingerprints.retainBackends(ImmutableSet.of(BACKEND2));
+    Assert.assertNull(fingerprints.getBackend("20261017_121212_00042_abcde"));
+    Assert.assertEquals(fingerprints.getBackend("20261017_121212_00043_fghij"), BACKEND2);
+  }
+
+  public void testCacheMissResolvedInMemory() {
+    // Without a query history manager any look up beyond memory would fail
+    RoutingManager routingManager = new HaRoutingManager(null, null, null);
+    ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+    backend.setName("presto1");
+    backend.setProxyTo(BACKEND1);
+    routingManager.updateBackendRegistry(ImmutableList.of(backend),
+        ImmutableList.of(new RoutingGroupConfiguration(RoutingManager.ADHOC)));
+
+    routingManager.setBackendForQueryId("20261017_101010_00001_abcde", BACKEND1);
+    Assert.assertEquals(routingManager.findBackendForQueryId("20261017_101010_00002_abcde"),
+        BACKEND1);
+  }
+}
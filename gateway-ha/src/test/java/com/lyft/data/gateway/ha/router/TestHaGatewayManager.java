@@ -43,6 +43,7 @@ public class TestHaGatewayManager {
     backend.setRoutingGroup("adhoc");
     backend.setName("adhoc1");
     backend.setProxyTo("adhoc1.presto.lyft.com");
+    backend.setCapacityWeight(2.0);
     ProxyBackendConfiguration updated = haGatewayManager.addBackend(backend);
     Assert.assertEquals(updated, backend);
   }
@@ -51,6 +52,7 @@ public class TestHaGatewayManager {
   public void testGetBackends() {
     List<ProxyBackendConfiguration> backends = haGatewayManager.getAllBackends();
     Assert.assertEquals(backends.size(), 1);
+    Assert.assertEquals(backends.get(0).getCapacityWeight(), 2.0);
 
     backends = haGatewayManager.getActiveBackends("adhoc");
     Assert.assertEquals(backends.size(), 1);
@@ -83,6 +85,7 @@ public class TestHaGatewayManager {
     backends = haGatewayManager.getAllBackends();
     Assert.assertEquals(backends.size(), 2);
     Assert.assertEquals(backends.get(1).getRoutingGroup(), "etl");
+    Assert.assertNull(backends.get(1).getCapacityWeight());
   }
 
   @Test(dependsOnMethods = {"testUpdateBackend"})
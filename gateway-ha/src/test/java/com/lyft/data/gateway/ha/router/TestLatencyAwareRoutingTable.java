@@ -0,0 +1,77 @@
+package com.lyft.data.gateway.ha.router;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TestLatencyAwareRoutingTable {
+  private static final int NUM_BACKENDS = 4;
+  private LatencyAwareRoutingTable routingTable;
+
+  @BeforeMethod
+  public void setUp() {
+    routingTable = new LatencyAwareRoutingTable(null, null, null, new MetricRegistry(), 30000,
+        100);
+    List<ProxyBackendConfiguration> backends = new ArrayList<>();
+    for (int i = 0; i < NUM_BACKENDS; i++) {
+      ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+      backend.setName("adhoc" + i);
+      backend.setProxyTo(proxyTo(i));
+      backend.setRoutingGroup(RoutingManager.ADHOC);
+      backend.setActive(true);
+      backends.add(backend);
+    }
+    routingTable.updateBackendRegistry(backends,
+        ImmutableList.of(new RoutingGroupConfiguration(RoutingManager.ADHOC)));
+  }
+
+  private static String proxyTo(int backend) {
+    return "http://adhoc" + backend + ".presto.lyft.com";
+  }
+
+  private void updateWithEqualQueueLengths() {
+    Map<String, Integer> queueLengths = new HashMap<>();
+    for (int i = 0; i < NUM_BACKENDS; i++) {
+      queueLengths.put("adhoc" + i, 0);
+    }
+    Map<String, Map<String, Integer>> queueMap = new HashMap<>();
+    queueMap.put(RoutingManager.ADHOC, queueLengths);
+    routingTable.updateRoutingTable(queueMap);
+  }
+
+  public void testSlowBackendIsPenalized() {
+    routingTable.backendResponded(proxyTo(0), 0, MILLISECONDS.toNanos(50));
+    routingTable.backendResponded(proxyTo(1), 0, MILLISECONDS.toNanos(120));
+    routingTable.backendResponded(proxyTo(2), MILLISECONDS.toNanos(50),
+        MILLISECONDS.toNanos(1000));
+    updateWithEqualQueueLengths();
+
+    Map<String, Integer> weights = routingTable.getInternalWeightedRoutingTable(
+        RoutingManager.ADHOC);
+    // Within the tolerance of the fastest backend
+    Assert.assertEquals(weights.get("adhoc0").intValue(), 100);
+    Assert.assertEquals(weights.get("adhoc1").intValue(), 100);
+    // 150 ms acceptable out of 1050 ms
+    Assert.assertEquals(weights.get("adhoc2").intValue(), 15);
+    // Not measured yet
+    Assert.assertEquals(weights.get("adhoc3").intValue(), 100);
+  }
+
+  public void testWithoutMeasurements() {
+    updateWithEqualQueueLengths();
+    Assert.assertTrue(routingTable.getLatencyMillis(proxyTo(0)) < 0);
+    routingTable.getInternalWeightedRoutingTable(RoutingManager.ADHOC)
+        .values().forEach(weight -> Assert.assertEquals(weight.intValue(), 100));
+  }
+}
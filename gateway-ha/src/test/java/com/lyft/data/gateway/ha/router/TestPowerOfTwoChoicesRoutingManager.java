@@ -0,0 +1,75 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.lyft.data.gateway.ha.config.ProxyBackendConfiguration;
+import com.lyft.data.gateway.ha.config.RoutingGroupConfiguration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TestPowerOfTwoChoicesRoutingManager {
+  private static final int NUM_BACKENDS = 4;
+  private PowerOfTwoChoicesRoutingManager routingManager;
+
+  @BeforeMethod
+  public void setUp() {
+    routingManager = new PowerOfTwoChoicesRoutingManager(null, null, null, 600000);
+    List<ProxyBackendConfiguration> backends = new ArrayList<>();
+    for (int i = 0; i < NUM_BACKENDS; i++) {
+      ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+      backend.setName("adhoc" + i);
+      backend.setProxyTo("http://adhoc" + i + ".presto.lyft.com");
+      backend.setRoutingGroup(RoutingManager.ADHOC);
+      backend.setActive(true);
+      backends.add(backend);
+    }
+    routingManager.updateBackendRegistry(backends,
+        ImmutableList.of(new RoutingGroupConfiguration(RoutingManager.ADHOC)));
+  }
+
+  private int[] inFlightCounts() {
+    return IntStream.range(0, NUM_BACKENDS)
+        .map(i -> routingManager.getInFlightCount("http://adhoc" + i + ".presto.lyft.com"))
+        .toArray();
+  }
+
+  public void testBurstIsSpread() {
+    // Stats from the cluster monitor never arrive during a burst
+    for (int i = 0; i < 400; i++) {
+      routingManager.setBackendForQueryId("query" + i, routingManager.provideAdhocBackend());
+    }
+    int[] counts = inFlightCounts();
+    int min = IntStream.of(counts).min().getAsInt();
+    int max = IntStream.of(counts).max().getAsInt();
+    Assert.assertEquals(IntStream.of(counts).sum(), 400);
+    Assert.assertTrue(max - min <= 5, "Unbalanced in flight counts " + max + " and " + min);
+  }
+
+  public void testFinishedQueriesAreNoLongerCounted() {
+    String backend = routingManager.provideAdhocBackend();
+    routingManager.setBackendForQueryId("query1", backend);
+    routingManager.setBackendForQueryId("query2", backend);
+    // Caching the same query again doesn't count it twice
+    routingManager.setBackendForQueryId("query1", backend);
+    Assert.assertEquals(routingManager.getInFlightCount(backend), 2);
+
+    routingManager.queryProgressed("query1", false);
+    Assert.assertEquals(routingManager.getInFlightCount(backend), 2);
+    routingManager.queryProgressed("query1", true);
+    routingManager.queryProgressed("query1", true);
+    Assert.assertEquals(routingManager.getInFlightCount(backend), 1);
+  }
+
+  public void testAbandonedQueriesExpire() throws Exception {
+    InFlightQueryTracker tracker = new InFlightQueryTracker(50);
+    tracker.queryStarted("query1", "backend");
+    Assert.assertEquals(tracker.getInFlightCount("backend"), 1);
+    Thread.sleep(100);
+    tracker.cleanUp();
+    Assert.assertEquals(tracker.getInFlightCount("backend"), 0);
+  }
+}
@@ -2,6 +2,8 @@ package com.lyft.data.gateway.ha.router;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 import com.lyft.data.gateway.ha.HaGatewayTestUtils;
 import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
 import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
@@ -13,9 +15,13 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -67,7 +73,6 @@ public class TestPrestoQueueLengthRoutingTable {
                                int queueLengthDistributiveFactor) {
     String backend = null;
     routingGroupsManager.addRoutingGroup(new RoutingGroupConfiguration(groupName));
-    routingTable.routingGroups.put(groupName, true);
 
     for (int i = 0; i < numBackends; i++) {
       backend = groupName + i;
@@ -77,8 +82,8 @@ public class TestPrestoQueueLengthRoutingTable {
       proxyBackend.setName(backend);
       proxyBackend.setProxyTo(backend + ".presto.lyft.com");
       backendManager.addBackend(proxyBackend);
-      routingTable.backendProxyMap.put(backend, backend + ".presto.lyft.com");
     }
+    routingTable.refreshBackendRegistry();
   }
 
   private void registerBackEndsWithRandomQueueLength(String groupName, int numBackends) {
@@ -335,6 +340,150 @@ public class TestPrestoQueueLengthRoutingTable {
     scheduler.shutdown();
   }
 
-}
+  @Test
+  public void testRoutingDuringConcurrentUpdates() throws Exception {
+    int numBk = 3;
+    resetBackends(mockRoutingGroup, numBk, 10);
+
+    AtomicBoolean updating = new AtomicBoolean(true);
+    AtomicInteger misses = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?> updater = executor.submit(() -> {
+        Random random = new Random();
+        for (int i = 0; i < 2000; i++) {
+          Map<String, Integer> queueLengths = new HashMap<>();
+          for (int j = 0; j < numBk; j++) {
+            queueLengths.put(mockRoutingGroup + j, random.nextInt(100));
+          }
+          Map<String, Map<String, Integer>> queueMap = new HashMap<>();
+          queueMap.put(mockRoutingGroup, queueLengths);
+          routingTable.updateRoutingTable(queueMap);
+        }
+        updating.set(false);
+      });
+
+      for (int reader = 0; reader < 3; reader++) {
+        executor.submit(() -> {
+          while (updating.get()) {
+            if (routingTable.getEligibleBackEnd(mockRoutingGroup) == null) {
+              misses.incrementAndGet();
+            }
+          }
+        });
+      }
+      updater.get();
+    } finally {
+      executor.shutdown();
+    }
+    // Readers must never observe a torn or empty routing table
+    Assert.assertEquals(misses.get(), 0);
+  }
 
+  @Test
+  public void testOptimisticQueueAccounting() {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    PrestoQueueLengthRoutingTable optimisticTable = new PrestoQueueLengthRoutingTable(
+        backendManager, historyManager, routingGroupsManager, metricRegistry);
+    optimisticTable.refreshBackendRegistry();
+    String group = "scheduled";
+    int numBk = 3;
+    Map<String, Map<String, Integer>> queueMap = new HashMap<>();
+    Map<String, Integer> queueLengths = new HashMap<>();
+    for (int i = 0; i < numBk; i++) {
+      queueLengths.put(group + i, i * 10);
+    }
+    queueMap.put(group, queueLengths);
+    optimisticTable.updateRoutingTable(queueMap);
 
+    // No stats arrive during the burst, with frozen weights most of it would go to the first
+    for (int i = 0; i < 90; i++) {
+      optimisticTable.provideBackendForRoutingGroup(group);
+    }
+    Map<String, Integer> estimates = optimisticTable.getEstimatedClusterQueueLength(group);
+    Assert.assertEquals(estimates.values().stream().mapToInt(Integer::intValue).sum(), 120);
+    int min = estimates.values().stream().mapToInt(Integer::intValue).min().getAsInt();
+    int max = estimates.values().stream().mapToInt(Integer::intValue).max().getAsInt();
+    Assert.assertTrue(max - min <= 20, "Unbalanced estimates " + estimates);
+    Assert.assertEquals(optimisticTable.getInternalClusterQueueLength(group), queueLengths);
+
+    // The next stats replace the estimates
+    optimisticTable.updateRoutingTable(queueMap);
+    Assert.assertEquals(optimisticTable.getEstimatedClusterQueueLength(group), queueLengths);
+    Histogram predictionError =
+        metricRegistry.histogram(PrestoQueueLengthRoutingTable.PREDICTION_ERROR_METRIC);
+    Assert.assertEquals(predictionError.getCount(), numBk);
+    Assert.assertEquals(predictionError.getSnapshot().getMax(), estimates.keySet().stream()
+        .mapToInt(backend -> estimates.get(backend) - queueLengths.get(backend)).max().getAsInt());
+  }
+
+  @Test
+  public void testLongBurstBetweenUpdates() {
+    PrestoQueueLengthRoutingTable burstTable = new PrestoQueueLengthRoutingTable(
+        backendManager, historyManager, routingGroupsManager);
+    burstTable.refreshBackendRegistry();
+    String group = "scheduled";
+    Map<String, Integer> queueLengths = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      queueLengths.put(group + i, 0);
+    }
+    Map<String, Map<String, Integer>> queueMap = new HashMap<>();
+    queueMap.put(group, queueLengths);
+    burstTable.updateRoutingTable(queueMap);
+
+    // Routed queries are counted without rebuilding the routing table
+    for (int i = 0; i < 200000; i++) {
+      burstTable.provideBackendForRoutingGroup(group);
+    }
+    Map<String, Integer> estimates = burstTable.getEstimatedClusterQueueLength(group);
+    Assert.assertEquals(estimates.values().stream().mapToInt(Integer::intValue).sum(), 200000);
+    Assert.assertEquals(burstTable.getInternalClusterQueueLength(group), queueLengths);
+  }
+
+  @Test
+  public void testLoadScoreWeights() {
+    PrestoQueueLengthRoutingTable loadTable = new PrestoQueueLengthRoutingTable(
+        backendManager, historyManager, routingGroupsManager);
+    loadTable.refreshBackendRegistry();
+    String group = "scheduled";
+    Map<String, Integer> queueLengths = new HashMap<>();
+    Map<String, ClusterLoad> loads = new HashMap<>();
+    // Two idle backends, the second with twice the capacity, and a busy one
+    queueLengths.put(group + 0, 0);
+    loads.put(group + 0, new ClusterLoad(0, 0.1));
+    queueLengths.put(group + 1, 0);
+    loads.put(group + 1, new ClusterLoad(0, 0.05));
+    queueLengths.put(group + 2, 0);
+    loads.put(group + 2, new ClusterLoad(1.0, 0.1));
+    Map<String, Map<String, Integer>> queueMap = new HashMap<>();
+    queueMap.put(group, queueLengths);
+    Map<String, Map<String, ClusterLoad>> loadMap = new HashMap<>();
+    loadMap.put(group, loads);
+    loadTable.updateRoutingTable(queueMap, loadMap);
+
+    Map<String, Integer> weights = loadTable.getInternalWeightedRoutingTable(group);
+    Assert.assertEquals(weights.get(group + 0).intValue(), 50);
+    Assert.assertEquals(weights.get(group + 1).intValue(), 100);
+    Assert.assertEquals(weights.get(group + 2).intValue(), 5);
+
+    // Routed queries even out the load per unit of capacity, not the number of queries
+    for (int i = 0; i < 300; i++) {
+      loadTable.provideBackendForRoutingGroup(group);
+    }
+    Map<String, ClusterLoad> estimates = loadTable.getEstimatedClusterLoad(group);
+    double routed = estimates.values().stream()
+        .mapToDouble(load -> load.getScore() / load.getScorePerQuery()).sum();
+    Assert.assertEquals(routed, 310, 0.001);
+    double min = estimates.values().stream().mapToDouble(ClusterLoad::getScore).min().getAsDouble();
+    double max = estimates.values().stream().mapToDouble(ClusterLoad::getScore).max().getAsDouble();
+    Assert.assertTrue(max - min <= 2.0, "Unbalanced estimates " + estimates);
+    double routedToLarger = estimates.get(group + 1).getScore() / 0.05;
+    double routedToSmaller = estimates.get(group + 0).getScore() / 0.1;
+    Assert.assertTrue(routedToLarger > routedToSmaller, "Unbalanced estimates " + estimates);
+
+    // Without load scores the weights fall back to the queue lengths
+    loadTable.updateRoutingTable(queueMap);
+    Assert.assertEquals(loadTable.getInternalWeightedRoutingTable(group).get(group + 2),
+        Integer.valueOf(100));
+  }
+}
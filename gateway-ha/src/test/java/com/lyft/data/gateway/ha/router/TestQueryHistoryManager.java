@@ -1,5 +1,6 @@
 package com.lyft.data.gateway.ha.router;
 
+import com.codahale.metrics.MetricRegistry;
 import com.lyft.data.gateway.ha.HaGatewayTestUtils;
 import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
 import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
@@ -7,7 +8,10 @@ import com.lyft.data.gateway.ha.config.RequestRouterConfiguration;
 import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -52,4 +56,42 @@ public class TestQueryHistoryManager {
     Assert.assertEquals(queryDetails.size(), 5);
     Assert.assertTrue(queryDetails.get(0).getCaptureTime() > queryDetails.get(1).getCaptureTime());
   }
+
+  @Test
+  public void testWarmQueryIdCache() {
+    QueryHistoryManager.QueryDetail recent = new QueryHistoryManager.QueryDetail();
+    recent.setQueryId("20201001_120000_00001_recent");
+    recent.setBackendUrl("http://recent:8080");
+    recent.setCaptureTime(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    queryHistoryManager.submitQueryDetail(recent);
+    QueryHistoryManager.QueryDetail old = new QueryHistoryManager.QueryDetail();
+    old.setQueryId("20201001_120000_00002_old");
+    old.setBackendUrl("http://old:8080");
+    old.setCaptureTime(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(5));
+    queryHistoryManager.submitQueryDetail(old);
+
+    // Other tests may have submitted queries too, so only the ones of this test are checked
+    Set<String> loaded = new HashSet<>();
+    PowerOfTwoChoicesRoutingManager routingManager =
+        new PowerOfTwoChoicesRoutingManager(null, null, null, TimeUnit.HOURS.toMillis(1)) {
+          @Override
+          public void cacheBackendForQueryId(String queryId, String backend) {
+            loaded.add(queryId);
+            super.cacheBackendForQueryId(queryId, backend);
+          }
+        };
+    MetricRegistry metricRegistry = new MetricRegistry();
+    new QueryIdCacheWarmer(queryHistoryManager, routingManager, TimeUnit.HOURS.toMillis(4),
+        metricRegistry).start();
+
+    Assert.assertTrue(loaded.contains(recent.getQueryId()));
+    Assert.assertFalse(loaded.contains(old.getQueryId()));
+    Assert.assertEquals(metricRegistry.counter("queryIdCache.warmup.queries").getCount(),
+        loaded.size());
+    Assert.assertEquals(metricRegistry.timer("queryIdCache.warmup.duration").getCount(), 1);
+    Assert.assertEquals(routingManager.findBackendForQueryId(recent.getQueryId()),
+        "http://recent:8080");
+    // Queries of the history are not counted as in flight
+    Assert.assertEquals(routingManager.getInFlightCount("http://recent:8080"), 0);
+  }
 }
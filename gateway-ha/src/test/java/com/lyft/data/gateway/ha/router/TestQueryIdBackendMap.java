@@ -0,0 +1,86 @@
+package com.lyft.data.gateway.ha.router;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TestQueryIdBackendMap {
+  private static final String BACKEND1 = "http://presto1.lyft.com";
+  private static final String BACKEND2 = "http://presto2.lyft.com";
+
+  private static String queryId(int day, int sequence, String coordinator) {
+    return String.format("202610%02d_101010_%05d_%s", day, sequence, coordinator);
+  }
+
+  public void testGetAndPut() {
+    QueryIdBackendMap map = new QueryIdBackendMap(1000, TimeUnit.DAYS.toMillis(1));
+    map.put(queryId(17, 1, "abcde"), BACKEND1);
+    map.put(queryId(17, 2, "abcde"), BACKEND2);
+    map.put(queryId(17, 1, "fghij"), BACKEND2);
+    Assert.assertEquals(map.size(), 3);
+    Assert.assertEquals(map.get(queryId(17, 1, "abcde")), BACKEND1);
+    Assert.assertEquals(map.get(queryId(17, 2, "abcde")), BACKEND2);
+    Assert.assertEquals(map.get(queryId(17, 1, "fghij")), BACKEND2);
+    Assert.assertNull(map.get(queryId(17, 3, "abcde")));
+    Assert.assertNull(map.get(queryId(17, 1, "klmno")));
+
+    map.put(queryId(17, 1, "abcde"), BACKEND2);
+    Assert.assertEquals(map.size(), 3);
+    Assert.assertEquals(map.get(queryId(17, 1, "abcde")), BACKEND2);
+  }
+
+  public void testOtherQueryIdFormats() {
+    QueryIdBackendMap map = new QueryIdBackendMap(1000, TimeUnit.DAYS.toMillis(1));
+    Assert.assertTrue(map.encode("abc", true) < 0);
+    Assert.assertTrue(map.encode("20261399_101010_00001_abcde", true) < 0);
+    Assert.assertTrue(map.encode("19991017_101010_00001_abcde", true) < 0);
+    map.put("some-query", BACKEND1);
+    Assert.assertEquals(map.get("some-query"), BACKEND1);
+    Assert.assertEquals(map.size(), 0);
+  }
+
+  public void testEncoding() {
+    QueryIdBackendMap map = new QueryIdBackendMap(1000, TimeUnit.DAYS.toMillis(1));
+    long key = map.encode("20200102_000001_00042_abcde", true);
+    Assert.assertEquals(key >>> 32, TimeUnit.DAYS.toSeconds(1) + 1);
+    Assert.assertEquals((key >>> 15) & 0x1FFFF, 42);
+    Assert.assertEquals(key & 0x7FFF, 1);
+  }
+
+  public void testGrowsAndDropsOldestQueries() {
+    int maxEntries = 10000;
+    QueryIdBackendMap map = new QueryIdBackendMap(maxEntries, TimeUnit.DAYS.toMillis(1));
+    long initialBytes = map.getTableBytes();
+    // Spread over ten days, so the oldest days are dropped once the table is full
+    for (int i = 0; i < 5 * maxEntries; i++) {
+      map.put(queryId(1 + i / 5000, i % 5000, "abcde"), i % 2 == 0 ? BACKEND1 : BACKEND2);
+    }
+    Assert.assertTrue(map.getTableBytes() > initialBytes);
+    Assert.assertTrue(map.size() <= maxEntries * 1.1, "Size " + map.size());
+    Assert.assertNull(map.get(queryId(1, 0, "abcde")));
+    int last = 5 * maxEntries - 1;
+    Assert.assertEquals(map.get(queryId(1 + last / 5000, last % 5000, "abcde")), BACKEND2);
+  }
+
+  public void testWriteAndRead() throws Exception {
+    QueryIdBackendMap map = new QueryIdBackendMap(1000, TimeUnit.DAYS.toMillis(1));
+    map.put(queryId(17, 1, "abcde"), BACKEND1);
+    map.put(queryId(17, 2, "fghij"), BACKEND2);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writeTo(new DataOutputStream(bytes));
+
+    // Interned in a different order than in the saved map
+    QueryIdBackendMap restored = new QueryIdBackendMap(1000, TimeUnit.DAYS.toMillis(1));
+    restored.put(queryId(17, 3, "fghij"), BACKEND2);
+    restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals(restored.size(), 3);
+    Assert.assertEquals(restored.get(queryId(17, 1, "abcde")), BACKEND1);
+    Assert.assertEquals(restored.get(queryId(17, 2, "fghij")), BACKEND2);
+    Assert.assertEquals(restored.get(queryId(17, 3, "fghij")), BACKEND2);
+  }
+}
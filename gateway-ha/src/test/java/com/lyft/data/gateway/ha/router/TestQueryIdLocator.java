@@ -0,0 +1,94 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TestQueryIdLocator {
+  private static final long DEADLINE_MILLIS = 1000;
+  private static final String QUERY_ID = "20261017_101010_00042_abcde";
+
+  private final WireMockServer unknowing =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final WireMockServer knowing =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private final WireMockServer hanging =
+      new WireMockServer(WireMockConfiguration.options().dynamicPort());
+  private List<String> backends;
+
+  @BeforeClass(alwaysRun = true)
+  public void setup() {
+    unknowing.start();
+    knowing.start();
+    hanging.start();
+    backends = ImmutableList.of(address(unknowing), address(knowing), address(hanging));
+  }
+
+  @BeforeMethod
+  public void resetBackends() {
+    stub(unknowing, 404, 0);
+    stub(knowing, 404, 0);
+    stub(hanging, 404, 0);
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void cleanUp() {
+    unknowing.stop();
+    knowing.stop();
+    hanging.stop();
+  }
+
+  private static String address(WireMockServer server) {
+    return "http://localhost:" + server.port();
+  }
+
+  private static void stub(WireMockServer server, int status, int delayMillis) {
+    server.resetAll();
+    server.stubFor(WireMock.head(WireMock.urlPathMatching("/v1/query/.*"))
+        .willReturn(WireMock.aResponse().withStatus(status).withFixedDelay(delayMillis)));
+  }
+
+  public void testFirstBackendKnowingTheQueryWins() {
+    stub(knowing, 200, 100);
+    stub(hanging, 200, 10000);
+    QueryIdLocator locator = new QueryIdLocator(DEADLINE_MILLIS, 60000);
+    long start = System.currentTimeMillis();
+    Assert.assertEquals(locator.locate(QUERY_ID, backends), address(knowing));
+    // Not held up by the hanging backend
+    Assert.assertTrue(System.currentTimeMillis() - start < DEADLINE_MILLIS);
+  }
+
+  public void testDeadline() {
+    stub(hanging, 200, 10000);
+    QueryIdLocator locator = new QueryIdLocator(DEADLINE_MILLIS, 60000);
+    long start = System.currentTimeMillis();
+    Assert.assertNull(locator.locate(QUERY_ID, backends));
+    long elapsed = System.currentTimeMillis() - start;
+    Assert.assertTrue(elapsed >= DEADLINE_MILLIS && elapsed < 3 * DEADLINE_MILLIS,
+        "Took " + elapsed + " ms");
+
+    // Inconclusive, so the next look up asks again and finds it
+    stub(hanging, 200, 0);
+    Assert.assertEquals(locator.locate(QUERY_ID, backends), address(hanging));
+  }
+
+  public void testUnknownQueryIdsAreRemembered() {
+    QueryIdLocator locator = new QueryIdLocator(DEADLINE_MILLIS, 60000);
+    Assert.assertNull(locator.locate(QUERY_ID, backends));
+    stub(knowing, 200, 0);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertNull(locator.locate(QUERY_ID, backends));
+    }
+    Assert.assertEquals(knowing.getAllServeEvents().size(), 0);
+    Assert.assertEquals(locator.locate("20261017_101010_00043_abcde", backends),
+        address(knowing));
+  }
+}
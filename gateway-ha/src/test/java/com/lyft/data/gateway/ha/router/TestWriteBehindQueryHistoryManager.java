@@ -0,0 +1,85 @@
+package com.lyft.data.gateway.ha.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lyft.data.gateway.ha.HaGatewayTestUtils;
+import com.lyft.data.gateway.ha.config.DataStoreConfiguration;
+import com.lyft.data.gateway.ha.config.HaGatewayConfiguration;
+import com.lyft.data.gateway.ha.config.QueryHistoryWriterConfiguration;
+import com.lyft.data.gateway.ha.config.RequestRouterConfiguration;
+import com.lyft.data.gateway.ha.persistence.JdbcConnectionManager;
+import java.io.File;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@Test
+public class TestWriteBehindQueryHistoryManager {
+  private HaQueryHistoryManager historyManager;
+
+  @BeforeClass(alwaysRun = true)
+  public void setUp() {
+    File baseDir = new File(System.getProperty("java.io.tmpdir"));
+    File tempH2DbDir = new File(baseDir, "h2db-" + System.currentTimeMillis());
+    tempH2DbDir.deleteOnExit();
+    HaGatewayTestUtils.seedRequiredData(
+        new HaGatewayTestUtils.TestConfig("", tempH2DbDir.getAbsolutePath()));
+    String jdbcUrl = "jdbc:h2:" + tempH2DbDir.getAbsolutePath();
+    DataStoreConfiguration db = new DataStoreConfiguration(jdbcUrl, "sa", "sa", "org.h2.Driver");
+    JdbcConnectionManager connectionManager = new JdbcConnectionManager(db);
+    HaGatewayConfiguration gatewayConf = new HaGatewayConfiguration();
+    RequestRouterConfiguration routerConf = new RequestRouterConfiguration();
+    routerConf.setHistorySize(100);
+    gatewayConf.setRequestRouter(routerConf);
+    historyManager = new HaQueryHistoryManager(gatewayConf, connectionManager);
+  }
+
+  private static QueryHistoryManager.QueryDetail queryDetail(String queryId) {
+    QueryHistoryManager.QueryDetail queryDetail = new QueryHistoryManager.QueryDetail();
+    queryDetail.setQueryId(queryId);
+    queryDetail.setBackendUrl("http://localhost:9999");
+    queryDetail.setUser("test@ea.com");
+    queryDetail.setSource("sqlWorkbench");
+    queryDetail.setQueryText("select 1");
+    queryDetail.setCaptureTime(System.currentTimeMillis());
+    return queryDetail;
+  }
+
+  public void testBatchesArePersisted() throws Exception {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    QueryHistoryWriterConfiguration conf = new QueryHistoryWriterConfiguration();
+    conf.setBatchSize(10);
+    WriteBehindQueryHistoryManager writer =
+        new WriteBehindQueryHistoryManager(historyManager, conf, metricRegistry);
+    writer.start();
+    for (int i = 0; i < 25; i++) {
+      writer.submitQueryDetail(queryDetail("batch" + i));
+    }
+    // A duplicate fails its batch, the other rows of the batch must still be written
+    writer.submitQueryDetail(queryDetail("batch0"));
+    writer.stop();
+
+    Assert.assertEquals(writer.fetchQueryHistory().size(), 25);
+    Assert.assertEquals(writer.getBackendForQueryId("batch24"), "http://localhost:9999");
+    Assert.assertEquals(metricRegistry.getGauges()
+        .get(WriteBehindQueryHistoryManager.METRIC_PREFIX + ".queueDepth").getValue(), 0);
+    Assert.assertTrue(metricRegistry.getTimers()
+        .get(WriteBehindQueryHistoryManager.METRIC_PREFIX + ".flush").getCount() > 0);
+  }
+
+  public void testOverflowDropsNewest() {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    QueryHistoryWriterConfiguration conf = new QueryHistoryWriterConfiguration();
+    conf.setQueueCapacity(2);
+    // Not started, so nothing drains the queue
+    WriteBehindQueryHistoryManager writer =
+        new WriteBehindQueryHistoryManager(historyManager, conf, metricRegistry);
+    for (int i = 0; i < 5; i++) {
+      writer.submitQueryDetail(queryDetail("overflow" + i));
+    }
+    Assert.assertEquals(metricRegistry.getMeters()
+        .get(WriteBehindQueryHistoryManager.METRIC_PREFIX + ".dropped").getCount(), 3);
+    Assert.assertEquals(metricRegistry.getGauges()
+        .get(WriteBehindQueryHistoryManager.METRIC_PREFIX + ".queueDepth").getValue(), 2);
+  }
+}
@@ -38,6 +38,51 @@ public class ProxyHandler {
     return targetLocation;
   }
 
+  /**
+   * Whether the body of this request is read by the handler. Only such requests have their body
+   * buffered by {@link RequestFilter}, all other bodies are streamed to the backend untouched.
+   *
+   * @param request
+   * @return true if the handler reads the request body
+   */
+  public boolean isRequestBodyInspected(HttpServletRequest request) {
+    return false;
+  }
+
+  /**
+   * Whether {@link #postConnectionHook} needs to see the response content of this request.
+   * Responses that are not inspected are streamed to the client without going through the hook.
+   *
+   * @param request
+   * @return true if the handler reads the response content
+   */
+  public boolean isResponseContentInspected(HttpServletRequest request) {
+    return true;
+  }
+
+  /**
+   * Whether {@link #postConnectionHook} may change the length of the response content of this
+   * request. The Content-Length of such responses is dropped, so they are sent chunked.
+   *
+   * @param request
+   * @return true if the handler rewrites the response content
+   */
+  public boolean isResponseContentRewritten(HttpServletRequest request) {
+    return false;
+  }
+
+  /**
+   * Lets the handler answer a request itself instead of proxying it, e.g. from memory.
+   *
+   * @param request
+   * @param response
+   * @return true if the response has been written and the request must not be proxied
+   */
+  public boolean handleLocally(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    return false;
+  }
+
   /**
    * Request interceptor.
    *
@@ -73,6 +118,18 @@ public class ProxyHandler {
     }
   }
 
+  /**
+   * Called once all the response content has gone through {@link #postConnectionHook}, before
+   * the response is completed. Lets handlers that hold back content write what is left.
+   *
+   * @param request
+   * @param response
+   */
+  protected void postConnectionComplete(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // you may override it.
+  }
+
   protected void debugLogHeaders(HttpServletRequest request) {
     if (log.isDebugEnabled()) {
       log.debug("-------HttpServletRequest headers---------");
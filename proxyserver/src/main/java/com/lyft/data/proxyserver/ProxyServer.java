@@ -20,6 +20,7 @@ import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
@@ -103,7 +104,10 @@ public class ProxyServer implements Closeable {
     this.context =
         new ServletContextHandler(proxyConnectHandler, "/", ServletContextHandler.SESSIONS);
     this.context.addServlet(proxyServlet, "/*");
-    this.context.addFilter(RequestFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
+    this.context.addFilter(
+        new FilterHolder(new RequestFilter(proxyHandler)),
+        "/*",
+        EnumSet.allOf(DispatcherType.class));
   }
 
   public void addFilter(Class<? extends Filter> filterClass, String pathSpec) {
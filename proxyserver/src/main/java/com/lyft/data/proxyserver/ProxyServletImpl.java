@@ -1,7 +1,11 @@
 package com.lyft.data.proxyserver;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -10,7 +14,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.proxy.ProxyServlet;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
@@ -24,6 +30,15 @@ public class ProxyServletImpl extends ProxyServlet.Transparent {
     this.setTimeout(TimeUnit.MINUTES.toMillis(1));
   }
 
+  @Override
+  protected void service(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    if (proxyHandler != null && proxyHandler.handleLocally(request, response)) {
+      return;
+    }
+    super.service(request, response);
+  }
+
   // Overriding this method to support ssl
   @Override
   protected HttpClient newHttpClient() {
@@ -64,6 +79,47 @@ public class ProxyServletImpl extends ProxyServlet.Transparent {
     return target;
   }
 
+  /** Drops the Content-Length of responses whose content the handler rewrites. */
+  @Override
+  protected String filterServerResponseHeader(HttpServletRequest request,
+      Response serverResponse, String headerName, String headerValue) {
+    if (proxyHandler != null && HttpHeader.CONTENT_LENGTH.is(headerName)
+        && proxyHandler.isResponseContentRewritten(request)) {
+      return null;
+    }
+    return super.filterServerResponseHeader(request, serverResponse, headerName, headerValue);
+  }
+
+  @Override
+  protected void onProxyResponseSuccess(HttpServletRequest request, HttpServletResponse response,
+      Response serverResponse) {
+    if (proxyHandler != null && !isPassThrough(request)) {
+      try {
+        proxyHandler.postConnectionComplete(request, response);
+      } catch (Throwable e) {
+        onProxyResponseFailure(request, response, serverResponse, e);
+        return;
+      }
+    }
+    super.onProxyResponseSuccess(request, response, serverResponse);
+  }
+
+  @Override
+  protected Response.Listener newProxyResponseListener(
+      HttpServletRequest request, HttpServletResponse response) {
+    return new PassThroughResponseListener(request, response);
+  }
+
+  /**
+   * Whether the response content for this request can skip the response hooks altogether.
+   *
+   * @param request
+   * @return true if no handler looks at the response content
+   */
+  protected boolean isPassThrough(HttpServletRequest request) {
+    return proxyHandler == null || !proxyHandler.isResponseContentInspected(request);
+  }
+
   /**
    * Customize the response returned from remote server.
    *
@@ -97,4 +153,58 @@ public class ProxyServletImpl extends ProxyServlet.Transparent {
       callback.failed(var9);
     }
   }
+
+  /**
+   * Hands the backend content of responses nobody inspects straight to the Jetty output
+   * interceptor chain. The backend buffer is neither copied into a byte[] nor written with a
+   * blocking call, the backend is only asked for more content once the write has completed.
+   * Inspected responses take the usual {@link #onResponseContent} path.
+   */
+  protected class PassThroughResponseListener extends ProxyResponseListener {
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+
+    protected PassThroughResponseListener(
+        HttpServletRequest request, HttpServletResponse response) {
+      super(request, response);
+      this.request = request;
+      this.response = response;
+    }
+
+    @Override
+    public void onContent(Response proxyResponse, ByteBuffer content, Callback callback) {
+      HttpOutput output = null;
+      if (isPassThrough(request)) {
+        output = getHttpOutput(response);
+      }
+      if (output == null) {
+        super.onContent(proxyResponse, content, callback);
+        return;
+      }
+
+      if (_log.isDebugEnabled()) {
+        _log.debug(
+            "[{}] passing through content to downstream: [{}] bytes",
+            getRequestId(request),
+            content.remaining());
+      }
+      output.getInterceptor().write(content, false, new Callback.Nested(callback) {
+        @Override
+        public void failed(Throwable x) {
+          super.failed(x);
+          proxyResponse.abort(x);
+        }
+      });
+    }
+
+    private HttpOutput getHttpOutput(HttpServletResponse response) {
+      try {
+        ServletOutputStream output = response.getOutputStream();
+        return output instanceof HttpOutput ? (HttpOutput) output : null;
+      } catch (IOException e) {
+        log.debug("Unable to access the response output, falling back to the default path", e);
+        return null;
+      }
+    }
+  }
 }
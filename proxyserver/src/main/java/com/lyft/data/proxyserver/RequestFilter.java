@@ -18,8 +18,17 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class RequestFilter implements Filter {
+  private final ProxyHandler proxyHandler;
   private FilterConfig filterConfig = null;
 
+  public RequestFilter() {
+    this(null);
+  }
+
+  public RequestFilter(ProxyHandler proxyHandler) {
+    this.proxyHandler = proxyHandler;
+  }
+
   public void init(FilterConfig filterConfig) throws ServletException {
     this.filterConfig = filterConfig;
   }
@@ -30,9 +39,12 @@ public class RequestFilter implements Filter {
 
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
       throws IOException, ServletException {
-    // We need to convert the ServletRequest to MultiReadRequest, so that we can intercept later
+    // We need to convert the ServletRequest to MultiReadRequest, so that we can intercept later.
+    // Only bodies the proxy handler inspects are buffered, everything else streams through.
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    boolean bufferBody = proxyHandler != null && proxyHandler.isRequestBodyInspected(httpRequest);
     MultiReadHttpServletRequest multiReadRequest =
-        new MultiReadHttpServletRequest((HttpServletRequest) request);
+        new MultiReadHttpServletRequest(httpRequest, bufferBody);
     HttpServletResponseWrapper responseWrapper =
         new HttpServletResponseWrapper((HttpServletResponse) response);
     chain.doFilter(multiReadRequest, responseWrapper);
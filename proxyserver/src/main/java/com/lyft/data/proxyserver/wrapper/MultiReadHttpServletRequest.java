@@ -1,12 +1,13 @@
 package com.lyft.data.proxyserver.wrapper;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -18,16 +19,29 @@ import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
+/**
+ * Request wrapper that allows extra headers to be attached to a request and, for requests whose
+ * body is inspected by the gateway, lets the body be read more than once. The body is only
+ * buffered when it is first read; requests created with {@code bufferBody = false} stream their
+ * body straight from the underlying request.
+ */
 public class MultiReadHttpServletRequest extends HttpServletRequestWrapper {
+  private static final int SCRATCH_BUFFER_SIZE = 8192;
+  // Up-front allocation for bodies of a known length, which grows as the bytes arrive
+  private static final int INITIAL_BUFFER_SIZE = 65536;
 
+  // Servlet threads are pooled, so a per thread scratch buffer acts as a buffer pool.
+  private static final ThreadLocal<byte[]> SCRATCH_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[SCRATCH_BUFFER_SIZE]);
+
+  private final boolean bufferBody;
   private byte[] content;
-  private final Map<String, String> headerMap = new HashMap<>();
+  private Map<String, String> headerMap;
 
   public static void copy(InputStream in, OutputStream out) throws IOException {
-
-    byte[] buffer = new byte[1024];
+    byte[] buffer = SCRATCH_BUFFER.get();
     while (true) {
-      int bytesRead = in.read(buffer);
+      int bytesRead = in.read(buffer, 0, buffer.length);
       if (bytesRead == -1) {
         break;
       }
@@ -35,11 +49,23 @@ public class MultiReadHttpServletRequest extends HttpServletRequestWrapper {
     }
   }
 
-  public MultiReadHttpServletRequest(HttpServletRequest request) throws IOException {
+  public MultiReadHttpServletRequest(HttpServletRequest request) {
+    this(request, true);
+  }
+
+  /**
+   * Wraps a request.
+   *
+   * @param request request to wrap
+   * @param bufferBody whether the body should be captured so it can be read multiple times
+   */
+  public MultiReadHttpServletRequest(HttpServletRequest request, boolean bufferBody) {
     super(request);
-    ByteArrayOutputStream bodyInOutputStream = new ByteArrayOutputStream();
-    copy(request.getInputStream(), bodyInOutputStream);
-    content = bodyInOutputStream.toByteArray();
+    this.bufferBody = bufferBody;
+  }
+
+  public boolean isBodyBuffered() {
+    return bufferBody;
   }
 
   /**
@@ -49,16 +75,18 @@ public class MultiReadHttpServletRequest extends HttpServletRequestWrapper {
    * @param value
    */
   public void addHeader(String name, String value) {
+    if (headerMap == null) {
+      headerMap = new HashMap<>();
+    }
     headerMap.put(name, value);
   }
 
   @Override
   public String getHeader(String name) {
-    String headerValue = super.getHeader(name);
-    if (headerMap.containsKey(name)) {
-      headerValue = headerMap.get(name);
+    if (headerMap != null && headerMap.containsKey(name)) {
+      return headerMap.get(name);
     }
-    return headerValue;
+    return super.getHeader(name);
   }
 
   /**
@@ -66,47 +94,131 @@ public class MultiReadHttpServletRequest extends HttpServletRequestWrapper {
    */
   @Override
   public Enumeration<String> getHeaderNames() {
-    List<String> names = Collections.list(super.getHeaderNames());
-    for (String name : headerMap.keySet()) {
-      names.add(name);
+    if (headerMap == null) {
+      return super.getHeaderNames();
     }
+    List<String> names = Collections.list(super.getHeaderNames());
+    names.addAll(headerMap.keySet());
     return Collections.enumeration(names);
   }
 
   @Override
   public Enumeration<String> getHeaders(String name) {
-    List<String> values = Collections.list(super.getHeaders(name));
-    if (headerMap.containsKey(name)) {
-      values.add(headerMap.get(name));
+    if (headerMap == null || !headerMap.containsKey(name)) {
+      return super.getHeaders(name);
     }
+    List<String> values = Collections.list(super.getHeaders(name));
+    values.add(headerMap.get(name));
     return Collections.enumeration(values);
   }
 
   @Override
   public ServletInputStream getInputStream() throws IOException {
-    final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(content);
-    return new ServletInputStream() {
-      @Override
-      public boolean isFinished() {
-        return false;
+    if (!bufferBody) {
+      return super.getInputStream();
+    }
+    return new CachedServletInputStream(getContent());
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException {
+    if (!bufferBody) {
+      return super.getReader();
+    }
+    String encoding = getCharacterEncoding();
+    Charset charset = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+    return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+  }
+
+  private byte[] getContent() throws IOException {
+    if (content == null) {
+      content = readContent(super.getInputStream(), getContentLength());
+    }
+    return content;
+  }
+
+  private static byte[] readContent(InputStream in, int contentLength) throws IOException {
+    if (contentLength >= 0) {
+      // The length is only a hint from the client, so the array grows as the bytes arrive, up to
+      // the final size when the length is right.
+      byte[] body = new byte[Math.min(contentLength, INITIAL_BUFFER_SIZE)];
+      int read = 0;
+      while (read < contentLength) {
+        if (read == body.length) {
+          body = Arrays.copyOf(body, (int) Math.min(contentLength, 2L * body.length));
+        }
+        int count = in.read(body, read, body.length - read);
+        if (count == -1) {
+          return Arrays.copyOf(body, read);
+        }
+        read += count;
       }
+      return body;
+    }
+    ByteArrayOutputStream bodyInOutputStream = new ByteArrayOutputStream();
+    copy(in, bodyInOutputStream);
+    return bodyInOutputStream.toByteArray();
+  }
 
-      @Override
-      public boolean isReady() {
-        return false;
+  private static class CachedServletInputStream extends ServletInputStream {
+    private final byte[] content;
+    private int position;
+
+    CachedServletInputStream(byte[] content) {
+      this.content = content;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return position >= content.length;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      try {
+        if (!isFinished()) {
+          readListener.onDataAvailable();
+        }
+        readListener.onAllDataRead();
+      } catch (IOException e) {
+        readListener.onError(e);
       }
+    }
 
-      @Override
-      public void setReadListener(ReadListener readListener) {}
+    @Override
+    public int read() {
+      return isFinished() ? -1 : content[position++] & 0xff;
+    }
 
-      public int read() throws IOException {
-        return byteArrayInputStream.read();
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (length == 0) {
+        return 0;
       }
-    };
-  }
+      if (isFinished()) {
+        return -1;
+      }
+      int count = Math.min(length, content.length - position);
+      System.arraycopy(content, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
 
-  @Override
-  public BufferedReader getReader() throws IOException {
-    return new BufferedReader(new InputStreamReader(this.getInputStream()));
+    @Override
+    public long skip(long n) {
+      long count = Math.max(0, Math.min(n, content.length - position));
+      position += (int) count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return content.length - position;
+    }
   }
 }
@@ -9,9 +9,13 @@ import com.squareup.okhttp.mockwebserver.RecordedRequest;
 import java.io.IOException;
 import java.util.Random;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
@@ -75,6 +79,70 @@ public class TestProxyServer {
     }
   }
 
+  @Test
+  public void testRequestBodyForwarded() throws Exception {
+    String requestBody = "SELECT * FROM system.runtime.nodes";
+    int backendPort = 30000 + new Random().nextInt(1000);
+
+    MockWebServer backend = new MockWebServer();
+    backend.enqueue(new MockResponse().setBody("OK"));
+    backend.play(backendPort);
+
+    int serverPort = backendPort + 1;
+    ProxyServerConfiguration config = buildConfig(backend.getUrl("/").toString(), serverPort);
+    ProxyServer proxyServer = new ProxyServer(config, new ProxyHandler(backendPort));
+
+    try {
+      proxyServer.start();
+      CloseableHttpClient httpclient = HttpClientBuilder.create().build();
+      HttpPost httpPost = new HttpPost("http://localhost:" + serverPort + "/v1/statement");
+      httpPost.setEntity(new StringEntity(requestBody));
+
+      HttpResponse response = httpclient.execute(httpPost);
+      assertEquals(EntityUtils.toString(response.getEntity()), "OK");
+      RecordedRequest recordedRequest = backend.takeRequest();
+      assertEquals(recordedRequest.getUtf8Body(), requestBody);
+    } finally {
+      proxyServer.close();
+      backend.shutdown();
+    }
+  }
+
+  @Test
+  public void testPassThroughContent() throws Exception {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      body.append(i).append(',');
+    }
+    String mockResponseText = body.toString();
+    int backendPort = 30000 + new Random().nextInt(1000);
+
+    MockWebServer backend = new MockWebServer();
+    backend.enqueue(new MockResponse().setBody(mockResponseText));
+    backend.play(backendPort);
+
+    int serverPort = backendPort + 1;
+    ProxyServerConfiguration config = buildConfig(backend.getUrl("/").toString(), serverPort);
+    ProxyHandler passThroughHandler = new ProxyHandler(backendPort) {
+      @Override
+      public boolean isResponseContentInspected(HttpServletRequest request) {
+        return false;
+      }
+    };
+    ProxyServer proxyServer = new ProxyServer(config, passThroughHandler);
+
+    try {
+      proxyServer.start();
+      CloseableHttpClient httpclient = HttpClientBuilder.create().build();
+      HttpUriRequest httpUriRequest = new HttpGet("http://localhost:" + serverPort);
+      HttpResponse response = httpclient.execute(httpUriRequest);
+      assertEquals(EntityUtils.toString(response.getEntity()), mockResponseText);
+    } finally {
+      proxyServer.close();
+      backend.shutdown();
+    }
+  }
+
   private ProxyServerConfiguration buildConfig(String backendUrl, int localPort) {
     ProxyServerConfiguration config = new ProxyServerConfiguration();
     config.setName("MockBackend");